@@ -0,0 +1,161 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.bench;
+
+import au.com.helixta.common.base.AtomicLazy;
+import au.com.helixta.common.base.Lazies;
+import au.com.helixta.common.base.Lazy;
+import au.com.helixta.common.base.ThreadsafeLazy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Lazy#get()} across the Lazy implementations.
+ *
+ * <p>
+ * "warm" reads an already initialized lazy. "cold" reads a fresh lazy on every
+ * operation; all threads walk the same sequence of fresh lazies, so under
+ * {@code ThreadsN} the first thread to arrive creates and the others contend.
+ *
+ * <p>
+ * The nested {@code ThreadsN} classes run the same benchmarks with N threads.
+ * SIMPLE is not threadsafe, so its contended numbers are for reference only.
+ *
+ * @author dan
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public abstract class LazyBenchmark {
+
+  /** Number of fresh lazies consumed per cold iteration. */
+  static final int COLD_BATCH = 10000;
+
+  public enum Kind {
+    THREADSAFE,
+    ATOMIC,
+    SIMPLE,
+    EAGER,
+    UPCAST;
+
+    Lazy<Object> make() {
+      switch (this) {
+        case THREADSAFE:
+          return new ThreadsafeLazy<Object>("bench") {
+            @Override protected Object create() {
+              return new Object();
+            }
+          };
+        case ATOMIC:
+          return new AtomicLazy<Object>("bench") {
+            @Override protected Object create() {
+              return new Object();
+            }
+          };
+        case SIMPLE:
+          return new Lazies.SimpleLazy<Object>() {
+            @Override protected Object create() {
+              return new Object();
+            }
+          };
+        case EAGER:
+          return Lazies.eager(new Object());
+        case UPCAST:
+          // Chain of upcasts, as generated for satisfiers of satisfiers.
+          Lazy<String> base = new ThreadsafeLazy<String>("bench") {
+            @Override protected String create() {
+              return new String("object");
+            }
+          };
+          return Lazies.<Object>upcast(Lazies.<CharSequence>upcast(base));
+        default:
+          throw new AssertionError(this);
+      }
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class Warm {
+    @Param({"THREADSAFE", "ATOMIC", "SIMPLE", "EAGER", "UPCAST"})
+    Kind kind;
+
+    Lazy<Object> lazy;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      lazy = kind.make();
+      lazy.get();
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class Cold {
+    @Param({"THREADSAFE", "ATOMIC", "SIMPLE", "EAGER", "UPCAST"})
+    Kind kind;
+
+    final Lazy<?>[] lazies = new Lazy<?>[COLD_BATCH];
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+      for (int i = 0; i < lazies.length; i++) {
+        lazies[i] = kind.make();
+      }
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Cursor {
+    int next;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+      next = 0;
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public Object warm(Warm state) {
+    return state.lazy.get();
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  @Warmup(iterations = 20, batchSize = COLD_BATCH)
+  @Measurement(iterations = 50, batchSize = COLD_BATCH)
+  public Object cold(Cold state, Cursor cursor) {
+    return state.lazies[cursor.next++].get();
+  }
+
+  @Threads(1)
+  public static class Threads1 extends LazyBenchmark {
+  }
+
+  @Threads(4)
+  public static class Threads4 extends LazyBenchmark {
+  }
+
+  @Threads(16)
+  public static class Threads16 extends LazyBenchmark {
+  }
+
+  @Threads(64)
+  public static class Threads64 extends LazyBenchmark {
+  }
+}
@@ -0,0 +1,82 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.bench;
+
+import au.com.helixta.bench.ScopeFixtures.Fixture;
+import au.com.helixta.common.base.Lazy;
+import au.com.helixta.inject.gen.LazyImpl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures construction and binding access of generated scopes.
+ *
+ * <p>
+ * Each benchmark touches every binding once, so results are per scope, not per
+ * binding.
+ *
+ * @see ScopeFixtures
+ * @author dan
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class ScopeBenchmark {
+
+  @Param({"10", "100", "1000"})
+  int size;
+
+  @Param({"MONITOR", "ATOMIC", "LOCKING", "CONFINED"})
+  LazyImpl lazies;
+
+  Fixture fixture;
+  Lazy<?>[] warm;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    fixture = ScopeFixtures.build(size, lazies);
+    warm = fixture.bindings(fixture.newScope());
+    for (Lazy<?> lazy : warm) {
+      lazy.get();
+    }
+  }
+
+  /** Scope construction alone. */
+  @Benchmark
+  public Object construct() {
+    return fixture.newScope();
+  }
+
+  /** Construct a scope and initialize every binding. */
+  @Benchmark
+  public void cold(Blackhole bh) {
+    for (Lazy<?> lazy : fixture.bindings(fixture.newScope())) {
+      bh.consume(lazy.get());
+    }
+  }
+
+  /** Read every binding of an initialized scope. */
+  @Benchmark
+  public void warm(Blackhole bh) {
+    for (Lazy<?> lazy : warm) {
+      bh.consume(lazy.get());
+    }
+  }
+}
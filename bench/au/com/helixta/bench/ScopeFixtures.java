@@ -0,0 +1,121 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.bench;
+
+import au.com.helixta.common.base.Lazy;
+import au.com.helixta.gen.ClassGenerator;
+import au.com.helixta.gen.ClassWriter;
+import au.com.helixta.inject.Provides;
+import au.com.helixta.inject.gen.LazyImpl;
+import au.com.helixta.inject.gen.ScopeBuilder;
+
+import com.google.common.collect.Lists;
+
+import javax.inject.Named;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.List;
+
+/**
+ * Builds generated scopes of a given size for benchmarking.
+ *
+ * <p>
+ * Provider classes can't be written by hand for every size, so the fixture
+ * provider class is generated and loaded first, so that {@link ScopeBuilder}
+ * can reflect over it like any other provider class.
+ *
+ * <p>
+ * Binding {@code i} depends on binding {@code (i - 1) / 2}, so the dependency
+ * graph is a balanced tree rooted at binding 0.
+ *
+ * @author dan
+ */
+public class ScopeFixtures {
+  private ScopeFixtures() {}
+
+  /** The type provided by every fixture binding. */
+  public static final class Node {
+    public final Node parent;
+
+    public Node(Node parent) {
+      this.parent = parent;
+    }
+  }
+
+  /**
+   * A loaded fixture scope class and its bindings, in binding order.
+   */
+  public static final class Fixture {
+    private final Constructor<?> scopeCtor;
+    private final Object providers;
+    private final List<Field> bindings;
+
+    Fixture(Constructor<?> scopeCtor, Object providers, List<Field> bindings) {
+      this.scopeCtor = scopeCtor;
+      this.providers = providers;
+      this.bindings = bindings;
+    }
+
+    /** Constructs a fresh, cold scope. */
+    public Object newScope() {
+      try {
+        return scopeCtor.newInstance(providers);
+      } catch (ReflectiveOperationException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    /** Returns the binding lazies of the given scope. */
+    public Lazy<?>[] bindings(Object scope) {
+      Lazy<?>[] lazies = new Lazy<?>[bindings.size()];
+      for (int i = 0; i < lazies.length; i++) {
+        try {
+          lazies[i] = (Lazy<?>) bindings.get(i).get(scope);
+        } catch (IllegalAccessException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      return lazies;
+    }
+  }
+
+  /**
+   * Generates, compiles and loads a scope with the given number of provider
+   * bindings. Everything is compiled in memory.
+   */
+  public static Fixture build(int size, LazyImpl lazyImpl) throws Exception {
+    ClassGenerator generator = ClassGenerator.inMemory(ScopeFixtures.class.getClassLoader());
+    Package pkg = ScopeFixtures.class.getPackage();
+
+    ClassWriter w = generator.writerFor(pkg, "FixtureProviders" + size);
+    w.addImport(Provides.class);
+    w.addImport(Named.class);
+    w.addImport(Node.class);
+    w.writeHeader();
+    w.println("public class " + w.name + " {");
+    w.println("  @Provides @Named(\"b0\") public Node b0() { return new Node(null); }");
+    for (int i = 1; i < size; i++) {
+      w.println("  @Provides @Named(\"b" + i + "\") public Node b" + i
+          + "(@Named(\"b" + ((i - 1) / 2) + "\") Node parent) { return new Node(parent); }");
+    }
+    w.println("}");
+    Class<?> providersClass = w.closeWithBuilder().builtClass();
+
+    Class<?> scopeClass = ScopeBuilder.create(pkg, "FixtureScope" + size + lazyImpl)
+        .providers(providersClass)
+        .lazies(lazyImpl)
+        .generate(generator)
+        .builtClass();
+
+    List<Field> bindings = Lists.newArrayList();
+    for (int i = 0; i < size; i++) {
+      bindings.add(scopeClass.getField("node_0Named_b" + i));
+    }
+
+    return new Fixture(
+        scopeClass.getConstructor(providersClass),
+        providersClass.getDeclaredConstructor().newInstance(),
+        bindings);
+  }
+}
@@ -0,0 +1,25 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.common.base;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A Lazy whose value can also be waited for asynchronously.
+ *
+ * <p>
+ * {@link #get()} blocks until the value is available.
+ *
+ * @author dan
+ */
+public interface AsyncLazy<T> extends Lazy<T> {
+
+  /**
+   * Starts creating the value if that hasn't started yet, without waiting
+   * for it.
+   *
+   * @return completes with the value, or with the reason it couldn't be
+   *         created. Always the same future, until a reset.
+   */
+  CompletableFuture<T> getAsync();
+}
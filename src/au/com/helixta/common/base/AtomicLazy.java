@@ -0,0 +1,199 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.common.base;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Threadsafe lazy initializing implementation that never takes a monitor.
+ *
+ * <p>
+ * Same contract as {@link ThreadsafeLazy}, but publication is done with a CAS
+ * state machine (UNINIT -> CREATING -> READY or FAILED) on a {@link VarHandle}
+ * instead of double-checked locking. The value is stored directly, without a
+ * wrapper object. Threads that arrive while another thread is creating the
+ * value park until it is done, rather than contending on a monitor. An
+ * interrupt doesn't end the wait, but is kept for the caller to see.
+ *
+ * @author dan
+ */
+public abstract class AtomicLazy<T> implements Lazy<T>, Resettable {
+
+  /**
+   * Override this method to provide the actual object.
+   *
+   * <p>
+   * Guaranteed to be called at most once, or once after each {@link #reset()}.
+   *
+   * @return the created object. Must not be null.
+   *
+   * @throws Exception
+   *           if object could not be created. In this case, this Lazy object
+   *           will throw an exception every time {@link #get()} is called.
+   *           {@code create()} will never be called again.
+   */
+  protected abstract T create() throws Exception;
+
+  public AtomicLazy() {
+    this("object");
+  }
+
+  public AtomicLazy(String name) {
+    this.name = checkNotNull(name);
+  }
+
+  private static final int UNINIT = 0;
+  private static final int CREATING = 1;
+  private static final int READY = 2;
+  private static final int FAILED = 3;
+
+  private static final VarHandle STATE;
+  private static final VarHandle WAITERS;
+
+  static {
+    try {
+      MethodHandles.Lookup lookup = MethodHandles.lookup();
+      STATE = lookup.findVarHandle(AtomicLazy.class, "state", int.class);
+      WAITERS = lookup.findVarHandle(AtomicLazy.class, "waiters", Waiter.class);
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  /** Stack node for a thread parked while another thread is creating. */
+  private static class Waiter {
+    private final Thread thread = Thread.currentThread();
+    private Waiter next;
+  }
+
+  private final String name;
+  private volatile int state = UNINIT;
+  private volatile Waiter waiters = null;
+
+  /*
+   * Plain fields. They are written before the volatile write of state, and
+   * read after the volatile read of state, which is enough for safe
+   * publication.
+   */
+  private T value;
+  private Throwable failure;
+
+  /**
+   * Only ever set to the creating thread, and only read to compare against the
+   * current thread, so a stale read can't produce a false positive.
+   */
+  private Thread creator;
+
+  @Override
+  public T get() {
+    if (state == READY) {
+      return value;
+    }
+    return slowGet();
+  }
+
+  private T slowGet() {
+    if (!STATE.compareAndSet(this, UNINIT, CREATING)) {
+      return await();
+    }
+
+    creator = Thread.currentThread();
+    try {
+      value = checkNotNull(doCreate(), "Null %s", name);
+      state = READY;
+      return value;
+    } catch (RuntimeException | Error e) {
+      failure = e;
+      state = FAILED;
+      throw e;
+    } finally {
+      creator = null;
+      wakeWaiters();
+    }
+  }
+
+  private T await() {
+    boolean interrupted = false;
+    try {
+      Waiter node = null;
+      while (true) {
+        switch (state) {
+          case READY:
+            return value;
+          case FAILED:
+            throw new RuntimeException("Failed initialization for " + name, failure);
+          default:
+            break;
+        }
+
+        if (creator == Thread.currentThread()) {
+          throw new RuntimeException("Circular dependency for " + name);
+        }
+
+        if (node == null) {
+          node = new Waiter();
+          Waiter head;
+          do {
+            head = waiters;
+            node.next = head;
+          } while (!WAITERS.compareAndSet(this, head, node));
+
+          // Re-check before parking, in case the creator finished and drained
+          // the waiters before we were pushed.
+          continue;
+        }
+
+        LockSupport.park(this);
+        // park returns at once while the interrupt flag is set, so clear it
+        // until the wait is over rather than spinning
+        if (Thread.interrupted()) {
+          interrupted = true;
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private void wakeWaiters() {
+    // state has already been written, so any waiter pushed after this swap
+    // will see it on its re-check and not park.
+    Waiter w = (Waiter) WAITERS.getAndSet(this, null);
+    while (w != null) {
+      LockSupport.unpark(w.thread);
+      w = w.next;
+    }
+  }
+
+  /**
+   * @throws IllegalStateException if the value is being created
+   */
+  @Override
+  public void reset() {
+    int s = state;
+    checkState(s != CREATING, "Reset while in use: %s", name);
+    value = null;
+    failure = null;
+    // Fails if another thread started creating since the check, rather than
+    // letting its value be published after the reset
+    checkState(STATE.compareAndSet(this, s, UNINIT), "Reset while in use: %s", name);
+  }
+
+  private T doCreate() {
+    try {
+      return create();
+    } catch (RuntimeException e) {
+      // Avoid wrapping RuntimeException in a RuntimeException
+      throw e;
+    } catch (Exception e) {
+      throw new RuntimeException("Error initializing " + name, e);
+    }
+  }
+}
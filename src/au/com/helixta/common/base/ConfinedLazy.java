@@ -0,0 +1,92 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.common.base;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Lazy initializing implementation for objects confined to a single thread.
+ *
+ * <p>
+ * Same contract as {@link ThreadsafeLazy}, but with plain fields and no
+ * synchronization at all. It must only be used from the thread that
+ * constructed it, or after a reset, the next thread that uses it. This is
+ * checked with an assertion, so only when assertions are enabled.
+ *
+ * @author dan
+ */
+public abstract class ConfinedLazy<T> implements Lazy<T>, Resettable {
+
+  /**
+   * Override this method to provide the actual object.
+   *
+   * <p>
+   * Guaranteed to be called at most once, or once after each {@link #reset()}.
+   *
+   * @return the created object. Must not be null.
+   *
+   * @throws Exception
+   *           if object could not be created. In this case, this Lazy object
+   *           will throw an exception every time {@link #get()} is called.
+   *           {@code create()} will never be called again.
+   */
+  protected abstract T create() throws Exception;
+
+  public ConfinedLazy() {
+    this("object");
+  }
+
+  public ConfinedLazy(String name) {
+    this.name = checkNotNull(name);
+  }
+
+  private final String name;
+  private Thread owner = Thread.currentThread();
+  private T value = null;
+  private boolean creating = false;
+
+  @Override
+  public T get() {
+    assert isOwner()
+        : name + " is confined to " + owner + " but used from " + Thread.currentThread();
+
+    if (value == null) {
+      if (creating) {
+        throw new RuntimeException("Circular dependency or failed initialization for " + name);
+      }
+      creating = true;
+      value = checkNotNull(doCreate(), "Null %s", name);
+    }
+
+    return value;
+  }
+
+  /**
+   * The next thread to use this after a reset becomes its owner.
+   */
+  @Override
+  public void reset() {
+    owner = null;
+    value = null;
+    creating = false;
+  }
+
+  /** Only called from assertions. */
+  private boolean isOwner() {
+    if (owner == null) {
+      owner = Thread.currentThread();
+    }
+    return owner == Thread.currentThread();
+  }
+
+  private T doCreate() {
+    try {
+      return create();
+    } catch (RuntimeException e) {
+      // Avoid wrapping RuntimeException in a RuntimeException
+      throw e;
+    } catch (Exception e) {
+      throw new RuntimeException("Error initializing " + name, e);
+    }
+  }
+}
@@ -0,0 +1,121 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.common.base;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+/**
+ * Threadsafe {@link AsyncLazy} for values that are created asynchronously.
+ *
+ * <p>
+ * Same contract as {@link ThreadsafeLazy}, except that {@link #createAsync()}
+ * only has to start creating the value. No lock is held while it runs, and
+ * threads calling {@link #get()} block on the future rather than on a
+ * monitor.
+ *
+ * @author dan
+ */
+public abstract class FutureLazy<T> implements AsyncLazy<T>, Resettable {
+
+  /**
+   * Override this method to start creating the actual object.
+   *
+   * <p>
+   * Guaranteed to be called at most once, or once after each {@link #reset()}.
+   *
+   * @return a future for the created object, which must not complete with
+   *         null.
+   *
+   * @throws Exception
+   *           if creation could not be started. In this case, as when the
+   *           returned future fails, this Lazy object will throw an
+   *           exception every time {@link #get()} is called.
+   */
+  protected abstract CompletableFuture<T> createAsync() throws Exception;
+
+  public FutureLazy() {
+    this("object");
+  }
+
+  public FutureLazy(String name) {
+    this.name = checkNotNull(name);
+  }
+
+  private final String name;
+  private final AtomicReference<CompletableFuture<T>> future = new AtomicReference<>();
+
+  /**
+   * Set only while {@link #createAsync()} runs, to detect it synchronously
+   * waiting for its own value.
+   */
+  private volatile Thread creator = null;
+
+  @Override
+  public CompletableFuture<T> getAsync() {
+    CompletableFuture<T> f = future.get();
+    if (f != null) {
+      return f;
+    }
+
+    final CompletableFuture<T> result = new CompletableFuture<>();
+    if (!future.compareAndSet(null, result)) {
+      return future.get();
+    }
+
+    creator = Thread.currentThread();
+    try {
+      checkNotNull(createAsync(), "Null future for %s", name).whenComplete(
+          new BiConsumer<T, Throwable>() {
+            @Override public void accept(T value, Throwable t) {
+              if (t != null) {
+                result.completeExceptionally(t);
+              } else if (value == null) {
+                result.completeExceptionally(new NullPointerException("Null " + name));
+              } else {
+                result.complete(value);
+              }
+            }
+          });
+    } catch (Exception e) {
+      result.completeExceptionally(e);
+    } finally {
+      creator = null;
+    }
+    return result;
+  }
+
+  @Override
+  public T get() {
+    CompletableFuture<T> f = getAsync();
+    if (!f.isDone() && creator == Thread.currentThread()) {
+      throw new RuntimeException("Circular dependency for " + name);
+    }
+
+    try {
+      return f.join();
+    } catch (CompletionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        // Avoid wrapping RuntimeException in a RuntimeException
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new RuntimeException("Error initializing " + name, cause);
+    }
+  }
+
+  /**
+   * Must not be called while creation may be in progress.
+   */
+  @Override
+  public void reset() {
+    future.set(null);
+  }
+}
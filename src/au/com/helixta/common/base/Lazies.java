@@ -6,6 +6,8 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import au.com.helixta.common.base.Factories.Factory0;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Collection of Lazy implementations and helpers.
  *
@@ -42,6 +44,86 @@ public class Lazies {
     return new Eager<>(obj, name);
   }
 
+  public static LazyInt eagerInt(final int value) {
+    return new LazyInt() {
+      @Override
+      public int getInt() {
+        return value;
+      }
+
+      @Override
+      public Integer get() {
+        return value;
+      }
+    };
+  }
+
+  public static LazyLong eagerLong(final long value) {
+    return new LazyLong() {
+      @Override
+      public long getLong() {
+        return value;
+      }
+
+      @Override
+      public Long get() {
+        return value;
+      }
+    };
+  }
+
+  public static LazyDouble eagerDouble(final double value) {
+    return new LazyDouble() {
+      @Override
+      public double getDouble() {
+        return value;
+      }
+
+      @Override
+      public Double get() {
+        return value;
+      }
+    };
+  }
+
+  public static LazyBoolean eagerBoolean(final boolean value) {
+    return new LazyBoolean() {
+      @Override
+      public boolean getBoolean() {
+        return value;
+      }
+
+      @Override
+      public Boolean get() {
+        return value;
+      }
+    };
+  }
+
+  /**
+   * View of a boxed lazy as a {@link LazyInt}, for lazy implementations with
+   * no int specialization. Each read unboxes, and resetting the view resets
+   * the lazy if it is {@link Resettable}.
+   */
+  public static LazyInt unboxedInt(Lazy<Integer> lazy) {
+    return new UnboxedInt(lazy);
+  }
+
+  /** Same as {@link #unboxedInt}, for longs. */
+  public static LazyLong unboxedLong(Lazy<Long> lazy) {
+    return new UnboxedLong(lazy);
+  }
+
+  /** Same as {@link #unboxedInt}, for doubles. */
+  public static LazyDouble unboxedDouble(Lazy<Double> lazy) {
+    return new UnboxedDouble(lazy);
+  }
+
+  /** Same as {@link #unboxedInt}, for booleans. */
+  public static LazyBoolean unboxedBoolean(Lazy<Boolean> lazy) {
+    return new UnboxedBoolean(lazy);
+  }
+
   /**
    * Upcast helper. Because Lazies are readonly, this is safe to do.
    */
@@ -50,6 +132,35 @@ public class Lazies {
     return (Lazy<T>) lazy;
   }
 
+  /**
+   * The lazy itself if it is already an {@link AsyncLazy}. Otherwise a view
+   * of it whose future is completed by calling {@link Lazy#get()} on the
+   * calling thread, so it blocks.
+   */
+  public static <T> AsyncLazy<T> async(final Lazy<T> lazy) {
+    if (lazy instanceof AsyncLazy) {
+      return (AsyncLazy<T>) lazy;
+    }
+    checkNotNull(lazy);
+    return new AsyncLazy<T>() {
+      @Override
+      public T get() {
+        return lazy.get();
+      }
+
+      @Override
+      public CompletableFuture<T> getAsync() {
+        CompletableFuture<T> f = new CompletableFuture<>();
+        try {
+          f.complete(lazy.get());
+        } catch (RuntimeException | Error e) {
+          f.completeExceptionally(e);
+        }
+        return f;
+      }
+    };
+  }
+
   public static abstract class SimpleLazy<T> implements Lazy<T> {
     private T value = null;
 
@@ -69,6 +180,70 @@ public class Lazies {
     }
   }
 
+  private static abstract class Unboxed<T> implements Lazy<T>, Resettable {
+    final Lazy<T> lazy;
+
+    Unboxed(Lazy<T> lazy) {
+      this.lazy = checkNotNull(lazy);
+    }
+
+    @Override
+    public T get() {
+      return lazy.get();
+    }
+
+    @Override
+    public void reset() {
+      if (lazy instanceof Resettable) {
+        ((Resettable) lazy).reset();
+      }
+    }
+  }
+
+  private static final class UnboxedInt extends Unboxed<Integer> implements LazyInt {
+    UnboxedInt(Lazy<Integer> lazy) {
+      super(lazy);
+    }
+
+    @Override
+    public int getInt() {
+      return lazy.get();
+    }
+  }
+
+  private static final class UnboxedLong extends Unboxed<Long> implements LazyLong {
+    UnboxedLong(Lazy<Long> lazy) {
+      super(lazy);
+    }
+
+    @Override
+    public long getLong() {
+      return lazy.get();
+    }
+  }
+
+  private static final class UnboxedDouble extends Unboxed<Double> implements LazyDouble {
+    UnboxedDouble(Lazy<Double> lazy) {
+      super(lazy);
+    }
+
+    @Override
+    public double getDouble() {
+      return lazy.get();
+    }
+  }
+
+  private static final class UnboxedBoolean extends Unboxed<Boolean> implements LazyBoolean {
+    UnboxedBoolean(Lazy<Boolean> lazy) {
+      super(lazy);
+    }
+
+    @Override
+    public boolean getBoolean() {
+      return lazy.get();
+    }
+  }
+
   /**
    * Not actually lazy!
    */
@@ -0,0 +1,18 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.common.base;
+
+/**
+ * Lazy int, which can be read without boxing.
+ *
+ * @author dan
+ */
+public interface LazyInt extends Lazy<Integer> {
+
+  /**
+   * Create and save the value if this is the first call
+   *
+   * @return the saved value.
+   */
+  int getInt();
+}
@@ -0,0 +1,98 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.common.base;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Threadsafe lazy initializing implementation that guards creation with a
+ * {@link ReentrantLock} rather than a monitor.
+ *
+ * <p>
+ * Same contract as {@link ThreadsafeLazy}. A virtual thread that blocks in
+ * {@link #create()}, or waits for another thread's creation, parks rather
+ * than pinning its carrier thread as it would inside a {@code synchronized}
+ * block.
+ *
+ * @author dan
+ */
+public abstract class LockingLazy<T> implements Lazy<T>, Resettable {
+
+  /**
+   * Override this method to provide the actual object.
+   *
+   * <p>
+   * Guaranteed to be called at most once, or once after each {@link #reset()}.
+   *
+   * @return the created object. Must not be null.
+   *
+   * @throws Exception
+   *           if object could not be created. In this case, this Lazy object
+   *           will throw an exception every time {@link #get()} is called.
+   *           {@code create()} will never be called again.
+   */
+  protected abstract T create() throws Exception;
+
+  public LockingLazy() {
+    this("object");
+  }
+
+  public LockingLazy(String name) {
+    this.name = checkNotNull(name);
+  }
+
+  private final String name;
+  private final ReentrantLock lock = new ReentrantLock();
+  private volatile T value = null;
+
+  /** Guarded by lock */
+  private boolean creating = false;
+
+  @Override
+  public T get() {
+    T v = value;
+    if (v == null) {
+      lock.lock();
+      try {
+        v = value;
+        if (v == null) {
+          // The lock is reentrant, so a cycle gets here rather than deadlocking
+          if (creating) {
+            throw new RuntimeException("Circular dependency or failed initialization for " + name);
+          }
+          creating = true;
+          v = checkNotNull(doCreate(), "Null %s", name);
+          value = v;
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    return v;
+  }
+
+  @Override
+  public void reset() {
+    lock.lock();
+    try {
+      value = null;
+      creating = false;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private T doCreate() {
+    try {
+      return create();
+    } catch (RuntimeException e) {
+      // Avoid wrapping RuntimeException in a RuntimeException
+      throw e;
+    } catch (Exception e) {
+      throw new RuntimeException("Error initializing " + name, e);
+    }
+  }
+}
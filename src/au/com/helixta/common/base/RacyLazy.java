@@ -0,0 +1,51 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.common.base;
+
+/**
+ * Lazy with no synchronization at all, for values that are cheap to create
+ * more than once and safe to publish through a data race.
+ *
+ * <p>
+ * The value is kept in a plain field, so once it is created, {@link #get()}
+ * is a field read and a null check. Threads racing on the first
+ * {@link #get()} may each create a value, and may each see their own. Unlike
+ * the other lazies, a failed creation isn't remembered, and is retried on the
+ * next {@link #get()}.
+ *
+ * <p>
+ * This is only threadsafe for values whose state is all in final fields, as
+ * those are the only fields the memory model guarantees to be visible to a
+ * thread that reads the value racily. Anything reachable through them must
+ * itself have been safely published before the value was constructed.
+ *
+ * @author dan
+ */
+public abstract class RacyLazy<T> implements Lazy<T>, Resettable {
+  private T value;
+
+  /**
+   * Override this method to provide the actual object.
+   *
+   * @return the created object. Must not be null.
+   */
+  protected abstract T create();
+
+  @Override
+  public final T get() {
+    T v = value;
+    if (v == null) {
+      v = create();
+      if (v == null) {
+        throw new NullPointerException("Lazy created null");
+      }
+      value = v;
+    }
+    return v;
+  }
+
+  @Override
+  public void reset() {
+    value = null;
+  }
+}
@@ -0,0 +1,19 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.common.base;
+
+/**
+ * Lazy that can discard its value, so that it is created again on next use.
+ *
+ * @author dan
+ */
+public interface Resettable {
+  /**
+   * Discards the created value, or creation failure, if any.
+   *
+   * <p>
+   * Must not be called while any other thread may be using this object. The
+   * caller is responsible for safely handing it over afterwards.
+   */
+  void reset();
+}
@@ -9,13 +9,13 @@ import static com.google.common.base.Preconditions.checkNotNull;
  *
  * @author dan
  */
-public abstract class ThreadsafeLazy<T> implements Lazy<T> {
+public abstract class ThreadsafeLazy<T> implements Lazy<T>, Resettable {
 
   /**
    * Override this method to provide the actual object.
    *
    * <p>
-   * Guaranteed to be called at most once.
+   * Guaranteed to be called at most once, or once after each {@link #reset()}.
    *
    * @return the created object. Must not be null.
    *
@@ -72,6 +72,12 @@ public abstract class ThreadsafeLazy<T> implements Lazy<T> {
     return w.object;
   }
 
+  @Override
+  public synchronized void reset() {
+    wrapper = null;
+    creating = false;
+  }
+
   private T doCreate() {
     try {
       return create();
@@ -0,0 +1,51 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.common.base;
+
+/**
+ * Threadsafe lazy initializing double. Same contract as {@link ThreadsafeLazy}.
+ *
+ * @author dan
+ */
+public abstract class ThreadsafeLazyDouble extends ThreadsafePrimitiveLazy implements LazyDouble {
+  private double value;
+
+  /**
+   * Override this method to provide the actual value.
+   *
+   * <p>
+   * Guaranteed to be called at most once, or once after each {@link #reset()}.
+   *
+   * @throws Exception
+   *           if the value could not be created. In this case, this Lazy
+   *           object will throw an exception every time it is read.
+   *           {@code create()} will never be called again.
+   */
+  protected abstract double create() throws Exception;
+
+  public ThreadsafeLazyDouble() {
+    this("double");
+  }
+
+  public ThreadsafeLazyDouble(String name) {
+    super(name);
+  }
+
+  @Override
+  public double getDouble() {
+    if (!ready) {
+      initialize();
+    }
+    return value;
+  }
+
+  @Override
+  public Double get() {
+    return getDouble();
+  }
+
+  @Override
+  final void store() throws Exception {
+    value = create();
+  }
+}
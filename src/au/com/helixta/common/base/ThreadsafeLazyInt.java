@@ -0,0 +1,51 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.common.base;
+
+/**
+ * Threadsafe lazy initializing int. Same contract as {@link ThreadsafeLazy}.
+ *
+ * @author dan
+ */
+public abstract class ThreadsafeLazyInt extends ThreadsafePrimitiveLazy implements LazyInt {
+  private int value;
+
+  /**
+   * Override this method to provide the actual value.
+   *
+   * <p>
+   * Guaranteed to be called at most once, or once after each {@link #reset()}.
+   *
+   * @throws Exception
+   *           if the value could not be created. In this case, this Lazy
+   *           object will throw an exception every time it is read.
+   *           {@code create()} will never be called again.
+   */
+  protected abstract int create() throws Exception;
+
+  public ThreadsafeLazyInt() {
+    this("int");
+  }
+
+  public ThreadsafeLazyInt(String name) {
+    super(name);
+  }
+
+  @Override
+  public int getInt() {
+    if (!ready) {
+      initialize();
+    }
+    return value;
+  }
+
+  @Override
+  public Integer get() {
+    return getInt();
+  }
+
+  @Override
+  final void store() throws Exception {
+    value = create();
+  }
+}
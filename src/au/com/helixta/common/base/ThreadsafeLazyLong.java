@@ -0,0 +1,51 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.common.base;
+
+/**
+ * Threadsafe lazy initializing long. Same contract as {@link ThreadsafeLazy}.
+ *
+ * @author dan
+ */
+public abstract class ThreadsafeLazyLong extends ThreadsafePrimitiveLazy implements LazyLong {
+  private long value;
+
+  /**
+   * Override this method to provide the actual value.
+   *
+   * <p>
+   * Guaranteed to be called at most once, or once after each {@link #reset()}.
+   *
+   * @throws Exception
+   *           if the value could not be created. In this case, this Lazy
+   *           object will throw an exception every time it is read.
+   *           {@code create()} will never be called again.
+   */
+  protected abstract long create() throws Exception;
+
+  public ThreadsafeLazyLong() {
+    this("long");
+  }
+
+  public ThreadsafeLazyLong(String name) {
+    super(name);
+  }
+
+  @Override
+  public long getLong() {
+    if (!ready) {
+      initialize();
+    }
+    return value;
+  }
+
+  @Override
+  public Long get() {
+    return getLong();
+  }
+
+  @Override
+  final void store() throws Exception {
+    value = create();
+  }
+}
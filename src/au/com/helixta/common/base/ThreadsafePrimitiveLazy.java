@@ -0,0 +1,57 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.common.base;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Creation and publication for the threadsafe primitive lazies, which can't
+ * use a null value to mean not created yet.
+ *
+ * <p>
+ * The subclass stores the value in a plain field, before the volatile write
+ * of {@link #ready}. Reading the value after reading {@code ready} as true is
+ * enough for safe publication, so the fast path is a volatile read and a
+ * field read, with no boxing.
+ *
+ * @author dan
+ */
+abstract class ThreadsafePrimitiveLazy implements Resettable {
+  private final String name;
+  volatile boolean ready = false;
+  private boolean creating = false;
+
+  ThreadsafePrimitiveLazy(String name) {
+    this.name = checkNotNull(name);
+  }
+
+  /** Creates the value and stores it in the subclass's field. */
+  abstract void store() throws Exception;
+
+  /** Slow path of the subclass's getter. */
+  final void initialize() {
+    synchronized (this) {
+      if (!ready) {
+        if (creating) {
+          throw new RuntimeException("Circular dependency or failed initialization for " + name);
+        }
+        creating = true;
+        try {
+          store();
+        } catch (RuntimeException e) {
+          // Avoid wrapping RuntimeException in a RuntimeException
+          throw e;
+        } catch (Exception e) {
+          throw new RuntimeException("Error initializing " + name, e);
+        }
+        ready = true;
+      }
+    }
+  }
+
+  @Override
+  public synchronized void reset() {
+    ready = false;
+    creating = false;
+  }
+}
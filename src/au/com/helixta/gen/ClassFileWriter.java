@@ -0,0 +1,555 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.gen;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.collect.Lists;
+
+import javax.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal class file writer, for generating classes without a compiler.
+ *
+ * <p>
+ * Only supports what generated code needs: fields, and methods made of
+ * straight-line code (no branches, so no stack map frames are required). Max
+ * stack and locals are computed as instructions are added.
+ *
+ * <p>
+ * Names are internal names ({@code java/lang/Object}) and descriptors are JVM
+ * descriptors; see the static helpers for converting from reflection types.
+ *
+ * @author dan
+ */
+public class ClassFileWriter {
+  public static final int ACC_PUBLIC = 0x0001;
+  public static final int ACC_PRIVATE = 0x0002;
+  public static final int ACC_PROTECTED = 0x0004;
+  public static final int ACC_STATIC = 0x0008;
+  public static final int ACC_FINAL = 0x0010;
+  public static final int ACC_SUPER = 0x0020;
+  public static final int ACC_VOLATILE = 0x0040;
+  public static final int ACC_SYNTHETIC = 0x1000;
+
+  private static final int VERSION = 52; // Java 8
+
+  private static final int CONSTANT_UTF8 = 1;
+  private static final int CONSTANT_STRING = 8;
+  private static final int CONSTANT_CLASS = 7;
+  private static final int CONSTANT_FIELDREF = 9;
+  private static final int CONSTANT_METHODREF = 10;
+  private static final int CONSTANT_INTERFACE_METHODREF = 11;
+  private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+  private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+  private final DataOutputStream pool = new DataOutputStream(poolBytes);
+  private final Map<String, Integer> poolIndex = new HashMap<>();
+  private int poolCount = 1;
+
+  private final int access;
+  private final String name;
+  private final String superName;
+  private final String[] interfaces;
+
+  private final List<byte[]> fields = Lists.newArrayList();
+  private final List<byte[]> methods = Lists.newArrayList();
+
+  public ClassFileWriter(int access, String name, String superName, String... interfaces) {
+    this.access = access | ACC_SUPER;
+    this.name = name;
+    this.superName = superName;
+    this.interfaces = interfaces;
+  }
+
+  public String name() {
+    return name;
+  }
+
+  /**
+   * @param signature generic signature, or null if not generic
+   */
+  public void field(int access, String name, String descriptor, @Nullable String signature) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeShort(access);
+      out.writeShort(utf8(name));
+      out.writeShort(utf8(descriptor));
+      if (signature == null) {
+        out.writeShort(0);
+      } else {
+        out.writeShort(1);
+        out.writeShort(utf8("Signature"));
+        out.writeInt(2);
+        out.writeShort(utf8(signature));
+      }
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+    fields.add(bytes.toByteArray());
+  }
+
+  /**
+   * Starts a method. It is added to the class when {@link Code#end()} is
+   * called.
+   */
+  public Code method(int access, String name, String descriptor) {
+    return new Code(access, name, descriptor);
+  }
+
+  public byte[] toByteArray() {
+    int thisIndex = classRef(name);
+    int superIndex = classRef(superName);
+    int[] interfaceIndexes = new int[interfaces.length];
+    for (int i = 0; i < interfaces.length; i++) {
+      interfaceIndexes[i] = classRef(interfaces[i]);
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeInt(0xCAFEBABE);
+      out.writeShort(0);
+      out.writeShort(VERSION);
+      out.writeShort(poolCount);
+      poolBytes.writeTo(out);
+      out.writeShort(access);
+      out.writeShort(thisIndex);
+      out.writeShort(superIndex);
+      out.writeShort(interfaceIndexes.length);
+      for (int i : interfaceIndexes) {
+        out.writeShort(i);
+      }
+      out.writeShort(fields.size());
+      for (byte[] f : fields) {
+        out.write(f);
+      }
+      out.writeShort(methods.size());
+      for (byte[] m : methods) {
+        out.write(m);
+      }
+      out.writeShort(0); // class attributes
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Bytecode for a single method.
+   */
+  public class Code {
+    private final int access;
+    private final String name;
+    private final String descriptor;
+
+    private final ByteArrayOutputStream codeBytes = new ByteArrayOutputStream();
+    private final DataOutputStream code = new DataOutputStream(codeBytes);
+    private int stack = 0;
+    private int maxStack = 0;
+    private int maxLocals;
+    private boolean ended = false;
+
+    private Code(int access, String name, String descriptor) {
+      this.access = access;
+      this.name = name;
+      this.descriptor = descriptor;
+      this.maxLocals = argsSize(descriptor) + ((access & ACC_STATIC) != 0 ? 0 : 1);
+    }
+
+    /** Loads a local of the given type (reference or primitive). */
+    public Code load(Class<?> type, int slot) {
+      int op;
+      if (!type.isPrimitive()) {
+        op = 0x19; // aload
+      } else if (type == long.class) {
+        op = 0x16; // lload
+      } else if (type == float.class) {
+        op = 0x17; // fload
+      } else if (type == double.class) {
+        op = 0x18; // dload
+      } else {
+        op = 0x15; // iload
+      }
+      op(op, size(type));
+      u1(slot);
+      maxLocals = Math.max(maxLocals, slot + size(type));
+      return this;
+    }
+
+    public Code aload(int slot) {
+      return load(Object.class, slot);
+    }
+
+    /** Stores a local of the given type (reference or primitive). */
+    public Code store(Class<?> type, int slot) {
+      int op;
+      if (!type.isPrimitive()) {
+        op = 0x3a; // astore
+      } else if (type == long.class) {
+        op = 0x37; // lstore
+      } else if (type == float.class) {
+        op = 0x38; // fstore
+      } else if (type == double.class) {
+        op = 0x39; // dstore
+      } else {
+        op = 0x36; // istore
+      }
+      op(op, -size(type));
+      u1(slot);
+      maxLocals = Math.max(maxLocals, slot + size(type));
+      return this;
+    }
+
+    public Code astore(int slot) {
+      return store(Object.class, slot);
+    }
+
+    /** Returns a value of the given type, or void. */
+    public Code returnValue(Class<?> type) {
+      int op;
+      if (type == void.class) {
+        op = 0xb1; // return
+      } else if (!type.isPrimitive()) {
+        op = 0xb0; // areturn
+      } else if (type == long.class) {
+        op = 0xad; // lreturn
+      } else if (type == float.class) {
+        op = 0xae; // freturn
+      } else if (type == double.class) {
+        op = 0xaf; // dreturn
+      } else {
+        op = 0xac; // ireturn
+      }
+      return op(op, -size(type));
+    }
+
+    public Code dup() {
+      return op(0x59, 1);
+    }
+
+    public Code swap() {
+      return op(0x5f, 0);
+    }
+
+    public Code pop() {
+      return op(0x57, -1);
+    }
+
+    public Code ldc(String constant) {
+      int index = string(constant);
+      if (index < 256) {
+        op(0x12, 1);
+        u1(index);
+      } else {
+        op(0x13, 1);
+        u2(index);
+      }
+      return this;
+    }
+
+    public Code newObject(String type) {
+      op(0xbb, 1);
+      u2(classRef(type));
+      return this;
+    }
+
+    public Code checkcast(String type) {
+      op(0xc0, 0);
+      u2(classRef(type));
+      return this;
+    }
+
+    public Code getfield(String owner, String name, String descriptor) {
+      op(0xb4, size(descriptor) - 1);
+      u2(memberRef(CONSTANT_FIELDREF, owner, name, descriptor));
+      return this;
+    }
+
+    public Code putfield(String owner, String name, String descriptor) {
+      op(0xb5, -size(descriptor) - 1);
+      u2(memberRef(CONSTANT_FIELDREF, owner, name, descriptor));
+      return this;
+    }
+
+    public Code getstatic(String owner, String name, String descriptor) {
+      op(0xb2, size(descriptor));
+      u2(memberRef(CONSTANT_FIELDREF, owner, name, descriptor));
+      return this;
+    }
+
+    public Code putstatic(String owner, String name, String descriptor) {
+      op(0xb3, -size(descriptor));
+      u2(memberRef(CONSTANT_FIELDREF, owner, name, descriptor));
+      return this;
+    }
+
+    public Code invokevirtual(String owner, String name, String descriptor) {
+      op(0xb6, invokeDelta(descriptor, true));
+      u2(memberRef(CONSTANT_METHODREF, owner, name, descriptor));
+      return this;
+    }
+
+    public Code invokespecial(String owner, String name, String descriptor) {
+      op(0xb7, invokeDelta(descriptor, true));
+      u2(memberRef(CONSTANT_METHODREF, owner, name, descriptor));
+      return this;
+    }
+
+    public Code invokestatic(String owner, String name, String descriptor) {
+      op(0xb8, invokeDelta(descriptor, false));
+      u2(memberRef(CONSTANT_METHODREF, owner, name, descriptor));
+      return this;
+    }
+
+    public Code invokeinterface(String owner, String name, String descriptor) {
+      op(0xb9, invokeDelta(descriptor, true));
+      u2(memberRef(CONSTANT_INTERFACE_METHODREF, owner, name, descriptor));
+      u1(argsSize(descriptor) + 1);
+      u1(0);
+      return this;
+    }
+
+    /** Adds the finished method to the class. */
+    public void end() {
+      checkState(!ended, "Already ended");
+      ended = true;
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      try {
+        out.writeShort(access);
+        out.writeShort(utf8(name));
+        out.writeShort(utf8(descriptor));
+        out.writeShort(1); // attributes
+        out.writeShort(utf8("Code"));
+        out.writeInt(12 + codeBytes.size());
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(codeBytes.size());
+        codeBytes.writeTo(out);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // code attributes
+      } catch (IOException e) {
+        throw new AssertionError(e);
+      }
+      methods.add(bytes.toByteArray());
+    }
+
+    private Code op(int opcode, int stackDelta) {
+      stack += stackDelta;
+      checkState(stack >= 0, "Stack underflow in %s", name);
+      maxStack = Math.max(maxStack, stack);
+      u1(opcode);
+      return this;
+    }
+
+    private void u1(int b) {
+      try {
+        code.writeByte(b);
+      } catch (IOException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    private void u2(int s) {
+      try {
+        code.writeShort(s);
+      } catch (IOException e) {
+        throw new AssertionError(e);
+      }
+    }
+  }
+
+  private static int invokeDelta(String methodDescriptor, boolean hasReceiver) {
+    String ret = methodDescriptor.substring(methodDescriptor.indexOf(')') + 1);
+    return size(ret) - argsSize(methodDescriptor) - (hasReceiver ? 1 : 0);
+  }
+
+  /** Stack slots taken by a value of the given field descriptor. */
+  private static int size(String descriptor) {
+    switch (descriptor.charAt(0)) {
+      case 'V':
+        return 0;
+      case 'J':
+      case 'D':
+        return 2;
+      default:
+        return 1;
+    }
+  }
+
+  private static int size(Class<?> type) {
+    return size(descriptor(type));
+  }
+
+  /** Local slots taken by the arguments of the given method descriptor. */
+  private static int argsSize(String methodDescriptor) {
+    int slots = 0;
+    int i = 1;
+    while (methodDescriptor.charAt(i) != ')') {
+      char c = methodDescriptor.charAt(i);
+      int start = i;
+      while (methodDescriptor.charAt(i) == '[') {
+        i++;
+      }
+      if (methodDescriptor.charAt(i) == 'L') {
+        i = methodDescriptor.indexOf(';', i);
+      }
+      i++;
+      slots += (start == i - 1 && (c == 'J' || c == 'D')) ? 2 : 1;
+    }
+    return slots;
+  }
+
+  // CONSTANT POOL
+
+  private int utf8(String value) {
+    String key = "utf8:" + value;
+    Integer index = poolIndex.get(key);
+    if (index == null) {
+      index = addConstant(key, 1);
+      try {
+        pool.writeByte(CONSTANT_UTF8);
+        pool.writeUTF(value);
+      } catch (IOException e) {
+        throw new AssertionError(e);
+      }
+    }
+    return index;
+  }
+
+  private int string(String value) {
+    return ref(CONSTANT_STRING, utf8(value));
+  }
+
+  private int classRef(String internalName) {
+    return ref(CONSTANT_CLASS, utf8(internalName));
+  }
+
+  private int memberRef(int tag, String owner, String name, String descriptor) {
+    int ownerIndex = classRef(owner);
+    int nameAndType = ref(CONSTANT_NAME_AND_TYPE, utf8(name), utf8(descriptor));
+    return ref(tag, ownerIndex, nameAndType);
+  }
+
+  private int ref(int tag, int... indexes) {
+    StringBuilder key = new StringBuilder("ref:" + tag);
+    for (int i : indexes) {
+      key.append(':').append(i);
+    }
+    Integer index = poolIndex.get(key.toString());
+    if (index == null) {
+      index = addConstant(key.toString(), 1);
+      try {
+        pool.writeByte(tag);
+        for (int i : indexes) {
+          pool.writeShort(i);
+        }
+      } catch (IOException e) {
+        throw new AssertionError(e);
+      }
+    }
+    return index;
+  }
+
+  private int addConstant(String key, int slots) {
+    int index = poolCount;
+    poolCount += slots;
+    checkState(poolCount <= 0xffff, "Constant pool too large");
+    poolIndex.put(key, index);
+    return index;
+  }
+
+  // TYPE HELPERS
+
+  public static String internalName(Class<?> c) {
+    return c.getName().replace('.', '/');
+  }
+
+  public static String internalName(String className) {
+    return className.replace('.', '/');
+  }
+
+  public static String descriptor(Class<?> c) {
+    if (c.isPrimitive()) {
+      if (c == void.class) {
+        return "V";
+      } else if (c == boolean.class) {
+        return "Z";
+      } else if (c == byte.class) {
+        return "B";
+      } else if (c == char.class) {
+        return "C";
+      } else if (c == short.class) {
+        return "S";
+      } else if (c == int.class) {
+        return "I";
+      } else if (c == long.class) {
+        return "J";
+      } else if (c == float.class) {
+        return "F";
+      } else {
+        assert c == double.class;
+        return "D";
+      }
+    } else if (c.isArray()) {
+      return internalName(c);
+    } else {
+      return "L" + internalName(c) + ";";
+    }
+  }
+
+  public static String objectDescriptor(String internalName) {
+    return "L" + internalName + ";";
+  }
+
+  public static String methodDescriptor(Class<?> returnType, Class<?>... params) {
+    StringBuilder b = new StringBuilder("(");
+    for (Class<?> p : params) {
+      b.append(descriptor(p));
+    }
+    return b.append(")").append(descriptor(returnType)).toString();
+  }
+
+  /**
+   * Generic signature of the given type, as used in the Signature attribute.
+   */
+  @SuppressWarnings("rawtypes")
+  public static String signature(Type t) {
+    if (t instanceof Class) {
+      return descriptor((Class) t);
+    } else if (t instanceof ParameterizedType) {
+      ParameterizedType pt = (ParameterizedType) t;
+      StringBuilder b = new StringBuilder("L")
+          .append(internalName((Class) pt.getRawType())).append("<");
+      for (Type arg : pt.getActualTypeArguments()) {
+        b.append(signature(arg));
+      }
+      return b.append(">;").toString();
+    } else if (t instanceof GenericArrayType) {
+      return "[" + signature(((GenericArrayType) t).getGenericComponentType());
+    } else if (t instanceof WildcardType) {
+      WildcardType wt = (WildcardType) t;
+      if (wt.getLowerBounds().length > 0) {
+        return "-" + signature(wt.getLowerBounds()[0]);
+      }
+      Type upper = wt.getUpperBounds()[0];
+      return upper == Object.class ? "*" : "+" + signature(upper);
+    } else {
+      throw new AssertionError("Unimplemented " + t);
+    }
+  }
+}
@@ -2,16 +2,40 @@
 
 package au.com.helixta.gen;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import au.com.helixta.gen.MemoryFileManager.ParentClassPath;
+import au.com.helixta.gen.MemoryFileManager.SourceFile;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 import javax.annotation.Nullable;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
 import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
 import javax.tools.JavaFileObject;
 import javax.tools.StandardJavaFileManager;
 import javax.tools.ToolProvider;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 /**
@@ -20,24 +44,94 @@ import java.io.IOException;
  * @author dan
  */
 public class ClassGenerator {
-  private final String genDir;
-  private final String buildDir;
+  @Nullable private final String genDir;
+  @Nullable private final String buildDir;
 
+  /**
+   * Compiled classes by binary name, and the loader that defines them. Only
+   * used in memory mode.
+   */
+  @Nullable private final ConcurrentMap<String, byte[]> memoryClasses;
+  @Nullable private final GeneratedClassLoader classLoader;
+  @Nullable private final ParentClassPath parentClassPath;
 
   private final JavaCompiler compiler;
   private final StandardJavaFileManager fileManager;
 
+  /** Builders that have not been compiled yet, in creation order. */
+  private final List<ClassBuilder> pending = new ArrayList<>();
 
+
+  /**
+   * Writes generated sources under genDir and compiles them to buildDir, which
+   * must be on the classpath for the built classes to be loaded.
+   */
   public ClassGenerator(String genDir, String buildDir) {
+    this(checkNotNull(genDir), checkNotNull(buildDir), null);
+  }
+
+  /**
+   * Keeps generated sources and compiled classes in memory, and loads the
+   * classes with a dedicated {@link GeneratedClassLoader}. No files are
+   * written.
+   *
+   * <p>
+   * Classes are defined at most once per generator, so to reload a changed
+   * class, use a new generator.
+   *
+   * <p>
+   * The generated code is compiled against the system class path and against
+   * the classes the parent loader finds in directories or jars, so the parent
+   * need not match the system class path.
+   *
+   * @param parent loader for everything the generated code refers to
+   */
+  public static ClassGenerator inMemory(ClassLoader parent) {
+    return new ClassGenerator(null, null, new GeneratedClassLoader(checkNotNull(parent)));
+  }
+
+  /**
+   * Same as {@link #inMemory(ClassLoader)} with this class's loader as the
+   * parent.
+   */
+  public static ClassGenerator inMemory() {
+    return inMemory(ClassGenerator.class.getClassLoader());
+  }
+
+  /**
+   * Same as {@link #inMemory(ClassLoader)}, but defines the classes in an
+   * existing loader. Classes it defined before, however they were made, are
+   * visible to the generated code.
+   */
+  public static ClassGenerator definingIn(GeneratedClassLoader loader) {
+    return new ClassGenerator(null, null, checkNotNull(loader));
+  }
+
+  private ClassGenerator(@Nullable String genDir, @Nullable String buildDir,
+      @Nullable GeneratedClassLoader loader) {
     this.genDir = genDir;
     this.buildDir = buildDir;
-
+    this.classLoader = loader;
+    this.memoryClasses = loader == null ? null : loader.classFiles();
+    this.parentClassPath = loader == null ? null : new ParentClassPath(loader.getParent());
 
     compiler = ToolProvider.getSystemJavaCompiler();
     fileManager = compiler.getStandardFileManager(null, null, null);
 
   }
 
+  public boolean isInMemory() {
+    return memoryClasses != null;
+  }
+
+  /**
+   * @return the loader for built classes in memory mode, otherwise null.
+   */
+  @Nullable
+  public GeneratedClassLoader classLoader() {
+    return classLoader;
+  }
+
   public ClassWriter writerFor(Class<?> klass, String suffix) throws IOException {
     return writerFor(klass.getPackage().getName(),
         klass.getSimpleName() + suffix);
@@ -48,43 +142,417 @@ public class ClassGenerator {
   }
 
   public ClassWriter writerFor(String pkg, String name) throws IOException {
-    String components = "/" + pkg.replace('.', '/') + "/" + name;
-    File javaFile = new File(genDir + components + ".java");
-    return new ClassWriter(this, pkg, name, javaFile);
+    if (isInMemory()) {
+      return new ClassWriter(this, pkg, name);
+    }
+    return new ClassWriter(this, pkg, name, javaFile(pkg, name));
+  }
+
+  private File javaFile(String pkg, String name) {
+    return new File(genDir + components(pkg, name) + ".java");
+  }
+
+  private static String components(String pkg, String name) {
+    return "/" + pkg.replace('.', '/') + "/" + name;
+  }
+
+  private static File fingerprintFile(File javaFile) {
+    String path = javaFile.getPath();
+    return new File(path.substring(0, path.length() - ".java".length()) + ".fingerprint");
+  }
+
+  /**
+   * Returns a builder for a class generated and compiled earlier from inputs
+   * with the given fingerprint, without compiling anything. Returns null if
+   * the class needs to be regenerated, which is always the case in memory
+   * mode.
+   *
+   * @see ClassBuilder#recordFingerprint(String)
+   */
+  @Nullable
+  public ClassBuilder upToDate(String pkg, String name, String fingerprint) throws IOException {
+    if (isInMemory()) {
+      return null;
+    }
+    File javaFile = javaFile(pkg, name);
+    File classFile = new File(buildDir + components(pkg, name) + ".class");
+    File fingerprintFile = fingerprintFile(javaFile);
+    if (!javaFile.exists() || !classFile.exists() || !fingerprintFile.exists()) {
+      return null;
+    }
+    if (!fingerprint.equals(Files.readString(fingerprintFile.toPath()).trim())) {
+      return null;
+    }
+
+    ClassBuilder builder = new ClassBuilder(javaFile, pkg + "." + name);
+    builder.fingerprint = fingerprint;
+    builder.compiled = true;
+    return builder;
   }
 
   // TODO: this is a bit messy, passing classFile around, and this
   // class being an inner class while classwriter is not, we exit
   // and loop back in... mmm...
   public ClassBuilder createBuilder(File javaFile, String className) {
-    return new ClassBuilder(javaFile, className);
+    return addPending(new ClassBuilder(javaFile, className));
+  }
+
+  /**
+   * Creates a builder for source held in memory. Only valid in memory mode.
+   */
+  public ClassBuilder createBuilder(String className, String source) {
+    checkState(isInMemory(), "Not an in-memory generator");
+    return addPending(new ClassBuilder(className, new SourceFile(className, source)));
+  }
+
+  private ClassBuilder addPending(ClassBuilder builder) {
+    synchronized (pending) {
+      pending.add(builder);
+    }
+    return builder;
+  }
+
+  /**
+   * Compiles every builder that has not been compiled yet, in a single
+   * compilation task. Much cheaper than compiling each one separately, as
+   * javac's startup and symbol loading is only paid once.
+   *
+   * @throws CompilationException if any file fails to compile. Nothing in the
+   *           batch is marked as compiled in that case.
+   */
+  public void buildAll() {
+    List<ClassBuilder> builders = takePending();
+    boolean succeeded = false;
+    try {
+      synchronized (fileManager) {
+        compile(builders, fileManager);
+      }
+      succeeded = true;
+    } finally {
+      release(builders, succeeded);
+    }
+  }
+
+  /**
+   * Same as {@link #buildAll()}, but splits the pending builders by package
+   * and compiles each package as a separate task on the given executor.
+   *
+   * <p>
+   * Generated classes in one package must not depend on generated classes in
+   * another package that are part of the same batch.
+   *
+   * @throws CompilationException if any file fails to compile. Packages that
+   *           did compile are marked as compiled; the rest remain pending.
+   * @throws InterruptedException if interrupted while waiting. Tasks that
+   *           have not started are cancelled, and their packages remain
+   *           pending. Tasks already running finish in the background.
+   */
+  public void buildAll(ExecutorService executor) throws InterruptedException {
+    ListMultimap<String, ClassBuilder> byPackage = LinkedListMultimap.create();
+    for (ClassBuilder builder : takePending()) {
+      byPackage.put(builder.packageName(), builder);
+    }
+    List<PackageCompile> tasks = new ArrayList<>();
+    for (String pkg : byPackage.keySet()) {
+      tasks.add(new PackageCompile(byPackage.get(pkg)));
+    }
+
+    List<Diagnostic<? extends JavaFileObject>> diagnostics = new ArrayList<>();
+    RuntimeException problem = null;
+    try {
+      for (PackageCompile task : tasks) {
+        task.future = executor.submit(task);
+      }
+      for (PackageCompile task : tasks) {
+        try {
+          task.future.get();
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof CompilationException) {
+            diagnostics.addAll(((CompilationException) e.getCause()).getDiagnostics());
+          } else if (problem == null) {
+            problem = new RuntimeException("Compile problem", e.getCause());
+          } else {
+            problem.addSuppressed(e.getCause());
+          }
+        }
+      }
+    } finally {
+      // Only does anything if submitting or waiting failed part way
+      for (PackageCompile task : tasks) {
+        task.giveUp();
+      }
+    }
+
+    if (!diagnostics.isEmpty()) {
+      CompilationException failure = new CompilationException(diagnostics);
+      if (problem != null) {
+        failure.addSuppressed(problem);
+      }
+      throw failure;
+    }
+    if (problem != null) {
+      throw problem;
+    }
+  }
+
+  /** Compiles one package of a parallel {@link #buildAll(ExecutorService)}. */
+  private class PackageCompile implements Runnable {
+    private final List<ClassBuilder> builders;
+    /** Set by whichever of running and giving up on the task comes first. */
+    private final AtomicBoolean claimed = new AtomicBoolean();
+    @Nullable private Future<?> future;
+
+    PackageCompile(List<ClassBuilder> builders) {
+      this.builders = builders;
+    }
+
+    @Override public void run() {
+      if (!claimed.compareAndSet(false, true)) {
+        return;
+      }
+      boolean succeeded = false;
+      // File managers are not threadsafe, so each task gets its own.
+      try (StandardJavaFileManager taskFileManager =
+          compiler.getStandardFileManager(null, null, null)) {
+        compile(builders, taskFileManager);
+        succeeded = true;
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      } finally {
+        release(builders, succeeded);
+      }
+    }
+
+    /**
+     * Cancels the task if it hasn't started, and returns its builders to
+     * pending. A task that has started releases its own builders.
+     */
+    void giveUp() {
+      if (future != null) {
+        future.cancel(true);
+      }
+      if (claimed.compareAndSet(false, true)) {
+        release(builders, false);
+      }
+    }
+  }
+
+  /**
+   * Takes the pending builders to compile. Until they are released, nothing
+   * else compiles them.
+   */
+  private List<ClassBuilder> takePending() {
+    synchronized (pending) {
+      List<ClassBuilder> taken = new ArrayList<>();
+      for (ClassBuilder builder : pending) {
+        if (!builder.compiled) {
+          builder.taken = true;
+          taken.add(builder);
+        }
+      }
+      pending.clear();
+      return taken;
+    }
+  }
+
+  /**
+   * Releases taken builders once their compilation is over. Those that did
+   * not compile become pending again.
+   */
+  private void release(List<ClassBuilder> builders, boolean compiled) {
+    synchronized (pending) {
+      for (ClassBuilder builder : builders) {
+        builder.taken = false;
+      }
+      if (!compiled) {
+        pending.addAll(builders);
+      }
+      pending.notifyAll();
+    }
+  }
+
+  private void compile(List<ClassBuilder> builders, StandardJavaFileManager fm) {
+    if (builders.isEmpty()) {
+      return;
+    }
+
+    List<JavaFileObject> sources = new ArrayList<>();
+    Map<URI, ClassBuilder> bySource = Maps.newHashMap();
+    for (ClassBuilder builder : builders) {
+      JavaFileObject source = builder.javaFile != null
+          ? Iterables.getOnlyElement(fm.getJavaFileObjects(builder.javaFile))
+          : builder.source;
+      sources.add(source);
+      bySource.put(source.toUri(), builder);
+    }
+
+    JavaFileManager taskFileManager;
+    List<String> options;
+    if (isInMemory()) {
+      taskFileManager = new MemoryFileManager(fm, memoryClasses, parentClassPath);
+      options = Lists.newArrayList();
+    } else {
+      taskFileManager = fm;
+      options = Lists.newArrayList("-d", buildDir);
+    }
+
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+    boolean succeeded = compiler.getTask(null, taskFileManager, diagnostics, options, null,
+        sources).call();
+    if (!succeeded) {
+      throw new CompilationException(diagnostics.getDiagnostics());
+    }
+
+    ListMultimap<ClassBuilder, Diagnostic<? extends JavaFileObject>> perFile =
+        LinkedListMultimap.create();
+    for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+      ClassBuilder builder = d.getSource() == null ? null : bySource.get(d.getSource().toUri());
+      if (builder != null) {
+        perFile.put(builder, d);
+      }
+    }
+
+    for (ClassBuilder builder : builders) {
+      builder.diagnostics = ImmutableList.copyOf(perFile.get(builder));
+      builder.compiled = true;
+      builder.writeFingerprint();
+    }
   }
 
   // TODO: Rename!
   public class ClassBuilder {
-    private final File javaFile;
+    /** Exactly one of javaFile and source is set. */
+    @Nullable private final File javaFile;
+    @Nullable private final JavaFileObject source;
     private final String className;
 
+    private volatile boolean compiled = false;
+    /** Whether a compilation has taken the builder. Guarded by pending. */
+    private boolean taken = false;
+    private volatile List<Diagnostic<? extends JavaFileObject>> diagnostics = ImmutableList.of();
+    @Nullable private volatile String fingerprint;
     @Nullable private Class<?> built;
 
     public ClassBuilder(File javaFile, String className) {
-      this.javaFile = javaFile;
+      this.javaFile = checkNotNull(javaFile);
+      this.source = null;
+      this.className = className;
+    }
+
+    ClassBuilder(String className, JavaFileObject source) {
+      this.javaFile = null;
+      this.source = checkNotNull(source);
       this.className = className;
     }
 
+    /**
+     * Associates the fingerprint of the generator inputs with the generated
+     * file. It is written next to the file once the class compiles, so that a
+     * later {@link ClassGenerator#upToDate} can skip regeneration. Any stale
+     * fingerprint is removed straight away. Ignored in memory mode.
+     */
+    public ClassBuilder recordFingerprint(String fingerprint) throws IOException {
+      if (javaFile == null) {
+        return this;
+      }
+      this.fingerprint = checkNotNull(fingerprint);
+      if (compiled) {
+        writeFingerprint();
+      } else {
+        File stale = fingerprintFile(javaFile);
+        if (stale.exists() && !stale.delete()) {
+          throw new IOException("Could not delete " + stale);
+        }
+      }
+      return this;
+    }
+
+    private void writeFingerprint() {
+      if (fingerprint == null) {
+        return;
+      }
+      try {
+        Files.writeString(fingerprintFile(javaFile).toPath(), fingerprint);
+      } catch (IOException e) {
+        throw new RuntimeException("Could not write fingerprint for " + className, e);
+      }
+    }
+
+    /**
+     * @return what the compiler reported for this file when it compiled, such
+     *         as warnings. Empty until then, and for a class found
+     *         {@link ClassGenerator#upToDate up to date}.
+     */
+    public List<Diagnostic<? extends JavaFileObject>> diagnostics() {
+      return diagnostics;
+    }
+
+    /**
+     * Takes the builder to compile it alone, or if a batch has already taken
+     * it, waits for the batch.
+     *
+     * @return false if it has been compiled
+     */
+    private boolean takeToCompile() {
+      boolean interrupted = false;
+      synchronized (pending) {
+        try {
+          while (!compiled) {
+            if (!taken) {
+              pending.remove(this);
+              taken = true;
+              return true;
+            }
+            try {
+              pending.wait();
+            } catch (InterruptedException e) {
+              // The batch can't be abandoned part way, so finish waiting
+              interrupted = true;
+            }
+          }
+          return false;
+        } finally {
+          if (interrupted) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }
+    }
+
+    String packageName() {
+      int dot = className.lastIndexOf('.');
+      return dot < 0 ? "" : className.substring(0, dot);
+    }
+
+    /**
+     * Compiles the class, unless it was already compiled as part of a batch,
+     * and loads it. If a batch on another thread is compiling it, waits for
+     * the batch rather than compiling it again.
+     *
+     * @throws CompilationException if the file fails to compile
+     */
     public Class<?> builtClass() {
       if (built != null) {
         return built;
       }
 
-      Iterable<String> options = Lists.newArrayList("-d", buildDir);
-
-      Iterable<? extends JavaFileObject> compilationUnits =
-          fileManager.getJavaFileObjectsFromFiles(Lists.newArrayList(javaFile));
-      compiler.getTask(null, fileManager, null, options, null,
-          compilationUnits).call();
+      if (takeToCompile()) {
+        List<ClassBuilder> builders = Lists.newArrayList(this);
+        boolean succeeded = false;
+        try {
+          synchronized (fileManager) {
+            compile(builders, fileManager);
+          }
+          succeeded = true;
+        } finally {
+          release(builders, succeeded);
+        }
+      }
 
       try {
+        if (classLoader != null) {
+          return built = Class.forName(className, true, classLoader);
+        }
         return built = Class.forName(className);
       } catch (ClassNotFoundException e) {
         throw new RuntimeException(e);
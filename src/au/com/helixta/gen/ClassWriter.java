@@ -4,12 +4,16 @@ package au.com.helixta.gen;
 
 import au.com.helixta.gen.ClassGenerator.ClassBuilder;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Sets;
 
+import javax.annotation.Nullable;
+
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.lang.reflect.WildcardType;
@@ -30,8 +34,13 @@ public class ClassWriter extends PrintWriter {
   public final String name;
 
   private final ClassGenerator generator;
-  private final File javaFile;
-  private final File tmpFile;
+
+  /** Set when writing to disk. */
+  @Nullable private final File javaFile;
+  @Nullable private final File tmpFile;
+
+  /** Set when writing to memory. */
+  @Nullable private final StringWriter source;
 
   public final Set<String> imports = Sets.newTreeSet();
 
@@ -55,6 +64,25 @@ public class ClassWriter extends PrintWriter {
 
     this.tmpFile = tmpFile;
     this.javaFile = javaFile;
+    this.source = null;
+  }
+
+  /**
+   * Writer that keeps the source in memory, for in-memory generators.
+   */
+  public ClassWriter(ClassGenerator generator, String pkg, String name) {
+    this(generator, pkg, name, new StringWriter());
+  }
+
+  private ClassWriter(ClassGenerator generator, String pkg, String name, StringWriter source) {
+    super(source);
+    this.generator = generator;
+    this.pkg = pkg;
+    this.name = name;
+
+    this.tmpFile = null;
+    this.javaFile = null;
+    this.source = source;
   }
 
   public void writeHeader() {
@@ -125,6 +153,9 @@ public class ClassWriter extends PrintWriter {
   public void close() {
     // Make the modification atomic
     super.close();
+    if (javaFile == null) {
+      return;
+    }
     ensureDirs(javaFile);
     boolean succeeded = tmpFile.renameTo(javaFile);
     if (!succeeded) {
@@ -132,8 +163,20 @@ public class ClassWriter extends PrintWriter {
     }
   }
 
+  /**
+   * @return the source written so far. Only for writers that keep the source
+   *         in memory.
+   */
+  public String source() {
+    Preconditions.checkState(source != null, "Not an in-memory writer");
+    return source.toString();
+  }
+
   public ClassBuilder closeWithBuilder() {
     close();
+    if (source != null) {
+      return generator.createBuilder(pkg + "." + name, source.toString());
+    }
     return generator.createBuilder(javaFile, pkg + "." + name);
   }
 }
\ No newline at end of file
@@ -0,0 +1,58 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.gen;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.ListMultimap;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Thrown when generated sources fail to compile.
+ *
+ * <p>
+ * Carries every diagnostic reported by the compiler, not just the errors. The
+ * message lists the errors, grouped by file.
+ *
+ * @author dan
+ */
+@SuppressWarnings("serial")
+public class CompilationException extends RuntimeException {
+  private final ImmutableList<Diagnostic<? extends JavaFileObject>> diagnostics;
+
+  public CompilationException(List<Diagnostic<? extends JavaFileObject>> diagnostics) {
+    super(format(diagnostics));
+    this.diagnostics = ImmutableList.copyOf(diagnostics);
+  }
+
+  /**
+   * @return all diagnostics, in the order the compiler reported them.
+   */
+  public List<Diagnostic<? extends JavaFileObject>> getDiagnostics() {
+    return diagnostics;
+  }
+
+  private static String format(List<Diagnostic<? extends JavaFileObject>> diagnostics) {
+    ListMultimap<String, String> errors = LinkedListMultimap.create();
+    for (Diagnostic<? extends JavaFileObject> d : diagnostics) {
+      if (d.getKind() == Diagnostic.Kind.ERROR) {
+        String file = d.getSource() == null ? "(no file)" : d.getSource().getName();
+        errors.put(file, d.getLineNumber() + ": " + d.getMessage(Locale.getDefault()));
+      }
+    }
+
+    StringBuilder b = new StringBuilder("Compilation failed");
+    for (String file : errors.keySet()) {
+      b.append("\n").append(file).append(":");
+      for (String error : errors.get(file)) {
+        b.append("\n  ").append(error);
+      }
+    }
+    return b.toString();
+  }
+}
@@ -0,0 +1,65 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.gen;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Defines classes compiled in memory by a {@link ClassGenerator}.
+ *
+ * <p>
+ * Everything else is delegated to the parent loader, which must be able to see
+ * the classes the generated code refers to.
+ *
+ * @author dan
+ */
+public class GeneratedClassLoader extends ClassLoader {
+  static {
+    registerAsParallelCapable();
+  }
+
+  private final ConcurrentMap<String, byte[]> classes;
+
+  public GeneratedClassLoader(ClassLoader parent) {
+    this(parent, new ConcurrentHashMap<String, byte[]>());
+  }
+
+  GeneratedClassLoader(ClassLoader parent, ConcurrentMap<String, byte[]> classes) {
+    super(parent);
+    this.classes = classes;
+  }
+
+  /**
+   * Adds the given class files and loads one of them.
+   *
+   * @param classFiles class file bytes by binary class name. None of them may
+   *          have been added before.
+   * @param name the class to load
+   */
+  public Class<?> define(Map<String, byte[]> classFiles, String name)
+      throws ClassNotFoundException {
+    for (Map.Entry<String, byte[]> e : classFiles.entrySet()) {
+      checkState(classes.putIfAbsent(e.getKey(), e.getValue()) == null,
+          "Already defined: %s", e.getKey());
+    }
+    return loadClass(name);
+  }
+
+  /** Class files not yet defined are added here, by binary class name. */
+  ConcurrentMap<String, byte[]> classFiles() {
+    return classes;
+  }
+
+  @Override
+  protected Class<?> findClass(String name) throws ClassNotFoundException {
+    byte[] bytes = classes.get(name);
+    if (bytes == null) {
+      throw new ClassNotFoundException(name);
+    }
+    return defineClass(name, bytes, 0, bytes.length);
+  }
+}
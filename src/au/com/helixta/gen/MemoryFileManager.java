@@ -0,0 +1,303 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.gen;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.JarURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * File manager that keeps compiled classes in memory instead of writing them
+ * to disk.
+ *
+ * <p>
+ * Classes compiled earlier are also visible on the class path of later
+ * compilations, so generated classes may depend on each other across batches.
+ *
+ * <p>
+ * Classes the parent loader finds in directories or jars are added to the
+ * class path too, so generated code can refer to classes that are not on the
+ * system class path, as long as the loader that will define it can see them.
+ *
+ * @author dan
+ */
+class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+  /** Java source held in memory. */
+  static class SourceFile extends SimpleJavaFileObject {
+    private final String source;
+
+    SourceFile(String className, String source) {
+      super(uri(className, Kind.SOURCE), Kind.SOURCE);
+      this.source = source;
+    }
+
+    @Override
+    public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+      return source;
+    }
+  }
+
+  /** Class file held in memory, by binary class name. */
+  static class ClassFile extends SimpleJavaFileObject {
+    private final String className;
+    private final ConcurrentMap<String, byte[]> classes;
+
+    ClassFile(String className, ConcurrentMap<String, byte[]> classes) {
+      super(uri(className, Kind.CLASS), Kind.CLASS);
+      this.className = className;
+      this.classes = classes;
+    }
+
+    @Override
+    public OutputStream openOutputStream() {
+      return new ByteArrayOutputStream() {
+        @Override public void close() throws IOException {
+          super.close();
+          classes.put(className, toByteArray());
+        }
+      };
+    }
+
+    @Override
+    public InputStream openInputStream() throws IOException {
+      byte[] bytes = classes.get(className);
+      if (bytes == null) {
+        throw new IOException("Not compiled: " + className);
+      }
+      return new ByteArrayInputStream(bytes);
+    }
+  }
+
+  /** Class file the parent loader can see, read through its URL. */
+  static class ParentClassFile extends SimpleJavaFileObject {
+    private final String className;
+    private final URL url;
+
+    ParentClassFile(String className, URL url) {
+      super(URI.create("parent:///" + className.replace('.', '/') + Kind.CLASS.extension),
+          Kind.CLASS);
+      this.className = className;
+      this.url = url;
+    }
+
+    @Override
+    public InputStream openInputStream() throws IOException {
+      return url.openStream();
+    }
+  }
+
+  /**
+   * The classes the parent loader finds in directories or jars, by package.
+   * The parent's class path doesn't change, so each package is only listed
+   * once, however many compilations it is shared by.
+   */
+  static class ParentClassPath {
+    private final ClassLoader parent;
+    /** Keyed by package name, prefixed with "+" when listed recursively. */
+    private final ConcurrentMap<String, List<ParentClassFile>> listings =
+        Maps.newConcurrentMap();
+
+    ParentClassPath(ClassLoader parent) {
+      this.parent = checkNotNull(parent);
+    }
+
+    /**
+     * @return the package's classes, each only from the first copy of the
+     *         package that has it, as the loader would find it.
+     */
+    List<ParentClassFile> list(String packageName, boolean recurse) throws IOException {
+      String key = (recurse ? "+" : "") + packageName;
+      List<ParentClassFile> listed = listings.get(key);
+      if (listed != null) {
+        return listed;
+      }
+
+      List<ParentClassFile> files = Lists.newArrayList();
+      Set<String> seen = Sets.newHashSet();
+      Enumeration<URL> roots = parent.getResources(packageName.replace('.', '/'));
+      while (roots.hasMoreElements()) {
+        listParent(roots.nextElement(), packageName, recurse, seen, files);
+      }
+      // Listed the same either way if two compilations race
+      listed = listings.putIfAbsent(key, files);
+      return listed != null ? listed : files;
+    }
+  }
+
+  private static URI uri(String className, Kind kind) {
+    return URI.create("mem:///" + className.replace('.', '/') + kind.extension);
+  }
+
+  private final ConcurrentMap<String, byte[]> classes;
+  private final ParentClassPath parentClassPath;
+
+  /**
+   * @param classes where compiled classes are stored, shared with the class
+   *          loader that will define them.
+   * @param parentClassPath of that loader's parent
+   */
+  MemoryFileManager(StandardJavaFileManager fileManager, ConcurrentMap<String, byte[]> classes,
+      ParentClassPath parentClassPath) {
+    super(fileManager);
+    this.classes = classes;
+    this.parentClassPath = parentClassPath;
+  }
+
+  @Override
+  public JavaFileObject getJavaFileForOutput(Location location, String className,
+      Kind kind, FileObject sibling) throws IOException {
+    if (location == StandardLocation.CLASS_OUTPUT && kind == Kind.CLASS) {
+      return new ClassFile(className, classes);
+    }
+    return super.getJavaFileForOutput(location, className, kind, sibling);
+  }
+
+  @Override
+  public Iterable<JavaFileObject> list(Location location, String packageName,
+      Set<Kind> kinds, boolean recurse) throws IOException {
+    Iterable<JavaFileObject> listed = super.list(location, packageName, kinds, recurse);
+    if (location != StandardLocation.CLASS_PATH || !kinds.contains(Kind.CLASS)) {
+      return listed;
+    }
+
+    String prefix = packageName.isEmpty() ? "" : packageName + ".";
+    List<JavaFileObject> compiled = Lists.newArrayList();
+    for (String className : classes.keySet()) {
+      if (!className.startsWith(prefix)) {
+        continue;
+      }
+      String rest = className.substring(prefix.length());
+      if (recurse || rest.indexOf('.') < 0) {
+        compiled.add(new ClassFile(className, classes));
+      }
+    }
+
+    // Skip anything already listed, mostly the system class path when the
+    // parent is the application loader
+    List<JavaFileObject> standard = Lists.newArrayList(listed);
+    Set<String> seen = Sets.newHashSet(classes.keySet());
+    for (JavaFileObject file : standard) {
+      if (file.getKind() == Kind.CLASS) {
+        seen.add(super.inferBinaryName(location, file));
+      }
+    }
+    List<JavaFileObject> fromParent = Lists.newArrayList();
+    for (ParentClassFile file : parentClassPath.list(packageName, recurse)) {
+      if (seen.add(file.className)) {
+        fromParent.add(file);
+      }
+    }
+
+    return Iterables.concat(compiled, standard, fromParent);
+  }
+
+  /**
+   * Adds the classes in one of the parent loader's copies of a package. Only
+   * directories and jars can be listed; anything else is skipped.
+   */
+  private static void listParent(URL root, String packageName, boolean recurse,
+      Set<String> seen, List<ParentClassFile> out) throws IOException {
+    String prefix = packageName.isEmpty() ? "" : packageName + ".";
+    if (root.getProtocol().equals("file")) {
+      File dir;
+      try {
+        dir = new File(root.toURI());
+      } catch (URISyntaxException e) {
+        throw new IOException("Bad class path entry " + root, e);
+      }
+      listDirectory(dir, prefix, recurse, seen, out);
+    } else if (root.getProtocol().equals("jar")) {
+      JarURLConnection connection = (JarURLConnection) root.openConnection();
+      connection.setUseCaches(false);
+      String path = packageName.isEmpty() ? "" : packageName.replace('.', '/') + "/";
+      try (JarFile jar = connection.getJarFile()) {
+        Enumeration<JarEntry> entries = jar.entries();
+        while (entries.hasMoreElements()) {
+          String name = entries.nextElement().getName();
+          if (!name.startsWith(path) || !name.endsWith(Kind.CLASS.extension)) {
+            continue;
+          }
+          String rest = name.substring(path.length());
+          if (recurse || rest.indexOf('/') < 0) {
+            String className = name.substring(0, name.length() - Kind.CLASS.extension.length())
+                .replace('/', '.');
+            if (seen.add(className)) {
+              out.add(new ParentClassFile(className, new URL("jar:" + connection.getJarFileURL()
+                  + "!/" + name)));
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private static void listDirectory(File dir, String prefix, boolean recurse,
+      Set<String> seen, List<ParentClassFile> out) throws IOException {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      String name = file.getName();
+      if (file.isDirectory()) {
+        if (recurse) {
+          listDirectory(file, prefix + name + ".", recurse, seen, out);
+        }
+      } else if (name.endsWith(Kind.CLASS.extension)) {
+        String className = prefix
+            + name.substring(0, name.length() - Kind.CLASS.extension.length());
+        if (seen.add(className)) {
+          out.add(new ParentClassFile(className, file.toURI().toURL()));
+        }
+      }
+    }
+  }
+
+  @Override
+  public String inferBinaryName(Location location, JavaFileObject file) {
+    if (file instanceof ClassFile) {
+      return ((ClassFile) file).className;
+    }
+    if (file instanceof ParentClassFile) {
+      return ((ParentClassFile) file).className;
+    }
+    return super.inferBinaryName(location, file);
+  }
+
+  @Override
+  public boolean isSameFile(FileObject a, FileObject b) {
+    if (a instanceof SimpleJavaFileObject || b instanceof SimpleJavaFileObject) {
+      return a.toUri().equals(b.toUri());
+    }
+    return super.isSameFile(a, b);
+  }
+}
@@ -0,0 +1,320 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import au.com.helixta.common.base.AsyncLazy;
+import au.com.helixta.common.base.Lazy;
+
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.BiConsumer;
+
+/**
+ * The bindings of a scope instance and the direct dependencies between them.
+ *
+ * <p>
+ * Only dependencies that are forced when a binding is created are edges;
+ * {@code Lazy} dependencies are not. Bindings are kept in dependency order,
+ * so every binding comes after the bindings it depends on.
+ *
+ * @author dan
+ */
+public final class BindingGraph {
+
+  /**
+   * Collects bindings by name. Dependencies and aliases may refer to bindings
+   * added later.
+   */
+  public static final class Builder {
+    private final Map<String, Lazy<?>> bindings = new LinkedHashMap<>();
+    private final Map<String, Set<String>> dependencies = new HashMap<>();
+    private final Map<String, String> aliases = new HashMap<>();
+
+    private Builder() {}
+
+    public Builder binding(String name, Lazy<?> lazy) {
+      checkArgument(bindings.put(checkNotNull(name), checkNotNull(lazy)) == null,
+          "Duplicate binding %s", name);
+      dependencies.put(name, new LinkedHashSet<String>());
+      return this;
+    }
+
+    /**
+     * Creating binding {@code from} forces binding {@code on}.
+     */
+    public Builder dependency(String from, String on) {
+      checkArgument(dependencies.containsKey(from), "Unknown binding %s", from);
+      dependencies.get(from).add(checkNotNull(on));
+      return this;
+    }
+
+    /**
+     * Declares that {@code name} is the same binding as {@code target}.
+     */
+    public Builder alias(String name, String target) {
+      aliases.put(checkNotNull(name), checkNotNull(target));
+      return this;
+    }
+
+    /**
+     * @throws IllegalArgumentException if a dependency refers to an unknown
+     *           binding, or the dependencies have a cycle
+     */
+    public BindingGraph build() {
+      List<String> names = new ArrayList<>(bindings.keySet());
+      Map<String, Integer> index = new HashMap<>();
+      for (int i = 0; i < names.size(); i++) {
+        index.put(names.get(i), i);
+      }
+
+      // Kahn's algorithm, preferring insertion order among ready bindings
+      int n = names.size();
+      int[] waiting = new int[n];
+      List<List<Integer>> dependents = new ArrayList<>();
+      List<int[]> deps = new ArrayList<>();
+      for (int i = 0; i < n; i++) {
+        dependents.add(new ArrayList<Integer>());
+      }
+      for (int i = 0; i < n; i++) {
+        Set<Integer> on = new LinkedHashSet<>();
+        for (String dep : dependencies.get(names.get(i))) {
+          Integer j = index.get(resolve(dep));
+          checkArgument(j != null, "%s depends on unknown binding %s", names.get(i), dep);
+          if (on.add(j)) {
+            dependents.get(j).add(i);
+          }
+        }
+        waiting[i] = on.size();
+        deps.add(Ints.toArray(on));
+      }
+
+      Deque<Integer> ready = new ArrayDeque<>();
+      for (int i = 0; i < n; i++) {
+        if (waiting[i] == 0) {
+          ready.add(i);
+        }
+      }
+      int[] order = new int[n];
+      int[] position = new int[n];
+      int sorted = 0;
+      while (!ready.isEmpty()) {
+        int i = ready.remove();
+        position[i] = sorted;
+        order[sorted++] = i;
+        for (int d : dependents.get(i)) {
+          if (--waiting[d] == 0) {
+            ready.add(d);
+          }
+        }
+      }
+      if (sorted < n) {
+        List<String> cyclic = Lists.newArrayList();
+        for (int i = 0; i < n; i++) {
+          if (waiting[i] > 0) {
+            cyclic.add(names.get(i));
+          }
+        }
+        throw new IllegalArgumentException("Dependency cycle among " + cyclic);
+      }
+
+      String[] sortedNames = new String[n];
+      Lazy<?>[] sortedLazies = new Lazy<?>[n];
+      int[][] sortedDeps = new int[n][];
+      for (int k = 0; k < n; k++) {
+        int i = order[k];
+        sortedNames[k] = names.get(i);
+        sortedLazies[k] = bindings.get(names.get(i));
+        int[] on = deps.get(i);
+        sortedDeps[k] = new int[on.length];
+        for (int m = 0; m < on.length; m++) {
+          sortedDeps[k][m] = position[on[m]];
+        }
+      }
+      return new BindingGraph(sortedNames, sortedLazies, sortedDeps);
+    }
+
+    private String resolve(String name) {
+      Set<String> seen = new LinkedHashSet<>();
+      while (aliases.containsKey(name)) {
+        checkArgument(seen.add(name), "Alias cycle among %s", seen);
+        name = aliases.get(name);
+      }
+      return name;
+    }
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  private final String[] names;
+  private final Lazy<?>[] lazies;
+  private final int[][] dependencies;
+  private final int[][] dependents;
+
+  private BindingGraph(String[] names, Lazy<?>[] lazies, int[][] dependencies) {
+    this.names = names;
+    this.lazies = lazies;
+    this.dependencies = dependencies;
+
+    List<List<Integer>> dependentLists = new ArrayList<>();
+    for (int i = 0; i < names.length; i++) {
+      dependentLists.add(new ArrayList<Integer>());
+    }
+    for (int i = 0; i < names.length; i++) {
+      for (int d : dependencies[i]) {
+        dependentLists.get(d).add(i);
+      }
+    }
+    this.dependents = new int[names.length][];
+    for (int i = 0; i < names.length; i++) {
+      dependents[i] = Ints.toArray(dependentLists.get(i));
+    }
+  }
+
+  /** Number of bindings. */
+  public int size() {
+    return names.length;
+  }
+
+  public String name(int binding) {
+    return names[binding];
+  }
+
+  /** Index of the named binding, or -1 if there is none. */
+  public int indexOf(String name) {
+    for (int i = 0; i < names.length; i++) {
+      if (names[i].equals(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  public Lazy<?> lazy(int binding) {
+    return lazies[binding];
+  }
+
+  /** Indices of the bindings that the given binding directly depends on. */
+  public int[] dependencies(int binding) {
+    return dependencies[binding].clone();
+  }
+
+  /** Indices of the bindings that directly depend on the given binding. */
+  public int[] dependents(int binding) {
+    return dependents[binding].clone();
+  }
+
+  /**
+   * Creates every binding on the given executor, in dependency order.
+   * Independent bindings are created in parallel. A binding is only submitted
+   * once everything it depends on has been created, so tasks never block on
+   * each other and a small or single-threaded executor is fine. Asynchronous
+   * bindings are started, not waited on, so their creations overlap.
+   *
+   * @return completes once every binding is created, or fails with the first
+   *         failure, after which no further bindings are submitted.
+   */
+  public ListenableFuture<Void> warmUp(Executor executor) {
+    return new WarmUp(checkNotNull(executor)).start();
+  }
+
+  private final class WarmUp {
+    private final Executor executor;
+    private final SettableFuture<Void> done = SettableFuture.create();
+    private final AtomicIntegerArray waiting = new AtomicIntegerArray(names.length);
+    private final AtomicInteger remaining = new AtomicInteger(names.length);
+
+    WarmUp(Executor executor) {
+      this.executor = executor;
+    }
+
+    ListenableFuture<Void> start() {
+      if (names.length == 0) {
+        done.set(null);
+        return done;
+      }
+      for (int i = 0; i < names.length; i++) {
+        waiting.set(i, dependencies[i].length);
+      }
+      for (int i = 0; i < names.length; i++) {
+        if (dependencies[i].length == 0) {
+          submit(i);
+        }
+      }
+      return done;
+    }
+
+    private void submit(final int binding) {
+      try {
+        executor.execute(new Runnable() {
+          @Override public void run() {
+            create(binding);
+          }
+        });
+      } catch (RuntimeException e) {
+        done.setException(e);
+      }
+    }
+
+    private void create(final int binding) {
+      if (done.isDone()) {
+        return;
+      }
+      if (lazies[binding] instanceof AsyncLazy) {
+        // Don't tie up an executor thread waiting on it
+        try {
+          ((AsyncLazy<?>) lazies[binding]).getAsync().whenComplete(
+              new BiConsumer<Object, Throwable>() {
+                @Override public void accept(Object value, Throwable t) {
+                  if (t != null) {
+                    done.setException(t);
+                  } else {
+                    created(binding);
+                  }
+                }
+              });
+        } catch (Throwable t) {
+          done.setException(t);
+        }
+        return;
+      }
+      try {
+        lazies[binding].get();
+      } catch (Throwable t) {
+        done.setException(t);
+        return;
+      }
+      created(binding);
+    }
+
+    private void created(int binding) {
+      for (int d : dependents[binding]) {
+        if (waiting.decrementAndGet(d) == 0) {
+          submit(d);
+        }
+      }
+      if (remaining.decrementAndGet() == 0) {
+        done.set(null);
+      }
+    }
+  }
+}
@@ -0,0 +1,48 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject;
+
+/**
+ * Receives timings of binding creation from scopes generated with
+ * instrumentation, see {@link Scope#instrument(BindingInstrumentation)}.
+ *
+ * <p>
+ * Scopes generated without instrumentation contain no calls to it at all.
+ * Implementations are called from whichever thread is using the scope, and
+ * must be threadsafe and cheap. They must not use the scope that calls them.
+ *
+ * @see BindingStats
+ * @author dan
+ */
+public interface BindingInstrumentation {
+
+  /**
+   * A binding's object was created. Called on the thread that created it,
+   * after its dependencies were created, and not for failed creations.
+   *
+   * @param nanos time taken by the creation, including forced dependencies
+   *          created on the way
+   */
+  void created(Scope scope, String binding, long nanos);
+
+  /**
+   * A thread blocked while another thread was creating the binding's object.
+   * Only reported for scopes whose bindings may be created concurrently.
+   */
+  void waited(Scope scope, String binding, long nanos);
+
+  /**
+   * The binding's value was requested. Only reported by scopes generated
+   * with get counting, as this is called on every get.
+   */
+  void got(Scope scope, String binding);
+
+  /** Records nothing. */
+  BindingInstrumentation NONE = new BindingInstrumentation() {
+    @Override public void created(Scope scope, String binding, long nanos) {}
+
+    @Override public void waited(Scope scope, String binding, long nanos) {}
+
+    @Override public void got(Scope scope, String binding) {}
+  };
+}
@@ -0,0 +1,158 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Longs;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory {@link BindingInstrumentation}, aggregating per binding across
+ * all the scope instances it instruments. Bindings are identified by scope
+ * class and binding name.
+ *
+ * @author dan
+ */
+public final class BindingStats implements BindingInstrumentation {
+
+  /** Statistics for one binding. */
+  public static final class Entry {
+    private final String scopeClass;
+    private final String binding;
+    private final AtomicLong creations = new AtomicLong();
+    private final AtomicLong creationNanos = new AtomicLong();
+    private final AtomicLong maxCreationNanos = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong gets = new AtomicLong();
+    private volatile String lastCreator = null;
+
+    private Entry(String scopeClass, String binding) {
+      this.scopeClass = scopeClass;
+      this.binding = binding;
+    }
+
+    public String scopeClass() {
+      return scopeClass;
+    }
+
+    public String binding() {
+      return binding;
+    }
+
+    /** Number of times the binding's object was created. */
+    public long creations() {
+      return creations.get();
+    }
+
+    public long totalCreationNanos() {
+      return creationNanos.get();
+    }
+
+    public long maxCreationNanos() {
+      return maxCreationNanos.get();
+    }
+
+    /** Name of the thread that most recently created the object. */
+    public String lastCreator() {
+      return lastCreator;
+    }
+
+    /** Number of times a thread blocked on another thread's creation. */
+    public long waits() {
+      return waits.get();
+    }
+
+    public long totalWaitNanos() {
+      return waitNanos.get();
+    }
+
+    /** Zero unless the scope was generated with get counting. */
+    public long gets() {
+      return gets.get();
+    }
+
+    @Override
+    public String toString() {
+      return scopeClass + "." + binding + ": created " + creations() + " times in "
+          + TimeUnit.NANOSECONDS.toMicros(totalCreationNanos()) + "us (max "
+          + TimeUnit.NANOSECONDS.toMicros(maxCreationNanos()) + "us, last on " + lastCreator
+          + "), " + waits() + " waits for " + TimeUnit.NANOSECONDS.toMicros(totalWaitNanos())
+          + "us, " + gets() + " gets";
+    }
+  }
+
+  private final ConcurrentMap<Class<?>, ConcurrentMap<String, Entry>> entries =
+      Maps.newConcurrentMap();
+
+  @Override
+  public void created(Scope scope, String binding, long nanos) {
+    Entry e = entry(scope, binding);
+    e.creations.incrementAndGet();
+    e.creationNanos.addAndGet(nanos);
+    long max;
+    do {
+      max = e.maxCreationNanos.get();
+    } while (nanos > max && !e.maxCreationNanos.compareAndSet(max, nanos));
+    e.lastCreator = Thread.currentThread().getName();
+  }
+
+  @Override
+  public void waited(Scope scope, String binding, long nanos) {
+    Entry e = entry(scope, binding);
+    e.waits.incrementAndGet();
+    e.waitNanos.addAndGet(nanos);
+  }
+
+  @Override
+  public void got(Scope scope, String binding) {
+    entry(scope, binding).gets.incrementAndGet();
+  }
+
+  /**
+   * Entries for all bindings seen so far, slowest total creation time first.
+   */
+  public List<Entry> entries() {
+    List<Entry> list = Lists.newArrayList();
+    for (ConcurrentMap<String, Entry> bindings : entries.values()) {
+      list.addAll(bindings.values());
+    }
+    Collections.sort(list, new Comparator<Entry>() {
+      @Override public int compare(Entry a, Entry b) {
+        return Longs.compare(b.totalCreationNanos(), a.totalCreationNanos());
+      }
+    });
+    return list;
+  }
+
+  public void clear() {
+    entries.clear();
+  }
+
+  private Entry entry(Scope scope, String binding) {
+    ConcurrentMap<String, Entry> bindings = entries.get(scope.getClass());
+    if (bindings == null) {
+      ConcurrentMap<String, Entry> created = Maps.newConcurrentMap();
+      bindings = entries.putIfAbsent(scope.getClass(), created);
+      if (bindings == null) {
+        bindings = created;
+      }
+    }
+    Entry e = bindings.get(binding);
+    if (e == null) {
+      Entry created = new Entry(scope.getClass().getName(), binding);
+      e = bindings.putIfAbsent(binding, created);
+      if (e == null) {
+        e = created;
+      }
+    }
+    return e;
+  }
+}
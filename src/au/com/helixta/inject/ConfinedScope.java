@@ -0,0 +1,94 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nullable;
+
+/**
+ * Base for generated scopes that are confined to the thread that constructs
+ * them, such as per-request scopes. After a {@link #reset()}, the scope is
+ * confined to the next thread that uses it.
+ *
+ * <p>
+ * Bindings are created without any synchronization, the open and frozen
+ * checks on each creation read plain fields rather than volatile ones, and
+ * objects to close are pushed onto a plain list rather than with a CAS. Use
+ * from other threads is checked with assertions only. In particular,
+ * {@link #warmUp} must be given an executor that runs tasks on the owning
+ * thread.
+ *
+ * <p>
+ * The scope may still be closed from another thread, but bindings created
+ * concurrently with that are not guaranteed to see it, and objects they
+ * register may be missed by the close.
+ *
+ * @author dan
+ */
+public class ConfinedScope extends Scope {
+  private Thread owner = Thread.currentThread();
+  private boolean closed = false;
+  private boolean frozen = false;
+  /** Most recently registered first, as in {@link Scope}. */
+  @Nullable private ToClose objectsToClose = null;
+
+  /**
+   * The next thread to use the scope after a reset becomes its owner.
+   */
+  @Override
+  public void reset() {
+    super.reset();
+    owner = null;
+    closed = false;
+    frozen = false;
+    objectsToClose = null;
+  }
+
+  @Override
+  protected void frozen() {
+    super.frozen();
+    frozen = true;
+  }
+
+  @Override
+  protected void addObjectToClose(AutoCloseable object, @Nullable String binding) {
+    if (object == null || object == this) {
+      return;
+    }
+    assert isOwner()
+        : "Scope is confined to " + owner + " but used from " + Thread.currentThread();
+    // The caller still owns the object, and must close it
+    Preconditions.checkState(!frozen, "Scope is frozen, can't register %s",
+        binding != null ? binding : object);
+    if (closed) {
+      closeLate(object, binding);
+      return;
+    }
+    objectsToClose = new ToClose(object, binding, objectsToClose);
+  }
+
+  @Override
+  @Nullable ToClose takeObjectsToClose() {
+    closed = true;
+    ToClose objects = objectsToClose;
+    objectsToClose = null;
+    return objects;
+  }
+
+  @Override
+  protected void checkOpen() {
+    assert isOwner()
+        : "Scope is confined to " + owner + " but used from " + Thread.currentThread();
+    Preconditions.checkState(!closed, "Scope is closed");
+    Preconditions.checkState(!frozen, "Scope is frozen");
+  }
+
+  /** Only called from assertions. */
+  private boolean isOwner() {
+    if (owner == null) {
+      owner = Thread.currentThread();
+    }
+    return owner == Thread.currentThread();
+  }
+}
@@ -0,0 +1,203 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import au.com.helixta.common.base.Resettable;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Instances created by a memoizing factory of a generated scope, keyed by the
+ * factory's arguments.
+ *
+ * <p>
+ * The cache holds at most a maximum number of instances, evicting those least
+ * recently used beyond it. Instances that are {@link AutoCloseable} are
+ * closed as they are evicted, so callers must not keep using an instance
+ * they got long ago. Instances still cached when the scope closes are closed
+ * along with the scope's other objects.
+ *
+ * <p>
+ * The cache registers itself with the scope when it creates its first
+ * instance, after the factory's own dependencies, so it is closed before
+ * them. Failures closing evicted instances are reported when the scope
+ * closes. A frozen scope can't register the cache, so it must create its
+ * first instance before the scope is frozen.
+ *
+ * @author dan
+ */
+public final class FactoryCache<K, V> implements AutoCloseable, Resettable {
+  /** Failures beyond these are dropped rather than kept until close. */
+  private static final int MAX_FAILURES = 10;
+
+  private final Scope scope;
+  private final String name;
+  private final CacheLoader<K, V> loader;
+  private final Cache<K, V> cache;
+
+  private volatile boolean closed = false;
+  private volatile int registered = 0;
+
+  @SuppressWarnings("rawtypes")
+  private static final AtomicIntegerFieldUpdater<FactoryCache> REGISTERED =
+      AtomicIntegerFieldUpdater.newUpdater(FactoryCache.class, "registered");
+
+  private final Object failureLock = new Object();
+  /** Guarded by failureLock. */
+  private RuntimeException failures = null;
+  private int failureCount = 0;
+
+  /**
+   * @param name of the factory binding, for messages
+   * @param loader creates the instance for a key, each key only once while it
+   *          is cached
+   */
+  public FactoryCache(Scope scope, String name, long maximumSize,
+      CacheLoader<K, V> loader) {
+    checkArgument(maximumSize > 0, "Maximum size %s of %s must be positive", maximumSize, name);
+    this.scope = checkNotNull(scope);
+    this.name = checkNotNull(name);
+    this.loader = checkNotNull(loader);
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .removalListener(new RemovalListener<K, V>() {
+          @Override public void onRemoval(RemovalNotification<K, V> removed) {
+            closeInstance(removed.getValue());
+          }
+        })
+        .build();
+  }
+
+  /** Loads the instance for a key, remembering it if this call created it. */
+  private final class Load implements Callable<V> {
+    private final K key;
+    V loaded = null;
+
+    Load(K key) {
+      this.key = key;
+    }
+
+    @Override public V call() throws Exception {
+      V instance = loader.load(key);
+      register(instance);
+      loaded = instance;
+      return instance;
+    }
+  }
+
+  /**
+   * The cached instance for the key, creating it if need be.
+   *
+   * @throws NullPointerException if the key is null
+   * @throws IllegalStateException if the scope is closed
+   */
+  public V get(K key) {
+    checkState(!closed, "Scope is closed");
+    V instance = cache.getIfPresent(key);
+    if (instance == null) {
+      Load load = new Load(key);
+      try {
+        instance = cache.get(key, load);
+      } catch (ExecutionException e) {
+        throw new UncheckedExecutionException(e.getCause());
+      } catch (UncheckedExecutionException | ExecutionError e) {
+        Throwables.propagateIfPossible(e.getCause());
+        throw e;
+      }
+      if (closed && load.loaded == instance) {
+        // Raced with close, which may have missed the instance this call
+        // created. Instances other calls created are theirs to clean up.
+        cache.asMap().remove(key, instance);
+      }
+    }
+    checkState(!closed, "Scope is closed");
+    return instance;
+  }
+
+  /** The number of cached instances. */
+  public long size() {
+    return cache.size();
+  }
+
+  /**
+   * Closes the cached instances, and throws any failures closing them or
+   * previously evicted instances.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    cache.invalidateAll();
+    cache.cleanUp();
+
+    RuntimeException problem;
+    synchronized (failureLock) {
+      problem = failures;
+      failures = null;
+      failureCount = 0;
+    }
+    if (problem != null) {
+      throw problem;
+    }
+  }
+
+  /**
+   * Reopens the cache after {@link #close()}, along with its scope.
+   */
+  @Override
+  public void reset() {
+    closed = false;
+    registered = 0;
+  }
+
+  @Override
+  public String toString() {
+    return "FactoryCache(" + name + ", " + cache.size() + " instances)";
+  }
+
+  private void register(V instance) {
+    if (registered == 0 && REGISTERED.compareAndSet(this, 0, 1)) {
+      try {
+        scope.addObjectToClose(this);
+      } catch (IllegalStateException e) {
+        // The scope closed itself and this cache, or is frozen, but either
+        // way doesn't have the new instance
+        registered = 0;
+        closeInstance(instance);
+        throw e;
+      }
+    }
+  }
+
+  private void closeInstance(V instance) {
+    if (!(instance instanceof AutoCloseable)) {
+      return;
+    }
+    try {
+      ((AutoCloseable) instance).close();
+    } catch (Exception e) {
+      synchronized (failureLock) {
+        if (failures == null) {
+          failures = new RuntimeException("Problem closing instances of " + name, e);
+        } else if (failureCount < MAX_FAILURES) {
+          failures.addSuppressed(e);
+        }
+        failureCount++;
+      }
+    }
+  }
+}
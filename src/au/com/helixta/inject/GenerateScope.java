@@ -0,0 +1,94 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject;
+
+import static java.lang.annotation.ElementType.PACKAGE;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.SOURCE;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * Declares a scope to be generated at compile time by
+ * {@link au.com.helixta.inject.gen.ScopeProcessor}, in the package of the
+ * annotated type or package.
+ *
+ * <p>
+ * Each member corresponds to the {@link au.com.helixta.inject.gen.ScopeBuilder}
+ * method of the same name, without qualifiers. The classes referred to must
+ * already be compiled and on the class path, as the generator reflects over
+ * them.
+ *
+ * @author dan
+ */
+@Retention(SOURCE)
+@Target({TYPE, PACKAGE})
+public @interface GenerateScope {
+  /** Simple name of the generated scope class. */
+  String value();
+
+  Class<?>[] instances() default {};
+
+  Class<?>[] constructors() default {};
+
+  Class<?>[] providers() default {};
+
+  Satisfy[] satisfy() default {};
+
+  Class<?>[] factories() default {};
+
+  MemoizingFactory[] memoizingFactories() default {};
+
+  Class<?>[] injectMethods() default {};
+
+  /** Name of the {@link au.com.helixta.inject.gen.LazyImpl} to use. */
+  String lazies() default "MONITOR";
+
+  /**
+   * Parent scope class, see
+   * {@link au.com.helixta.inject.gen.ScopeBuilder#parent(Class)}. {@link Scope}
+   * itself means no parent.
+   */
+  Class<? extends Scope> parent() default Scope.class;
+
+  /** See {@link au.com.helixta.inject.gen.ScopeBuilder#inlineBindings()}. */
+  boolean inlineBindings() default false;
+
+  /** See {@link au.com.helixta.inject.gen.ScopeBuilder#resettable()}. */
+  boolean resettable() default false;
+
+  /** See {@link au.com.helixta.inject.gen.ScopeBuilder#freezable()}. */
+  boolean freezable() default false;
+
+  /**
+   * See {@link au.com.helixta.inject.gen.ScopeBuilder#instrumented(boolean)},
+   * which is passed {@link #countGets()}.
+   */
+  boolean instrumented() default false;
+
+  boolean countGets() default false;
+
+  /**
+   * Satisfy the dependency on {@link #value()} with {@link #with()}.
+   */
+  @Retention(SOURCE)
+  @Target({})
+  public @interface Satisfy {
+    Class<?> value();
+
+    Class<?> with();
+  }
+
+  /**
+   * See
+   * {@link au.com.helixta.inject.gen.ScopeBuilder#memoizingFactory(java.lang.reflect.Type, long, Class...)}.
+   */
+  @Retention(SOURCE)
+  @Target({})
+  public @interface MemoizingFactory {
+    Class<?> value();
+
+    long maximumSize();
+  }
+}
@@ -0,0 +1,280 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject;
+
+import com.google.common.collect.Lists;
+
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * One run of {@link Scope#close(Executor, long, TimeUnit)}.
+ *
+ * <p>
+ * An object is closed only once every object that depends on it has been
+ * closed, failed to close or timed out. Objects are related through the
+ * scope's {@link BindingGraph}. Objects that weren't registered by a binding
+ * are conservatively ordered against everything else by registration order.
+ *
+ * <p>
+ * Times are kept in nanoseconds since the run started, so that huge timeouts
+ * can't overflow.
+ *
+ * @author dan
+ */
+final class ParallelClose {
+  private final Scope scope;
+  private final List<Scope.ToClose> objects;
+  private final Executor executor;
+  private final long timeoutNanos;
+  /**
+   * However long each close takes, none is waited on after this, so a hung
+   * close can't hold up those queued behind it forever.
+   */
+  private final long overallNanos;
+  private long runStart;
+
+  /** For each object, the objects to release once it is closed. */
+  private final List<List<Integer>> releases = Lists.newArrayList();
+  /** For each object, the number of objects it is still waiting on. */
+  private final int[] waiting;
+
+  private final CompletionService<Void> completion;
+  private final Map<Future<Void>, Close> running = new IdentityHashMap<>();
+  private int finished = 0;
+
+  private RuntimeException problem = null;
+
+  /**
+   * @param objects in registration order
+   */
+  ParallelClose(Scope scope, List<Scope.ToClose> objects, BindingGraph graph,
+      Executor executor, long timeout, TimeUnit unit) {
+    this.scope = scope;
+    this.objects = objects;
+    this.executor = executor;
+    this.timeoutNanos = unit.toNanos(timeout);
+    this.completion = new ExecutorCompletionService<>(fallingBack(executor));
+
+    int n = objects.size();
+    // Enough for every close to use its full timeout one after the other
+    this.overallNanos = n == 0 || timeoutNanos <= Long.MAX_VALUE / n
+        ? timeoutNanos * n : Long.MAX_VALUE;
+    int[] bindings = new int[n];
+    BitSet[] reaches = new BitSet[n];
+    for (int i = 0; i < n; i++) {
+      String name = objects.get(i).binding;
+      bindings[i] = name == null ? -1 : graph.indexOf(name);
+      reaches[i] = bindings[i] < 0 ? null : reachable(graph, bindings[i]);
+    }
+
+    waiting = new int[n];
+    for (int i = 0; i < n; i++) {
+      releases.add(Lists.<Integer>newArrayList());
+    }
+    // Dependencies are always registered before their dependents, so only
+    // later objects can need closing first
+    for (int i = 0; i < n; i++) {
+      for (int j = i + 1; j < n; j++) {
+        if (bindings[i] < 0 || bindings[j] < 0 || bindings[i] == bindings[j]
+            || reaches[j].get(bindings[i])) {
+          releases.get(j).add(i);
+          waiting[i]++;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the aggregated failures and timeouts, or null if there were none
+   */
+  RuntimeException run() {
+    runStart = System.nanoTime();
+    // Find the roots before submitting any, as a close reported without
+    // being submitted releases its dependencies straight away
+    List<Integer> roots = Lists.newArrayList();
+    for (int i = objects.size() - 1; i >= 0; i--) {
+      if (waiting[i] == 0) {
+        roots.add(i);
+      }
+    }
+    for (int i : roots) {
+      submit(i);
+    }
+
+    try {
+      while (finished < objects.size()) {
+        long now = elapsed();
+        long wait = Long.MAX_VALUE;
+        for (Close close : running.values()) {
+          // One still queued can't time out sooner than if it started now
+          wait = Math.min(wait, (close.started ? close.deadline : deadlineFrom(now)) - now);
+        }
+
+        Future<Void> done = completion.poll(Math.max(wait, 0), TimeUnit.NANOSECONDS);
+        if (done != null) {
+          Close close = running.remove(done);
+          if (close == null) {
+            // Already abandoned after timing out
+            continue;
+          }
+          try {
+            done.get();
+          } catch (ExecutionException e) {
+            failed(e.getCause());
+          }
+          finish(close.index);
+        } else {
+          timeOut(elapsed());
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      for (Future<Void> f : running.keySet()) {
+        f.cancel(true);
+      }
+      failed(new InterruptedException((objects.size() - finished)
+          + " objects were not closed, interrupted while closing"));
+    }
+
+    return problem;
+  }
+
+  /** Closes one object, and records when it started for the timeout. */
+  private class Close implements Callable<Void> {
+    private final int index;
+    /** Written before started, read only once started is seen to be true. */
+    private long deadline;
+    private volatile boolean started = false;
+
+    Close(int index) {
+      this.index = index;
+    }
+
+    @Override public Void call() throws Exception {
+      deadline = deadlineFrom(elapsed());
+      started = true;
+
+      Scope.ToClose entry = objects.get(index);
+      ScopeEvents.ObjectClosed event = ScopeEvents.beginObjectClose();
+      try {
+        entry.object.close();
+      } catch (Exception e) {
+        ScopeEvents.objectClosed(event, scope, entry, true);
+        throw e;
+      }
+      ScopeEvents.objectClosed(event, scope, entry, false);
+      return null;
+    }
+  }
+
+  private void submit(int i) {
+    if (elapsed() >= overallNanos) {
+      notClosed(i);
+      return;
+    }
+    Close close = new Close(i);
+    running.put(completion.submit(close), close);
+  }
+
+  private void timeOut(long now) {
+    for (Map.Entry<Future<Void>, Close> entry : Lists.newArrayList(running.entrySet())) {
+      Close close = entry.getValue();
+      if (close.started ? close.deadline <= now : overallNanos <= now) {
+        entry.getKey().cancel(true);
+        running.remove(entry.getKey());
+        if (close.started) {
+          failed(new TimeoutException("Timed out after "
+              + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + "ms closing " + describe(close.index)));
+          finish(close.index);
+        } else {
+          // Still queued, and now never run
+          notClosed(close.index);
+        }
+      }
+    }
+  }
+
+  /** Reports a close that didn't start before the overall timeout. */
+  private void notClosed(int i) {
+    failed(new TimeoutException("Timed out after "
+        + TimeUnit.NANOSECONDS.toMillis(overallNanos) + "ms before closing " + describe(i)));
+    finish(i);
+  }
+
+  /** For a close starting at the given time. */
+  private long deadlineFrom(long start) {
+    return timeoutNanos > overallNanos - start ? overallNanos : start + timeoutNanos;
+  }
+
+  private long elapsed() {
+    return System.nanoTime() - runStart;
+  }
+
+  /**
+   * Runs each task the executor rejects on a thread of its own instead, so it
+   * can still be timed out.
+   */
+  private static Executor fallingBack(final Executor executor) {
+    return new Executor() {
+      @Override public void execute(Runnable command) {
+        try {
+          executor.execute(command);
+        } catch (RejectedExecutionException e) {
+          Thread thread = new Thread(command, "Scope close");
+          thread.setDaemon(true);
+          thread.start();
+        }
+      }
+    };
+  }
+
+  private void finish(int i) {
+    finished++;
+    for (int k : releases.get(i)) {
+      if (--waiting[k] == 0) {
+        submit(k);
+      }
+    }
+  }
+
+  private void failed(Throwable t) {
+    // Don't throw straight away, finish closing as best we can
+    if (problem == null) {
+      problem = new RuntimeException("Close problem", t);
+    } else {
+      problem.addSuppressed(t);
+    }
+  }
+
+  private String describe(int i) {
+    Scope.ToClose entry = objects.get(i);
+    return entry.binding != null ? entry.binding : entry.object.toString();
+  }
+
+  /** Bindings transitively forced by creating the given binding. */
+  private static BitSet reachable(BindingGraph graph, int binding) {
+    BitSet seen = new BitSet(graph.size());
+    List<Integer> stack = Lists.newArrayList(binding);
+    while (!stack.isEmpty()) {
+      for (int d : graph.dependencies(stack.remove(stack.size() - 1))) {
+        if (!seen.get(d)) {
+          seen.set(d);
+          stack.add(d);
+        }
+      }
+    }
+    return seen;
+  }
+}
@@ -7,7 +7,13 @@ import static java.lang.annotation.RetentionPolicy.RUNTIME;
 import java.lang.annotation.Retention;
 
 /**
+ * Marks a provider method.
  *
+ * <p>
+ * A method returning {@code CompletableFuture<T>} provides {@code T}
+ * asynchronously. Its binding is an
+ * {@link au.com.helixta.common.base.AsyncLazy}, and the method is called once
+ * its dependencies on other asynchronous bindings have completed.
  *
  * @author dan
  */
@@ -7,8 +7,14 @@ import au.com.helixta.common.base.Lazy;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import javax.annotation.Nullable;
 
 /**
  *
@@ -18,31 +24,70 @@ import java.util.List;
 public class Scope implements ScopeCloser {
   private final Object lock = new Object();
 
-  protected volatile boolean closing = false;
+  /** Set once closing has started. */
+  private static final int CLOSING = 1;
+  /** Set once the scope's bindings have all been created by {@link #freeze()}. */
+  private static final int FROZEN = 2;
+
+  /**
+   * Both flags in one field, so {@link #checkOpen()} is a single volatile
+   * read. Only written while holding lock.
+   */
+  private volatile int state = 0;
+
+  /**
+   * Lock-free stack of the objects to close, most recently registered first,
+   * so dependents come before their dependencies. Set to {@link #CLOSED} once
+   * closing has started.
+   */
+  private volatile ToClose objectsToClose = null;
+
+  private static final AtomicReferenceFieldUpdater<Scope, ToClose> OBJECTS_TO_CLOSE =
+      AtomicReferenceFieldUpdater.newUpdater(Scope.class, ToClose.class, "objectsToClose");
+
+  private static final ToClose CLOSED = new ToClose(null, null, null);
+
+  /** Only set while a generated scope is being constructed and recorded. */
+  @Nullable private ScopeEvents.ScopeConstructed constructing = ScopeEvents.beginConstruction();
+
+  static final class ToClose {
+    final AutoCloseable object;
+    /** The binding that created the object, if any. */
+    @Nullable final String binding;
+    @Nullable final ToClose next;
 
-  private final List<AutoCloseable> objectsToClose = Lists.newArrayList();
+    ToClose(AutoCloseable object, @Nullable String binding, @Nullable ToClose next) {
+      this.object = object;
+      this.binding = binding;
+      this.next = next;
+    }
+  }
 
+  /**
+   * Closes the objects registered with the scope, one at a time in reverse
+   * registration order, so nothing is closed before the objects that depend
+   * on it.
+   */
   @Override
   public void close() {
     synchronized (lock) {
-      if (closing) {
+      if ((state & CLOSING) != 0) {
         return;
       }
-      closing = true;
+      state |= CLOSING;
 
+      ScopeEvents.ScopeClosed event = ScopeEvents.beginClose();
       RuntimeException problem = null;
+      int objects = 0;
 
-      for (AutoCloseable object : objectsToClose) {
-        if (object == this) {
-          continue;
-        }
-        if (object == null) {
-          continue;
-        }
-
+      for (ToClose entry = takeObjectsToClose(); entry != null; entry = entry.next) {
+        objects++;
+        ScopeEvents.ObjectClosed objectEvent = ScopeEvents.beginObjectClose();
         try {
-          object.close();
+          entry.object.close();
+          ScopeEvents.objectClosed(objectEvent, this, entry, false);
         } catch (Exception e) {
+          ScopeEvents.objectClosed(objectEvent, this, entry, true);
           // Don't throw straight away, finish closing as best we can
           if (problem == null) {
             problem = new RuntimeException("Close problem", e);
@@ -52,6 +97,51 @@ public class Scope implements ScopeCloser {
         }
       }
 
+      ScopeEvents.closed(event, this, objects, problem);
+      if (problem != null) {
+        throw problem;
+      }
+    }
+  }
+
+  /**
+   * Closes the scope like {@link #close()}, but closes independent objects in
+   * parallel on the given executor. An object is still only closed once all
+   * the objects that depend on it have been closed.
+   *
+   * <p>
+   * Each close is given the timeout, from when it starts running on the
+   * executor, so time spent queued behind other closes doesn't count. A close
+   * that overruns it is interrupted, reported as a
+   * {@link java.util.concurrent.TimeoutException} and no longer waited on, so
+   * the objects it depends on are closed regardless.
+   *
+   * <p>
+   * A close that ignores the interrupt still holds up its executor thread,
+   * though. So the whole close is also bounded by the timeout times the number
+   * of objects, from when this method starts: any close that hasn't started
+   * by then is cancelled and reported as timed out instead. A close the
+   * executor rejects runs on a thread of its own, so that it is timed out too.
+   *
+   * @throws RuntimeException aggregating any failures and timeouts
+   */
+  public void close(Executor executor, long timeout, TimeUnit unit) {
+    Preconditions.checkNotNull(executor);
+    Preconditions.checkArgument(timeout >= 0, "Negative timeout %s", timeout);
+    synchronized (lock) {
+      if ((state & CLOSING) != 0) {
+        return;
+      }
+      state |= CLOSING;
+
+      ScopeEvents.ScopeClosed event = ScopeEvents.beginClose();
+      List<ToClose> objects = Lists.newArrayList();
+      for (ToClose entry = takeObjectsToClose(); entry != null; entry = entry.next) {
+        objects.add(entry);
+      }
+      RuntimeException problem = new ParallelClose(
+          this, Lists.reverse(objects), bindingGraph(), executor, timeout, unit).run();
+      ScopeEvents.closed(event, this, objects.size(), problem);
       if (problem != null) {
         throw problem;
       }
@@ -63,11 +153,178 @@ public class Scope implements ScopeCloser {
    */
   public final Lazy<ScopeCloser> scopeCloser = Lazies.<ScopeCloser>eager(this);
 
+  /**
+   * The scope's bindings and the dependencies between them. Generated scopes
+   * override this; the base scope has no bindings.
+   */
+  public BindingGraph bindingGraph() {
+    return BindingGraph.builder().build();
+  }
+
+  /**
+   * Creates all of the scope's bindings ahead of time, so that the first real
+   * request doesn't pay for building the whole object graph serially.
+   *
+   * @see BindingGraph#warmUp(Executor)
+   */
+  public ListenableFuture<Void> warmUp(Executor executor) {
+    return bindingGraph().warmUp(executor);
+  }
+
+  /**
+   * Reopens a closed scope so it can be used again, e.g. by a
+   * {@link ScopePool}. The scope's own bindings are discarded, to be created
+   * again on next use, and the close list is cleared. Seed values, bindings
+   * shared with a parent scope and the binding objects themselves are kept.
+   *
+   * <p>
+   * Must not be called while the scope may be in use by another thread.
+   *
+   * @throws IllegalStateException if the scope is still open
+   * @throws UnsupportedOperationException if the scope was not generated with
+   *           reset support
+   */
+  public void reset() {
+    synchronized (lock) {
+      Preconditions.checkState((state & CLOSING) != 0, "Only a closed scope can be reset");
+      resetBindings();
+      objectsToClose = null;
+      state = 0;
+    }
+  }
+
+  /**
+   * Discards the values of the scope's own bindings. Overridden by scopes
+   * generated with reset support.
+   */
+  protected void resetBindings() {
+    throw new UnsupportedOperationException(
+        getClass().getName() + " was not generated with reset support");
+  }
+
+  /**
+   * Reports creation of the scope's own bindings to the given
+   * instrumentation, from now on. Bindings shared with a parent scope are
+   * reported by the parent.
+   *
+   * @throws UnsupportedOperationException if the scope was not generated with
+   *           instrumentation
+   */
+  public void instrument(BindingInstrumentation instrumentation) {
+    throw new UnsupportedOperationException(
+        getClass().getName() + " was not generated with instrumentation");
+  }
+
+  /**
+   * Creates all of the scope's bindings, and returns a snapshot of their
+   * objects in final fields, for scopes whose bindings never change once they
+   * are warm. Reading an object from the snapshot is a plain field read, with
+   * none of the checks of its Lazy. The JIT doesn't trust instance final
+   * fields, so the objects are not constant folded, but the snapshot itself
+   * is, if it is held in a static final field.
+   *
+   * <p>
+   * Freezing doesn't change the scope's own Lazy fields. Reads through them,
+   * including those by the scope's bindings and factories, still go through
+   * each Lazy's checks, so only code that reads the snapshot gets faster.
+   *
+   * <p>
+   * Once frozen, the scope fails fast on anything that would change it:
+   * creating a binding, or registering an object to close. It can still be
+   * closed, and a reset unfreezes it. Freezing again returns the same
+   * snapshot.
+   *
+   * @throws UnsupportedOperationException if the scope was not generated with
+   *           freeze support
+   */
+  public Object freeze() {
+    throw new UnsupportedOperationException(
+        getClass().getName() + " was not generated with freeze support");
+  }
+
+  /**
+   * Whether {@link #freeze()} has completed.
+   */
+  public final boolean isFrozen() {
+    return (state & FROZEN) != 0;
+  }
+
+  /**
+   * Called by generated scopes once {@link #freeze()} has created all their
+   * bindings.
+   */
+  protected void frozen() {
+    synchronized (lock) {
+      checkOpen();
+      state |= FROZEN;
+    }
+  }
+
+  /**
+   * Called by generated scopes at the end of their constructor.
+   */
+  protected final void constructed() {
+    ScopeEvents.constructed(constructing, this);
+    constructing = null;
+  }
+
   protected void addObjectToClose(AutoCloseable object) {
-    objectsToClose.add(object);
+    addObjectToClose(object, null);
+  }
+
+  /**
+   * Registers an object created by the named binding, so that
+   * {@link #close(Executor, long, TimeUnit)} can order it by the binding's
+   * dependencies.
+   */
+  protected void addObjectToClose(AutoCloseable object, @Nullable String binding) {
+    if (object == null || object == this) {
+      return;
+    }
+    // The caller still owns the object, and must close it
+    Preconditions.checkState(!isFrozen(), "Scope is frozen, can't register %s",
+        binding != null ? binding : object);
+    ToClose head;
+    ToClose entry;
+    do {
+      head = objectsToClose;
+      if (head == CLOSED) {
+        closeLate(object, binding);
+        return;
+      }
+      entry = new ToClose(object, binding, head);
+    } while (!OBJECTS_TO_CLOSE.compareAndSet(this, head, entry));
+  }
+
+  /**
+   * Takes the objects to close, most recently registered first, so that any
+   * registered from now on are closed late. Called once by each close.
+   */
+  @Nullable ToClose takeObjectsToClose() {
+    return OBJECTS_TO_CLOSE.getAndSet(this, CLOSED);
+  }
+
+  /**
+   * The scope was closed while the object was being created, so it missed
+   * being closed along with everything else. Close it now and fail the
+   * creation.
+   */
+  void closeLate(AutoCloseable object, @Nullable String binding) {
+    IllegalStateException closed = new IllegalStateException(
+        "Scope was closed while creating " + (binding != null ? binding : object));
+    try {
+      object.close();
+    } catch (Exception e) {
+      closed.addSuppressed(e);
+    }
+    throw closed;
   }
 
   protected void checkOpen() {
-    Preconditions.checkState(!closing, "Scope is closed");
+    int s = state;
+    if (s != 0) {
+      throw new IllegalStateException(
+          (s & CLOSING) != 0 ? "Scope is closed" : "Scope is frozen");
+    }
   }
 }
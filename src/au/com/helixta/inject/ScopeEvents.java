@@ -0,0 +1,198 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import javax.annotation.Nullable;
+
+/**
+ * JDK Flight Recorder events for the lifecycle of scopes, emitted by
+ * {@link Scope} and by generated scopes.
+ *
+ * <p>
+ * Events that aren't enabled in a running recording cost a check of a flag,
+ * and no allocation. The begin methods return null in that case, and the
+ * end methods accept it.
+ *
+ * @author dan
+ */
+public final class ScopeEvents {
+  private static final String CATEGORY = "Dependency Injection";
+
+  @Name("au.com.helixta.inject.ScopeConstructed")
+  @Label("Scope Constructed")
+  @Description("Construction of a generated scope, including its binding objects")
+  @Category(CATEGORY)
+  public static final class ScopeConstructed extends Event {
+    @Label("Scope")
+    String scope;
+  }
+
+  @Name("au.com.helixta.inject.BindingCreated")
+  @Label("Binding Created")
+  @Description("Creation of a binding's object, including forced dependencies")
+  @Category(CATEGORY)
+  public static final class BindingCreated extends Event {
+    @Label("Scope")
+    String scope;
+
+    @Label("Binding")
+    String binding;
+  }
+
+  @Name("au.com.helixta.inject.BindingFailed")
+  @Label("Binding Failed")
+  @Description("A binding's object could not be created")
+  @Category(CATEGORY)
+  public static final class BindingFailed extends Event {
+    @Label("Scope")
+    String scope;
+
+    @Label("Binding")
+    String binding;
+
+    @Label("Failure")
+    String failure;
+  }
+
+  @Name("au.com.helixta.inject.ScopeClosed")
+  @Label("Scope Closed")
+  @Category(CATEGORY)
+  public static final class ScopeClosed extends Event {
+    @Label("Scope")
+    String scope;
+
+    @Label("Objects")
+    int objects;
+
+    @Label("Failures")
+    @Description("Objects that failed or timed out closing")
+    int failures;
+  }
+
+  @Name("au.com.helixta.inject.ObjectClosed")
+  @Label("Scope Object Closed")
+  @Description("Close of one object registered with a scope")
+  @Category(CATEGORY)
+  public static final class ObjectClosed extends Event {
+    @Label("Scope")
+    String scope;
+
+    @Label("Binding")
+    String binding;
+
+    @Label("Object Class")
+    Class<?> objectClass;
+
+    @Label("Failed")
+    boolean failed;
+  }
+
+  private static final EventType SCOPE_CONSTRUCTED = EventType.getEventType(ScopeConstructed.class);
+  private static final EventType BINDING_CREATED = EventType.getEventType(BindingCreated.class);
+  private static final EventType BINDING_FAILED = EventType.getEventType(BindingFailed.class);
+  private static final EventType SCOPE_CLOSED = EventType.getEventType(ScopeClosed.class);
+  private static final EventType OBJECT_CLOSED = EventType.getEventType(ObjectClosed.class);
+
+  private ScopeEvents() {}
+
+  @Nullable static ScopeConstructed beginConstruction() {
+    if (!SCOPE_CONSTRUCTED.isEnabled()) {
+      return null;
+    }
+    ScopeConstructed event = new ScopeConstructed();
+    event.begin();
+    return event;
+  }
+
+  static void constructed(@Nullable ScopeConstructed event, Scope scope) {
+    if (event != null) {
+      event.scope = scope.getClass().getName();
+      event.commit();
+    }
+  }
+
+  /** Called by generated scopes before creating a binding's object. */
+  @Nullable public static BindingCreated beginBinding() {
+    if (!BINDING_CREATED.isEnabled()) {
+      return null;
+    }
+    BindingCreated event = new BindingCreated();
+    event.begin();
+    return event;
+  }
+
+  /**
+   * Called by generated scopes once a binding's object is created.
+   *
+   * @param binding descriptor of the binding, as used to name its Lazy
+   */
+  public static void created(@Nullable BindingCreated event, Scope scope, String binding) {
+    if (event != null) {
+      event.scope = scope.getClass().getName();
+      event.binding = binding;
+      event.commit();
+    }
+  }
+
+  /**
+   * Called by generated scopes when a binding's object can't be created.
+   * Scopes emitted as bytecode by
+   * {@link au.com.helixta.inject.gen.ScopeBuilder#generateClass} don't call
+   * it.
+   */
+  public static void failed(Scope scope, String binding, Throwable failure) {
+    if (BINDING_FAILED.isEnabled()) {
+      BindingFailed event = new BindingFailed();
+      event.scope = scope.getClass().getName();
+      event.binding = binding;
+      event.failure = failure.toString();
+      event.commit();
+    }
+  }
+
+  @Nullable static ScopeClosed beginClose() {
+    if (!SCOPE_CLOSED.isEnabled()) {
+      return null;
+    }
+    ScopeClosed event = new ScopeClosed();
+    event.begin();
+    return event;
+  }
+
+  static void closed(@Nullable ScopeClosed event, Scope scope, int objects,
+      @Nullable RuntimeException problem) {
+    if (event != null) {
+      event.scope = scope.getClass().getName();
+      event.objects = objects;
+      event.failures = problem == null ? 0 : 1 + problem.getSuppressed().length;
+      event.commit();
+    }
+  }
+
+  @Nullable static ObjectClosed beginObjectClose() {
+    if (!OBJECT_CLOSED.isEnabled()) {
+      return null;
+    }
+    ObjectClosed event = new ObjectClosed();
+    event.begin();
+    return event;
+  }
+
+  static void objectClosed(@Nullable ObjectClosed event, Scope scope,
+      Scope.ToClose object, boolean failed) {
+    if (event != null) {
+      event.scope = scope.getClass().getName();
+      event.binding = object.binding;
+      event.objectClass = object.object.getClass();
+      event.failed = failed;
+      event.commit();
+    }
+  }
+}
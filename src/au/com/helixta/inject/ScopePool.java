@@ -0,0 +1,56 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import au.com.helixta.common.base.Factories.Factory0;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Recycles closed scopes through {@link Scope#reset()}, for scopes that are
+ * created and closed at a high rate. Every scope from a pool has the same seed
+ * values.
+ *
+ * <p>
+ * Generated scopes with reset support have a static {@code pool(...)} method
+ * taking their constructor arguments.
+ *
+ * @author dan
+ */
+public final class ScopePool<S extends Scope> {
+  private final Factory0<S> factory;
+  private final BlockingQueue<S> idle;
+
+  /**
+   * @param factory creates a new scope when none are idle
+   * @param maxIdle most closed scopes kept for reuse
+   */
+  public ScopePool(Factory0<S> factory, int maxIdle) {
+    checkArgument(maxIdle > 0, "maxIdle must be positive");
+    this.factory = checkNotNull(factory);
+    this.idle = new ArrayBlockingQueue<>(maxIdle);
+  }
+
+  /** Returns an idle scope if there is one, otherwise a new scope. */
+  public S acquire() {
+    S scope = idle.poll();
+    return scope != null ? scope : factory.create();
+  }
+
+  /**
+   * Closes the scope, and keeps it for reuse if there is room. The scope must
+   * not be used by the caller afterwards.
+   *
+   * <p>
+   * If closing fails, the exception is thrown and the scope is not reused.
+   */
+  public void release(S scope) {
+    scope.close();
+    scope.reset();
+    idle.offer(scope);
+  }
+}
@@ -0,0 +1,234 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Longs;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction times of every binding of a scope, and the critical path
+ * through them.
+ *
+ * <p>
+ * Bindings are created one at a time in dependency order, so each binding's
+ * forced dependencies already exist when it is timed, and its time is
+ * exclusive of them. Anything it creates through a {@code Lazy} dependency
+ * during construction is counted as its own time. The scope should be
+ * fresh, as bindings that already exist take no time.
+ *
+ * <p>
+ * The inclusive time of a binding is the sum of the exclusive times of it
+ * and everything it transitively forces, i.e. its cost when created cold on
+ * its own. The critical path is the chain of dependencies with the greatest
+ * total exclusive time, which bounds how fast the scope could start up if
+ * every binding off the path were created in parallel. That makes its
+ * bindings the ones worth making faster or asynchronous.
+ *
+ * @author dan
+ */
+public final class StartupProfile {
+  private final BindingGraph graph;
+  private final long[] exclusiveNanos;
+  private final long[] inclusiveNanos;
+  private final ImmutableList<Integer> criticalPath;
+  private final long criticalPathNanos;
+
+  private StartupProfile(BindingGraph graph, long[] exclusiveNanos) {
+    this.graph = graph;
+    this.exclusiveNanos = exclusiveNanos;
+
+    int n = graph.size();
+    inclusiveNanos = new long[n];
+    BitSet[] closure = new BitSet[n];
+    long[] pathNanos = new long[n];
+    int[] pathNext = new int[n];
+    int end = -1;
+    // Dependencies come first in the graph's order
+    for (int i = 0; i < n; i++) {
+      closure[i] = new BitSet(n);
+      closure[i].set(i);
+      pathNext[i] = -1;
+      for (int d : graph.dependencies(i)) {
+        closure[i].or(closure[d]);
+        if (pathNext[i] == -1 || pathNanos[d] > pathNanos[pathNext[i]]) {
+          pathNext[i] = d;
+        }
+      }
+      pathNanos[i] = exclusiveNanos[i] + (pathNext[i] == -1 ? 0 : pathNanos[pathNext[i]]);
+      for (int k = closure[i].nextSetBit(0); k >= 0; k = closure[i].nextSetBit(k + 1)) {
+        inclusiveNanos[i] += exclusiveNanos[k];
+      }
+      if (end == -1 || pathNanos[i] > pathNanos[end]) {
+        end = i;
+      }
+    }
+
+    List<Integer> path = Lists.newArrayList();
+    for (int i = end; i != -1; i = pathNext[i]) {
+      path.add(i);
+    }
+    Collections.reverse(path);
+    criticalPath = ImmutableList.copyOf(path);
+    criticalPathNanos = end == -1 ? 0 : pathNanos[end];
+  }
+
+  /**
+   * Creates every binding of the scope, timing each one.
+   *
+   * @throws RuntimeException if a binding can't be created
+   */
+  public static StartupProfile of(Scope scope) {
+    BindingGraph graph = checkNotNull(scope).bindingGraph();
+    long[] exclusive = new long[graph.size()];
+    for (int i = 0; i < graph.size(); i++) {
+      long start = System.nanoTime();
+      graph.lazy(i).get();
+      exclusive[i] = System.nanoTime() - start;
+    }
+    return new StartupProfile(graph, exclusive);
+  }
+
+  public BindingGraph graph() {
+    return graph;
+  }
+
+  public long exclusiveNanos(int binding) {
+    return exclusiveNanos[binding];
+  }
+
+  public long inclusiveNanos(int binding) {
+    return inclusiveNanos[binding];
+  }
+
+  /** Indices of the bindings on the critical path, dependencies first. */
+  public List<Integer> criticalPath() {
+    return criticalPath;
+  }
+
+  public long criticalPathNanos() {
+    return criticalPathNanos;
+  }
+
+  /** Sum of all exclusive times, i.e. the serial startup time. */
+  public long totalNanos() {
+    long total = 0;
+    for (long t : exclusiveNanos) {
+      total += t;
+    }
+    return total;
+  }
+
+  /**
+   * The graph in Graphviz DOT format, with edges from each binding to its
+   * dependencies. Nodes are labelled with exclusive and inclusive times, and
+   * the critical path is drawn in red.
+   */
+  public String toDot() {
+    StringBuilder b = new StringBuilder("digraph startup {\n");
+    b.append("  node [shape=box];\n");
+    for (int i = 0; i < graph.size(); i++) {
+      b.append("  ").append(quote(graph.name(i)))
+          .append(" [label=\"").append(graph.name(i))
+          .append("\\nexclusive ").append(millis(exclusiveNanos[i]))
+          .append("\\ninclusive ").append(millis(inclusiveNanos[i])).append('"');
+      if (criticalPath.contains(i)) {
+        b.append(", color=red, penwidth=2");
+      }
+      b.append("];\n");
+    }
+    for (int i = 0; i < graph.size(); i++) {
+      for (int d : graph.dependencies(i)) {
+        b.append("  ").append(quote(graph.name(i))).append(" -> ").append(quote(graph.name(d)));
+        if (onCriticalPath(i, d)) {
+          b.append(" [color=red, penwidth=2]");
+        }
+        b.append(";\n");
+      }
+    }
+    return b.append("}\n").toString();
+  }
+
+  /**
+   * Exclusive times in microseconds in the folded stack format read by flame
+   * graph tools, one line per binding. A binding forced by several others is
+   * attributed to the first of them in dependency order.
+   */
+  public String toFoldedStacks() {
+    StringBuilder b = new StringBuilder();
+    for (int i = 0; i < graph.size(); i++) {
+      List<String> stack = Lists.newArrayList();
+      for (int k = i; k != -1; k = firstDependent(k)) {
+        stack.add(graph.name(k));
+      }
+      Collections.reverse(stack);
+      b.append(Joiner.on(';').join(stack)).append(' ')
+          .append(TimeUnit.NANOSECONDS.toMicros(exclusiveNanos[i])).append('\n');
+    }
+    return b.toString();
+  }
+
+  /**
+   * A table of bindings by exclusive time, followed by the critical path.
+   */
+  @Override
+  public String toString() {
+    List<Integer> order = Lists.newArrayList();
+    for (int i = 0; i < graph.size(); i++) {
+      order.add(i);
+    }
+    Collections.sort(order, new Comparator<Integer>() {
+      @Override public int compare(Integer a, Integer b) {
+        return Longs.compare(exclusiveNanos[b], exclusiveNanos[a]);
+      }
+    });
+
+    StringBuilder b = new StringBuilder();
+    b.append(String.format(Locale.ROOT, "%12s %12s  %s%n", "exclusive", "inclusive", "binding"));
+    for (int i : order) {
+      b.append(String.format(Locale.ROOT, "%12s %12s  %s%s%n",
+          millis(exclusiveNanos[i]), millis(inclusiveNanos[i]), graph.name(i),
+          criticalPath.contains(i) ? " *" : ""));
+    }
+    b.append(String.format(Locale.ROOT, "%nTotal %s, critical path (*) %s:%n",
+        millis(totalNanos()), millis(criticalPathNanos)));
+    for (int i : criticalPath) {
+      b.append("  ").append(graph.name(i)).append('\n');
+    }
+    return b.toString();
+  }
+
+  private boolean onCriticalPath(int from, int on) {
+    int k = criticalPath.indexOf(on);
+    return k != -1 && k + 1 < criticalPath.size() && criticalPath.get(k + 1) == from;
+  }
+
+  private int firstDependent(int binding) {
+    int[] dependents = graph.dependents(binding);
+    int first = -1;
+    for (int d : dependents) {
+      if (first == -1 || d < first) {
+        first = d;
+      }
+    }
+    return first;
+  }
+
+  private static String millis(long nanos) {
+    return String.format(Locale.ROOT, "%.3fms", nanos / 1e6);
+  }
+
+  private static String quote(String name) {
+    return '"' + name.replace("\"", "\\\"") + '"';
+  }
+}
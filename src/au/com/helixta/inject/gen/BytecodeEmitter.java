@@ -0,0 +1,715 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject.gen;
+
+import static au.com.helixta.gen.ClassFileWriter.ACC_FINAL;
+import static au.com.helixta.gen.ClassFileWriter.ACC_PROTECTED;
+import static au.com.helixta.gen.ClassFileWriter.ACC_PUBLIC;
+import static au.com.helixta.gen.ClassFileWriter.ACC_STATIC;
+import static au.com.helixta.gen.ClassFileWriter.ACC_SYNTHETIC;
+import static au.com.helixta.gen.ClassFileWriter.descriptor;
+import static au.com.helixta.gen.ClassFileWriter.internalName;
+import static au.com.helixta.gen.ClassFileWriter.methodDescriptor;
+import static au.com.helixta.gen.ClassFileWriter.objectDescriptor;
+import static au.com.helixta.gen.ClassFileWriter.signature;
+import static au.com.helixta.gen.GenUtil.asClass;
+
+import au.com.helixta.common.base.AsyncLazy;
+import au.com.helixta.common.base.Lazies;
+import au.com.helixta.common.base.Lazies.Eager;
+import au.com.helixta.common.base.Factories.Factory0;
+import au.com.helixta.common.base.Lazy;
+import au.com.helixta.common.base.RacyLazy;
+import au.com.helixta.common.base.Resettable;
+import au.com.helixta.common.base.Unit;
+import au.com.helixta.gen.ClassFileWriter;
+import au.com.helixta.gen.ClassFileWriter.Code;
+import au.com.helixta.inject.BindingGraph;
+import au.com.helixta.inject.Scope;
+import au.com.helixta.inject.ScopeEvents;
+import au.com.helixta.inject.ScopePool;
+import au.com.helixta.inject.gen.Dependency.AsyncLazyDependency;
+import au.com.helixta.inject.gen.Dependency.LazyDependency;
+import au.com.helixta.inject.gen.ScopeGenerator.BindingEdge;
+import au.com.helixta.inject.gen.ScopeGenerator.CurriedCtorFactory;
+import au.com.helixta.inject.gen.ScopeGenerator.CurriedHolder;
+import au.com.helixta.inject.gen.ScopeGenerator.MethodInjector;
+import au.com.helixta.inject.gen.ScopeGenerator.ParentScopeVar;
+import au.com.helixta.inject.gen.ScopeGenerator.ProviderCallable;
+import au.com.helixta.inject.gen.ScopeGenerator.SatisfactionVar;
+import au.com.helixta.inject.gen.ScopeGenerator.ScopeVar;
+import au.com.helixta.inject.gen.ScopeGenerator.Value;
+
+import com.google.common.base.Function;
+
+import javax.annotation.Nullable;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Emits a scope as class files, with the same shape as the java source emitted
+ * by {@link ScopeGenerator}: same fields, same constructor, and the same Lazy
+ * implementation for bindings.
+ *
+ * <p>
+ * Bindings, factories and method injectors become inner classes named like
+ * javac's anonymous classes. Since those classes can't call the protected
+ * {@link Scope} methods directly, the scope gets static accessors for them.
+ *
+ * @author dan
+ */
+class BytecodeEmitter {
+  private static final String OBJECT = internalName(Object.class);
+  private static final String LAZY_DESC = descriptor(Lazy.class);
+  private static final String LAZIES = internalName(Lazies.class);
+  private static final String EAGER = internalName(Eager.class);
+  private static final String RACY_LAZY = internalName(RacyLazy.class);
+  private static final String RACY_LAZY_DESC = descriptor(RacyLazy.class);
+  private static final String GET_DESC = methodDescriptor(Object.class);
+  private static final String EVENTS = internalName(ScopeEvents.class);
+  private static final String BINDING_EVENT_DESC = descriptor(ScopeEvents.BindingCreated.class);
+
+  private static final String OUTER = "this$0";
+  private static final String CHECK_OPEN = "access$checkOpen";
+  private static final String ADD_OBJECT_TO_CLOSE = "access$addObjectToClose";
+
+  private final ScopeGenerator g;
+  private final String scope;
+  private final String scopeDesc;
+
+  private final Map<String, byte[]> classes = new LinkedHashMap<>();
+  /** The RacyLazy class of each holder. */
+  private final Map<CurriedHolder, String> curriedClasses = new HashMap<>();
+  private int nextInnerClass = 1;
+
+  BytecodeEmitter(ScopeGenerator g, String pkg) {
+    this.g = g;
+    this.scope = internalName(pkg + "." + g.scopeName);
+    this.scopeDesc = objectDescriptor(scope);
+  }
+
+  Map<String, byte[]> emit() {
+    // Reserve the first entry for the scope itself
+    classes.put(binaryName(scope), null);
+
+    List<String> bindingClasses = new ArrayList<>();
+    for (ScopeVar v : g.scopeVars) {
+      bindingClasses.add(emitBinding(v));
+    }
+    List<String> factoryClasses = new ArrayList<>();
+    for (CurriedCtorFactory f : g.factoryVars) {
+      if (f.curried != null) {
+        Class<?>[] params = f.constructor.getParameterTypes();
+        curriedClasses.put(f.curried,
+            emitCurried(f.curried, curriedTypes(null, f.args.curriedDeps, params)));
+      }
+      factoryClasses.add(emitFactory(f));
+    }
+    List<String> injectorClasses = new ArrayList<>();
+    List<String> functionClasses = new ArrayList<>();
+    for (MethodInjector mi : g.methodInjectors) {
+      if (mi.curried != null) {
+        Class<?> receiver = mi.isStatic ? null : asClass(mi.receiver.outerType().type);
+        Class<?>[] params = mi.innerRawMethod.getParameterTypes();
+        curriedClasses.put(mi.curried,
+            emitCurried(mi.curried, curriedTypes(receiver, mi.args.curriedDeps, params)));
+      }
+      injectorClasses.add(emitInjector(mi));
+      functionClasses.add(emitInjectorFunction(mi));
+    }
+
+    String superName = internalName(g.options.lazyImpl.scopeClass);
+    ClassFileWriter cw = new ClassFileWriter(ACC_PUBLIC, scope, superName);
+
+    // FIELDS
+
+    for (Value v : g.values) {
+      bindingField(cw, ACC_PUBLIC | ACC_FINAL, v.variable, v.providesDep);
+    }
+    for (ParentScopeVar v : g.parentScopeVars) {
+      bindingField(cw, ACC_PUBLIC | ACC_FINAL, v.name, v.providesDep);
+    }
+    for (SatisfactionVar s : g.satisfactionVars) {
+      bindingField(cw, 0, s.dependency.scopeVar(), s.dependency);
+    }
+    for (ScopeVar v : g.scopeVars) {
+      bindingField(cw, ACC_PUBLIC | ACC_FINAL, v.cacheVar, v.providesDep);
+    }
+    for (CurriedCtorFactory f : g.factoryVars) {
+      curriedField(cw, f.curried);
+      bindingField(cw, ACC_PUBLIC | ACC_FINAL, f.dependency.scopeVar(), f.dependency);
+    }
+    for (MethodInjector mi : g.methodInjectors) {
+      curriedField(cw, mi.curried);
+      cw.field(ACC_PUBLIC | ACC_FINAL, mi.varName, descriptor(asClass(mi.iface)),
+          genericSignature(mi.iface));
+      cw.field(ACC_PUBLIC | ACC_STATIC | ACC_FINAL, mi.varName.toUpperCase(),
+          descriptor(Function.class), "L" + internalName(Function.class) + "<"
+              + scopeDesc + signature(mi.iface) + ">;");
+    }
+
+    // CONSTRUCTOR
+
+    List<Class<?>> ctorParams = new ArrayList<>();
+    if (g.parentScope != null) {
+      ctorParams.add(g.parentScope);
+    }
+    for (Value v : g.values) {
+      ctorParams.add(referenceClass(v.providesDep.outerType().type));
+    }
+    Code ctor = cw.method(ACC_PUBLIC, "<init>",
+        methodDescriptor(void.class, ctorParams.toArray(new Class<?>[0])));
+    ctor.aload(0).invokespecial(superName, "<init>", "()V");
+
+    // Field initializers first, as javac would order them
+    for (int i = 0; i < g.scopeVars.size(); i++) {
+      ctor.aload(0);
+      newInner(ctor, bindingClasses.get(i));
+      ctor.putfield(scope, g.scopeVars.get(i).cacheVar, fieldDesc(g.scopeVars.get(i).cacheVar));
+    }
+    for (int i = 0; i < g.factoryVars.size(); i++) {
+      initCurried(ctor, g.factoryVars.get(i).curried);
+      ctor.aload(0).newObject(EAGER).dup();
+      newInner(ctor, factoryClasses.get(i));
+      ctor.invokespecial(EAGER, "<init>", methodDescriptor(void.class, Object.class));
+      String var = g.factoryVars.get(i).dependency.scopeVar();
+      ctor.putfield(scope, var, fieldDesc(var));
+    }
+    for (int i = 0; i < g.methodInjectors.size(); i++) {
+      MethodInjector mi = g.methodInjectors.get(i);
+      initCurried(ctor, mi.curried);
+      ctor.aload(0);
+      newInner(ctor, injectorClasses.get(i));
+      ctor.putfield(scope, mi.varName, descriptor(asClass(mi.iface)));
+    }
+
+    // Then the constructor body
+    int slot = g.parentScope == null ? 1 : 2;
+    for (Value v : g.values) {
+      ctor.aload(0).newObject(EAGER).dup().aload(slot++).ldc(v.variable)
+          .invokespecial(EAGER, "<init>", methodDescriptor(void.class, Object.class, String.class))
+          .putfield(scope, v.variable, fieldDesc(v.variable));
+    }
+    for (ParentScopeVar v : g.parentScopeVars) {
+      ctor.aload(0).aload(1).getfield(internalName(g.parentScope), v.name, fieldDesc(v.name))
+          .putfield(scope, v.name, fieldDesc(v.name));
+    }
+    for (SatisfactionVar s : g.satisfactionVars) {
+      String satisfiedBy = g.resolveSatisfier(s.satisfiedBy).scopeVar();
+      ctor.aload(0).aload(0).getfield(scope, satisfiedBy, fieldDesc(satisfiedBy))
+          .invokestatic(LAZIES, "upcast", methodDescriptor(Lazy.class, Lazy.class))
+          .putfield(scope, s.dependency.scopeVar(), LAZY_DESC);
+    }
+    ctor.aload(0).invokevirtual(scope, "constructed", "()V");
+    ctor.returnValue(void.class).end();
+
+    if (!g.methodInjectors.isEmpty()) {
+      Code clinit = cw.method(ACC_STATIC, "<clinit>", "()V");
+      for (int i = 0; i < g.methodInjectors.size(); i++) {
+        clinit.newObject(functionClasses.get(i)).dup()
+            .invokespecial(functionClasses.get(i), "<init>", "()V")
+            .putstatic(scope, g.methodInjectors.get(i).varName.toUpperCase(),
+                descriptor(Function.class));
+      }
+      clinit.returnValue(void.class).end();
+    }
+
+    emitBindingGraph(cw);
+    if (g.options.resettable) {
+      emitReset(cw, ctorParams);
+    }
+
+    // Accessors for the inner classes
+    cw.method(ACC_STATIC | ACC_SYNTHETIC, CHECK_OPEN, "(" + scopeDesc + ")V")
+        .aload(0).invokevirtual(scope, "checkOpen", "()V")
+        .returnValue(void.class).end();
+    cw.method(ACC_STATIC | ACC_SYNTHETIC, ADD_OBJECT_TO_CLOSE,
+        "(" + scopeDesc + descriptor(AutoCloseable.class) + descriptor(String.class) + ")V")
+        .aload(0).aload(1).aload(2)
+        .invokevirtual(scope, "addObjectToClose",
+            methodDescriptor(void.class, AutoCloseable.class, String.class))
+        .returnValue(void.class).end();
+
+    classes.put(binaryName(scope), cw.toByteArray());
+    return classes;
+  }
+
+  private void emitBindingGraph(ClassFileWriter cw) {
+    String builder = internalName(BindingGraph.Builder.class);
+    String builderDesc = descriptor(BindingGraph.Builder.class);
+    Code code = cw.method(ACC_PUBLIC, "bindingGraph", methodDescriptor(BindingGraph.class));
+    code.invokestatic(internalName(BindingGraph.class), "builder", "()" + builderDesc);
+    for (String name : g.bindingNames()) {
+      code.ldc(name).aload(0).getfield(scope, name, fieldDesc(name))
+          .invokevirtual(builder, "binding",
+              methodDescriptor(BindingGraph.Builder.class, String.class, Lazy.class));
+    }
+    String pairDesc = methodDescriptor(BindingGraph.Builder.class, String.class, String.class);
+    for (BindingEdge e : g.bindingEdges()) {
+      code.ldc(e.from).ldc(e.on).invokevirtual(builder, "dependency", pairDesc);
+    }
+    for (SatisfactionVar s : g.satisfactionVars) {
+      code.ldc(s.dependency.scopeVar()).ldc(s.satisfiedBy.scopeVar())
+          .invokevirtual(builder, "alias", pairDesc);
+    }
+    code.invokevirtual(builder, "build", methodDescriptor(BindingGraph.class))
+        .returnValue(BindingGraph.class).end();
+  }
+
+  private void emitReset(ClassFileWriter cw, List<Class<?>> ctorParams) {
+    Code reset = cw.method(ACC_PROTECTED, "resetBindings", "()V");
+    for (ScopeVar v : g.scopeVars) {
+      reset.aload(0).getfield(scope, v.cacheVar, fieldDesc(v.cacheVar))
+          .checkcast(internalName(Resettable.class))
+          .invokeinterface(internalName(Resettable.class), "reset", "()V");
+    }
+    for (CurriedHolder h : g.curriedHolders()) {
+      reset.aload(0).getfield(scope, h.var, RACY_LAZY_DESC)
+          .invokevirtual(RACY_LAZY, "reset", "()V");
+    }
+    reset.returnValue(void.class).end();
+
+    // The factory is the last anonymous class in the java source
+    Class<?>[] params = ctorParams.toArray(new Class<?>[0]);
+    String factory = emitPoolFactory(params);
+    String ctorDesc = methodDescriptor(void.class, params);
+    String poolClass = internalName(ScopePool.class);
+
+    List<Class<?>> poolParams = new ArrayList<>(ctorParams);
+    poolParams.add(int.class);
+    Code pool = cw.method(ACC_PUBLIC | ACC_STATIC, "pool",
+        methodDescriptor(ScopePool.class, poolParams.toArray(new Class<?>[0])));
+    pool.newObject(poolClass).dup().newObject(factory).dup();
+    for (int i = 0; i < params.length; i++) {
+      pool.aload(i);
+    }
+    pool.invokespecial(factory, "<init>", ctorDesc)
+        .load(int.class, params.length)
+        .invokespecial(poolClass, "<init>", methodDescriptor(void.class, Factory0.class, int.class))
+        .returnValue(ScopePool.class).end();
+  }
+
+  /**
+   * Factory0 that constructs the scope from captured constructor args.
+   */
+  private String emitPoolFactory(Class<?>[] params) {
+    ClassFileWriter cw = innerClass(OBJECT, internalName(Factory0.class));
+    String name = cw.name();
+    Code init = cw.method(0, "<init>", methodDescriptor(void.class, params));
+    init.aload(0).invokespecial(OBJECT, "<init>", "()V");
+    for (int i = 0; i < params.length; i++) {
+      cw.field(ACC_FINAL | ACC_SYNTHETIC, "val$" + i, descriptor(params[i]), null);
+      init.aload(0).aload(i + 1).putfield(name, "val$" + i, descriptor(params[i]));
+    }
+    init.returnValue(void.class).end();
+
+    Code create = cw.method(ACC_PUBLIC, "create", GET_DESC);
+    create.newObject(scope).dup();
+    for (int i = 0; i < params.length; i++) {
+      create.aload(0).getfield(name, "val$" + i, descriptor(params[i]));
+    }
+    create.invokespecial(scope, "<init>", methodDescriptor(void.class, params))
+        .returnValue(Object.class).end();
+    return finish(cw);
+  }
+
+  private String emitBinding(ScopeVar v) {
+    if (v.async) {
+      throw new BytecodeUnsupportedException("Asynchronous binding " + v.providesDep
+          + " needs callbacks, which the bytecode backend can't emit");
+    }
+    String lazyClass = internalName(g.options.lazyImpl.lazyClass);
+    ClassFileWriter cw = innerClass(lazyClass);
+    String name = cw.name();
+    cw.field(ACC_FINAL | ACC_SYNTHETIC, OUTER, scopeDesc, null);
+
+    cw.method(0, "<init>", "(" + scopeDesc + ")V")
+        .aload(0).ldc(v.providesDep.toString())
+        .invokespecial(lazyClass, "<init>", methodDescriptor(void.class, String.class))
+        .aload(0).aload(1).putfield(name, OUTER, scopeDesc)
+        .returnValue(void.class).end();
+
+    // The creation event stays at the bottom of the stack throughout. There
+    // is no failure event, as that would need an exception handler, and so
+    // stack map frames, which ClassFileWriter doesn't compute.
+    Code create = cw.method(ACC_PROTECTED, "create", GET_DESC);
+    create.invokestatic(EVENTS, "beginBinding", "()" + BINDING_EVENT_DESC);
+    loadScope(create, name).invokestatic(scope, CHECK_OPEN, "(" + scopeDesc + ")V");
+    call(create, name, v);
+    if (AutoCloseable.class.isAssignableFrom(asClass(v.providesDep.outerType().type))) {
+      create.dup();
+      loadScope(create, name).swap().ldc(v.cacheVar)
+          .invokestatic(scope, ADD_OBJECT_TO_CLOSE,
+              "(" + scopeDesc + descriptor(AutoCloseable.class) + descriptor(String.class) + ")V");
+    }
+    create.swap();
+    loadScope(create, name).ldc(v.providesDep.toString())
+        .invokestatic(EVENTS, "created", "(" + BINDING_EVENT_DESC
+            + descriptor(Scope.class) + descriptor(String.class) + ")V");
+    create.returnValue(Object.class).end();
+
+    return finish(cw);
+  }
+
+  private void call(Code code, String owner, ScopeVar v) {
+    ProviderCallable pc = v.providerMethod;
+    Class<?>[] params = pc.member instanceof Constructor
+        ? ((Constructor<?>) pc.member).getParameterTypes()
+        : ((Method) pc.member).getParameterTypes();
+
+    // Forced args go into locals first, in the global binding order
+    int[] slots = new int[params.length];
+    int slot = 1;
+    for (int i : g.forcedArgOrder(v)) {
+      loadDependency(code, owner, v.requiresDeps.get(i), params[i]);
+      code.astore(slot);
+      slots[i] = slot++;
+    }
+
+    if (pc.member instanceof Constructor) {
+      String type = internalName(((Constructor<?>) pc.member).getDeclaringClass());
+      code.newObject(type).dup();
+      loadArgs(code, owner, v.requiresDeps, params, slots);
+      code.invokespecial(type, "<init>", methodDescriptor(void.class, params));
+      return;
+    }
+
+    Method m = (Method) pc.member;
+    checkSupported(m.getReturnType());
+    String type = internalName(m.getDeclaringClass());
+    String desc = methodDescriptor(m.getReturnType(), params);
+    if (Modifier.isStatic(m.getModifiers())) {
+      loadArgs(code, owner, v.requiresDeps, params, slots);
+      code.invokestatic(type, m.getName(), desc);
+      return;
+    }
+
+    loadBinding(code, owner, pc.provider.name);
+    code.checkcast(type);
+    loadArgs(code, owner, v.requiresDeps, params, slots);
+    invoke(code, m.getDeclaringClass(), m.getName(), desc);
+  }
+
+  private String emitFactory(CurriedCtorFactory f) {
+    Method implemented = f.implementedRawMethod;
+    ClassFileWriter cw = innerClass(OBJECT, internalName(implemented.getDeclaringClass()));
+    String name = cw.name();
+    emitInnerConstructor(cw);
+
+    Code create = cw.method(ACC_PUBLIC, implemented.getName(),
+        methodDescriptor(implemented.getReturnType(), implemented.getParameterTypes()));
+    Constructor<?> c = f.constructor;
+    String type = internalName(c.getDeclaringClass());
+    int holderSlot = loadHolder(create, name, f.curried, implemented.getParameterTypes());
+    create.newObject(type).dup();
+    loadCurriedArgs(create, f.curried, holderSlot, 0, f.args.curriedDeps, c.getParameterTypes(),
+        implemented.getParameterTypes());
+    create.invokespecial(type, "<init>", methodDescriptor(void.class, c.getParameterTypes()))
+        .returnValue(implemented.getReturnType()).end();
+
+    return finish(cw);
+  }
+
+  private String emitInjector(MethodInjector mi) {
+    Method implemented = mi.implementedRawMethod;
+    Method inner = mi.innerRawMethod;
+    ClassFileWriter cw = innerClass(OBJECT, internalName(asClass(mi.iface)));
+    String name = cw.name();
+    emitInnerConstructor(cw);
+
+    Code code = cw.method(ACC_PUBLIC, implemented.getName(),
+        methodDescriptor(implemented.getReturnType(), implemented.getParameterTypes()));
+    Class<?> receiver = asClass(mi.receiver.outerType().type);
+    int holderSlot = loadHolder(code, name, mi.curried, implemented.getParameterTypes());
+    if (!mi.isStatic) {
+      code.aload(holderSlot).getfield(holderName(mi.curried), "dep0", descriptor(receiver));
+    }
+    loadCurriedArgs(code, mi.curried, holderSlot, mi.isStatic ? 0 : 1, mi.args.curriedDeps,
+        inner.getParameterTypes(), implemented.getParameterTypes());
+    String desc = methodDescriptor(inner.getReturnType(), inner.getParameterTypes());
+    if (mi.isStatic) {
+      code.invokestatic(internalName(inner.getDeclaringClass()), inner.getName(), desc);
+    } else {
+      invoke(code, receiver, inner.getName(), desc);
+    }
+
+    if (mi.returnType.getType() == Unit.class) {
+      if (inner.getReturnType() != void.class) {
+        checkSupported(inner.getReturnType());
+        code.pop();
+      }
+      code.getstatic(internalName(Unit.class), "UNIT", descriptor(Unit.class));
+    } else if (inner.getReturnType().isPrimitive() != implemented.getReturnType().isPrimitive()) {
+      throw new BytecodeUnsupportedException("Bytecode backend does not box or unbox "
+          + "return values: " + inner);
+    }
+    code.returnValue(implemented.getReturnType()).end();
+
+    return finish(cw);
+  }
+
+  private String emitInjectorFunction(MethodInjector mi) {
+    ClassFileWriter cw = innerClass(OBJECT, internalName(Function.class));
+    cw.method(0, "<init>", "()V")
+        .aload(0).invokespecial(OBJECT, "<init>", "()V")
+        .returnValue(void.class).end();
+    cw.method(ACC_PUBLIC, "apply", methodDescriptor(Object.class, Object.class))
+        .aload(1).checkcast(scope)
+        .getfield(scope, mi.varName, descriptor(asClass(mi.iface)))
+        .returnValue(Object.class).end();
+    return finish(cw);
+  }
+
+  private void emitInnerConstructor(ClassFileWriter cw) {
+    cw.field(ACC_FINAL | ACC_SYNTHETIC, OUTER, scopeDesc, null);
+    cw.method(0, "<init>", "(" + scopeDesc + ")V")
+        .aload(0).invokespecial(OBJECT, "<init>", "()V")
+        .aload(0).aload(1).putfield(cw.name(), OUTER, scopeDesc)
+        .returnValue(void.class).end();
+  }
+
+  /**
+   * Loads arguments for a provider call, all of which come from the scope,
+   * or from the given local slots where non-zero.
+   */
+  private void loadArgs(Code code, String owner, List<Dependency> deps, Class<?>[] params,
+      int[] slots) {
+    assert deps.size() == params.length;
+    for (int i = 0; i < params.length; i++) {
+      if (slots[i] != 0) {
+        code.aload(slots[i]);
+      } else {
+        loadDependency(code, owner, deps.get(i), params[i]);
+      }
+    }
+  }
+
+  /**
+   * Emits the holder of a factory or method injector's curried dependencies,
+   * which resolves them in its constructor, and the RacyLazy that creates it.
+   *
+   * @param types of the holder's fields
+   * @return the RacyLazy class
+   */
+  private String emitCurried(CurriedHolder h, List<Class<?>> types) {
+    String holder = holderName(h);
+    ClassFileWriter hw = new ClassFileWriter(ACC_FINAL, holder, OBJECT);
+    hw.field(ACC_FINAL | ACC_SYNTHETIC, OUTER, scopeDesc, null);
+    Code init = hw.method(0, "<init>", "(" + scopeDesc + ")V")
+        .aload(0).invokespecial(OBJECT, "<init>", "()V")
+        .aload(0).aload(1).putfield(holder, OUTER, scopeDesc);
+    for (int i = 0; i < h.deps.size(); i++) {
+      hw.field(ACC_FINAL, "dep" + i, descriptor(types.get(i)), null);
+      init.aload(0);
+      loadDependency(init, holder, h.deps.get(i), types.get(i));
+      init.putfield(holder, "dep" + i, descriptor(types.get(i)));
+    }
+    init.returnValue(void.class).end();
+    finish(hw);
+
+    ClassFileWriter cw = innerClass(RACY_LAZY);
+    String name = cw.name();
+    cw.field(ACC_FINAL | ACC_SYNTHETIC, OUTER, scopeDesc, null);
+    cw.method(0, "<init>", "(" + scopeDesc + ")V")
+        .aload(0).invokespecial(RACY_LAZY, "<init>", "()V")
+        .aload(0).aload(1).putfield(name, OUTER, scopeDesc)
+        .returnValue(void.class).end();
+    Code create = cw.method(ACC_PROTECTED, "create", GET_DESC);
+    create.newObject(holder).dup();
+    loadScope(create, name).invokespecial(holder, "<init>", "(" + scopeDesc + ")V")
+        .returnValue(Object.class).end();
+    return finish(cw);
+  }
+
+  /** The receiver, if any, then the params of the non-null deps. */
+  private static List<Class<?>> curriedTypes(@Nullable Class<?> receiver,
+      List<Dependency> deps, Class<?>[] params) {
+    List<Class<?>> types = new ArrayList<>();
+    if (receiver != null) {
+      types.add(receiver);
+    }
+    for (int i = 0; i < params.length; i++) {
+      if (deps.get(i) != null) {
+        types.add(params[i]);
+      }
+    }
+    return types;
+  }
+
+  private String holderName(CurriedHolder h) {
+    return scope + "$" + h.className;
+  }
+
+  private void curriedField(ClassFileWriter cw, @Nullable CurriedHolder h) {
+    if (h != null) {
+      cw.field(ACC_FINAL, h.var, RACY_LAZY_DESC,
+          "L" + RACY_LAZY + "<" + objectDescriptor(holderName(h)) + ">;");
+    }
+  }
+
+  private void initCurried(Code ctor, @Nullable CurriedHolder h) {
+    if (h != null) {
+      ctor.aload(0);
+      newInner(ctor, curriedClasses.get(h));
+      ctor.putfield(scope, h.var, RACY_LAZY_DESC);
+    }
+  }
+
+  /**
+   * Gets the holder into the first local after the implemented method's
+   * arguments.
+   *
+   * @return the local's slot
+   */
+  private int loadHolder(Code code, String owner, @Nullable CurriedHolder h,
+      Class<?>[] implementedParams) {
+    int slot = 1;
+    for (Class<?> p : implementedParams) {
+      slot += (p == long.class || p == double.class) ? 2 : 1;
+    }
+    if (h != null) {
+      loadScope(code, owner).getfield(scope, h.var, RACY_LAZY_DESC)
+          .invokevirtual(RACY_LAZY, "get", GET_DESC)
+          .checkcast(holderName(h))
+          .astore(slot);
+    }
+    return slot;
+  }
+
+  /**
+   * Loads arguments for a curried call. Null deps are passed through from the
+   * implemented method's arguments, in order, and the rest are read from the
+   * holder's fields, starting at the given one.
+   */
+  private void loadCurriedArgs(Code code, @Nullable CurriedHolder h, int holderSlot, int field,
+      List<Dependency> deps, Class<?>[] params, Class<?>[] implementedParams) {
+    assert deps.size() == params.length;
+    int arg = 0;
+    int slot = 1;
+    for (int i = 0; i < params.length; i++) {
+      Dependency d = deps.get(i);
+      if (d != null) {
+        assert h != null && h.deps.get(field) == d;
+        code.aload(holderSlot).getfield(holderName(h), "dep" + (field++), descriptor(params[i]));
+        continue;
+      }
+
+      Class<?> argType = implementedParams[arg++];
+      code.load(argType, slot);
+      slot += (argType == long.class || argType == double.class) ? 2 : 1;
+      if (argType.isPrimitive() || params[i].isPrimitive()) {
+        if (argType != params[i]) {
+          throw new BytecodeUnsupportedException("Bytecode backend does not box or unbox "
+              + "arguments: " + argType + " -> " + params[i]);
+        }
+      } else if (!params[i].isAssignableFrom(argType)) {
+        code.checkcast(internalName(params[i]));
+      }
+    }
+  }
+
+  /** Same as {@link Dependency#instantiationExpr(String)}. */
+  private void loadDependency(Code code, String owner, Dependency dep, Class<?> param) {
+    if (dep instanceof LazyDependency) {
+      String var = ((LazyDependency) dep).provided.scopeVar();
+      loadScope(code, owner).getfield(scope, var, fieldDesc(var));
+      return;
+    }
+    if (dep instanceof AsyncLazyDependency) {
+      String var = ((AsyncLazyDependency) dep).provided.scopeVar();
+      loadScope(code, owner).getfield(scope, var, fieldDesc(var))
+          .invokestatic(LAZIES, "async", methodDescriptor(AsyncLazy.class, Lazy.class));
+      return;
+    }
+
+    checkSupported(param);
+    loadBinding(code, owner, g.resolveSatisfier(dep.getDirectDep()).scopeVar());
+    if (param != Object.class) {
+      code.checkcast(internalName(param));
+    }
+  }
+
+  private Code loadScope(Code code, String owner) {
+    return code.aload(0).getfield(owner, OUTER, scopeDesc);
+  }
+
+  private static void invoke(Code code, Class<?> owner, String name, String desc) {
+    if (owner.isInterface()) {
+      code.invokeinterface(internalName(owner), name, desc);
+    } else {
+      code.invokevirtual(internalName(owner), name, desc);
+    }
+  }
+
+  private void newInner(Code code, String innerClass) {
+    code.newObject(innerClass).dup().aload(0)
+        .invokespecial(innerClass, "<init>", "(" + scopeDesc + ")V");
+  }
+
+  private ClassFileWriter innerClass(String superName, String... interfaces) {
+    return new ClassFileWriter(ACC_FINAL, scope + "$" + (nextInnerClass++),
+        superName, interfaces);
+  }
+
+  private String finish(ClassFileWriter cw) {
+    classes.put(binaryName(cw.name()), cw.toByteArray());
+    return cw.name();
+  }
+
+  private static String binaryName(String internalName) {
+    return internalName.replace('/', '.');
+  }
+
+  /**
+   * Gets a binding's object, through its field's declared class, so only the
+   * satisfier aliases are read with an interface call.
+   */
+  private void loadBinding(Code code, String owner, String var) {
+    Class<?> c = g.fieldClass(var);
+    loadScope(code, owner).getfield(scope, var, descriptor(c));
+    if (c.isInterface()) {
+      code.invokeinterface(internalName(c), "get", GET_DESC);
+    } else {
+      code.invokevirtual(internalName(c), "get", GET_DESC);
+    }
+  }
+
+  private String fieldDesc(String var) {
+    return descriptor(g.fieldClass(var));
+  }
+
+  private void bindingField(ClassFileWriter cw, int access, String var, Dependency dep) {
+    Type type = dep.outerType().type;
+    checkSupported(asClass(type));
+    cw.field(access, var, fieldDesc(var),
+        "L" + internalName(g.fieldClass(var)) + "<" + signature(type) + ">;");
+  }
+
+  private static String genericSignature(Type type) {
+    return type instanceof Class ? null : signature(type);
+  }
+
+  private static Class<?> referenceClass(Type type) {
+    Class<?> c = asClass(type);
+    checkSupported(c);
+    return c;
+  }
+
+  /**
+   * Primitive bindings need the primitive Lazies and their unboxed getters,
+   * which only the java source backend emits.
+   */
+  private static void checkSupported(Class<?> c) {
+    if (c.isPrimitive() && c != void.class) {
+      throw new BytecodeUnsupportedException("Primitive binding " + c);
+    }
+  }
+}
@@ -0,0 +1,17 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject.gen;
+
+/**
+ * Thrown when a scope uses something the bytecode backend of
+ * {@link ScopeBuilder#generateClass} can't emit, which the java source
+ * backend can.
+ *
+ * @author dan
+ */
+@SuppressWarnings("serial")
+public class BytecodeUnsupportedException extends UnsupportedOperationException {
+  public BytecodeUnsupportedException(String message) {
+    super(message);
+  }
+}
@@ -5,6 +5,7 @@ package au.com.helixta.inject.gen;
 import static au.com.helixta.gen.GenUtil.asClass;
 import static au.com.helixta.gen.GenUtil.getSimpleName;
 
+import au.com.helixta.common.base.AsyncLazy;
 import au.com.helixta.common.base.Lazy;
 import au.com.helixta.common.base.ObjUtil;
 import au.com.helixta.common.base.StringUtil;
@@ -15,6 +16,7 @@ import com.google.common.base.Preconditions;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.lang.model.SourceVersion;
 
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
@@ -40,6 +42,11 @@ public abstract class Dependency implements Comparator<Dependency> {
 
         return new LazyDependency(new DirectDependency(typeArgs[0], type.qualifiers));
       }
+      if (c == AsyncLazy.class) {
+        assert typeArgs.length == 1;
+
+        return new AsyncLazyDependency(new DirectDependency(typeArgs[0], type.qualifiers));
+      }
     }
 
     if (isAutoFactory) {
@@ -63,6 +70,9 @@ public abstract class Dependency implements Comparator<Dependency> {
       if (!annotations.isEmpty()) {
         // 0 kinda looks like @
         id += "_0" + StringUtil.joinIterable("_0", annotations.getIdentifiers());
+      } else if (SourceVersion.isKeyword(id)) {
+        // Unqualified primitives
+        id += "_";
       }
       return id;
     }
@@ -79,7 +89,9 @@ public abstract class Dependency implements Comparator<Dependency> {
     }
 
     @Override public String instantiationExpr(String scopeVar) {
-      return scopeVar + "." + scopeVar() + ".get()";
+      PrimitiveBinding primitive = PrimitiveBinding.of(outerType().type);
+      return scopeVar + "." + scopeVar() + "."
+          + (primitive != null ? primitive.getter : "get") + "()";
     }
 
     @Override
@@ -137,6 +149,35 @@ public abstract class Dependency implements Comparator<Dependency> {
     }
   }
 
+  /**
+   * An {@code AsyncLazy<T>}. Like a Lazy dependency, it doesn't force the
+   * binding. Bindings that aren't asynchronous are adapted with
+   * {@link au.com.helixta.common.base.Lazies#async(Lazy)}.
+   */
+  public static class AsyncLazyDependency extends Dependency {
+    public static String descriptor(DirectDependency provided) {
+      return "AsyncLazy<" + provided.descriptor() + ">";
+    }
+
+    public final DirectDependency provided;
+    public AsyncLazyDependency(DirectDependency providedDep) {
+      super(new QualifiedType(
+          new ParameterizedTypeImpl(AsyncLazy.class, providedDep.outerType().type),
+              providedDep.outerType().qualifiers),
+          descriptor(providedDep));
+      provided = providedDep;
+    }
+
+    @Override public String instantiationExpr(String scopeVar) {
+      return "Lazies.async(" + scopeVar + "." + provided.scopeVar() + ")";
+    }
+
+    @Override
+    public DirectDependency getDirectDep() {
+      return provided;
+    }
+  }
+
   @Nonnull private final QualifiedType outerType;
   private final String descriptor;
 
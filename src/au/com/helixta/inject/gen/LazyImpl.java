@@ -0,0 +1,55 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject.gen;
+
+import au.com.helixta.common.base.AtomicLazy;
+import au.com.helixta.common.base.ConfinedLazy;
+import au.com.helixta.common.base.LockingLazy;
+import au.com.helixta.common.base.ThreadsafeLazy;
+import au.com.helixta.inject.ConfinedScope;
+import au.com.helixta.inject.Scope;
+
+/**
+ * The Lazy implementation a generated scope uses for its bindings.
+ *
+ * <p>
+ * Each implementation class must have a {@code (String name)} constructor and
+ * an overridable {@code create()} method with the same contract as
+ * {@link ThreadsafeLazy#create()}.
+ *
+ * @see ScopeBuilder#lazies(LazyImpl)
+ * @author dan
+ */
+public enum LazyImpl {
+  /** {@link ThreadsafeLazy}: double-checked locking on a monitor. The default. */
+  MONITOR(ThreadsafeLazy.class, Scope.class),
+
+  /**
+   * {@link AtomicLazy}: lock-free CAS publication. Preferable when many threads
+   * hit cold bindings at once.
+   */
+  ATOMIC(AtomicLazy.class, Scope.class),
+
+  /**
+   * {@link LockingLazy}: double-checked locking on a {@code ReentrantLock}, so
+   * virtual threads creating or waiting on bindings don't pin their carrier
+   * threads.
+   */
+  LOCKING(LockingLazy.class, Scope.class),
+
+  /**
+   * {@link ConfinedLazy}: no synchronization. The scope extends
+   * {@link ConfinedScope} and must only be used by the thread that constructs
+   * it.
+   */
+  CONFINED(ConfinedLazy.class, ConfinedScope.class);
+
+  final Class<?> lazyClass;
+  /** Base class of the generated scope */
+  final Class<? extends Scope> scopeClass;
+
+  private LazyImpl(Class<?> lazyClass, Class<? extends Scope> scopeClass) {
+    this.lazyClass = lazyClass;
+    this.scopeClass = scopeClass;
+  }
+}
@@ -0,0 +1,75 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject.gen;
+
+import au.com.helixta.common.base.Lazy;
+import au.com.helixta.common.base.LazyBoolean;
+import au.com.helixta.common.base.LazyDouble;
+import au.com.helixta.common.base.LazyInt;
+import au.com.helixta.common.base.LazyLong;
+import au.com.helixta.common.base.ThreadsafeLazyBoolean;
+import au.com.helixta.common.base.ThreadsafeLazyDouble;
+import au.com.helixta.common.base.ThreadsafeLazyInt;
+import au.com.helixta.common.base.ThreadsafeLazyLong;
+
+import javax.annotation.Nullable;
+
+import java.lang.reflect.Type;
+
+/**
+ * The specialized Lazy types used for bindings of primitive types, whose
+ * values are passed to consumers without boxing.
+ *
+ * <p>
+ * There are only monitor-based threadsafe implementations. With the other
+ * {@link LazyImpl}s, and with inlined bindings, a primitive binding is held
+ * boxed by the scope's usual implementation instead, behind an unboxing view
+ * such as {@link au.com.helixta.common.base.Lazies#unboxedInt}. Consumers
+ * still read it through the unboxed getter, but each read unboxes.
+ *
+ * @author dan
+ */
+enum PrimitiveBinding {
+  INT(int.class, Integer.class, LazyInt.class, ThreadsafeLazyInt.class, "getInt", "Int"),
+  LONG(long.class, Long.class, LazyLong.class, ThreadsafeLazyLong.class, "getLong", "Long"),
+  DOUBLE(double.class, Double.class, LazyDouble.class, ThreadsafeLazyDouble.class, "getDouble",
+      "Double"),
+  BOOLEAN(boolean.class, Boolean.class, LazyBoolean.class, ThreadsafeLazyBoolean.class,
+      "getBoolean", "Boolean");
+
+  final Class<?> type;
+  final Class<?> boxed;
+  /** Type of the binding's field */
+  final Class<? extends Lazy<?>> lazyClass;
+  /** Implementation for provided bindings */
+  final Class<?> threadsafeClass;
+  /** Unboxed getter of the lazy class */
+  final String getter;
+  /** {@link au.com.helixta.common.base.Lazies} method for seed values */
+  final String eager;
+  /** {@link au.com.helixta.common.base.Lazies} method for boxed bindings */
+  final String unboxed;
+
+  private PrimitiveBinding(Class<?> type, Class<?> boxed, Class<? extends Lazy<?>> lazyClass,
+      Class<?> threadsafeClass, String getter, String suffix) {
+    this.type = type;
+    this.boxed = boxed;
+    this.lazyClass = lazyClass;
+    this.threadsafeClass = threadsafeClass;
+    this.getter = getter;
+    this.eager = "eager" + suffix;
+    this.unboxed = "unboxed" + suffix;
+  }
+
+  /**
+   * @return null if the type isn't a specialized primitive
+   */
+  @Nullable static PrimitiveBinding of(Type type) {
+    for (PrimitiveBinding p : values()) {
+      if (p.type == type) {
+        return p;
+      }
+    }
+    return null;
+  }
+}
@@ -4,7 +4,13 @@ package au.com.helixta.inject.gen;
 
 import au.com.helixta.gen.ClassGenerator;
 import au.com.helixta.gen.ClassGenerator.ClassBuilder;
+import au.com.helixta.gen.GeneratedClassLoader;
 import au.com.helixta.inject.Provides;
+import au.com.helixta.inject.Scope;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nullable;
 
 import java.io.IOException;
 import java.lang.annotation.Annotation;
@@ -12,6 +18,7 @@ import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Scope generation configurator with a fluent-style interface.
@@ -20,7 +27,7 @@ import java.util.List;
  */
 public final class ScopeBuilder {
 
-  private final Package pkg;
+  private final String pkg;
   private final String scopeName;
   private final List<Class<?>> providerClasses = new ArrayList<>();
   private final List<QualifiedType> directValues = new ArrayList<>();
@@ -28,8 +35,10 @@ public final class ScopeBuilder {
   private final List<Satisfier> satisfiers = new ArrayList<>();
   private final List<QualifiedType> factories = new ArrayList<>();
   private final List<QualifiedType> injectedMethodClasses = new ArrayList<>();
+  @Nullable private Class<? extends Scope> parent;
+  private final ScopeOptions options = new ScopeOptions();
 
-  private ScopeBuilder(Package pkg, String scopeName) {
+  private ScopeBuilder(String pkg, String scopeName) {
     this.pkg = pkg;
     this.scopeName = scopeName;
   }
@@ -41,6 +50,14 @@ public final class ScopeBuilder {
    * @param scopeName class name
    */
   public static ScopeBuilder create(Package pkg, String scopeName) {
+    return new ScopeBuilder(pkg.getName(), scopeName);
+  }
+
+  /**
+   * Same as {@link #create(Package, String)}, for packages that may not have
+   * been loaded.
+   */
+  public static ScopeBuilder create(String pkg, String scopeName) {
     return new ScopeBuilder(pkg, scopeName);
   }
 
@@ -207,6 +224,29 @@ public final class ScopeBuilder {
     return this;
   }
 
+  /**
+   * Same as {@link #factory(Type, Class...)}, but the generated factory
+   * returns the same instance when called again with equal arguments. At most
+   * {@code maximumSize} instances are kept, evicting the least recently used.
+   * See {@link au.com.helixta.inject.FactoryCache} for how instances are
+   * closed.
+   *
+   * <p>
+   * With one argument, the argument itself is the key, so it must not be
+   * null. With several, the key is a list of them.
+   * {@link #generateClass} can only compile such a scope from source.
+   */
+  @SafeVarargs
+  public final ScopeBuilder memoizingFactory(Type type, long maximumSize,
+      Class<? extends Annotation>... annotations) {
+    Preconditions.checkArgument(maximumSize > 0, "Non-positive maximum size %s", maximumSize);
+    QualifiedType t = new QualifiedType(type, annotations);
+    Preconditions.checkState(options.maximumSize(t) == 0, "%s is already memoizing", t);
+    factories.add(t);
+    options.memoizedFactories.add(new ScopeOptions.MemoizedFactory(t, maximumSize));
+    return this;
+  }
+
 
   /**
    * Generate method injectors for annotated methods in the given qualified
@@ -250,10 +290,179 @@ public final class ScopeBuilder {
     return this;
   }
 
+  /**
+   * Makes the scope a child of the given (generated) scope class. Any
+   * dependency that the child doesn't provide itself, and that the parent has
+   * a public binding for, is shared with the parent: the child takes a parent
+   * instance as its first constructor argument and refers to the parent's Lazy
+   * directly, rather than receiving and wrapping the value on every
+   * construction.
+   */
+  public ScopeBuilder parent(Class<? extends Scope> parentScope) {
+    Preconditions.checkState(parent == null, "Parent already set");
+    this.parent = Preconditions.checkNotNull(parentScope);
+    return this;
+  }
+
+  /**
+   * Selects the Lazy implementation used for the scope's bindings. Defaults to
+   * {@link LazyImpl#MONITOR}. {@link LazyImpl#CONFINED} also makes the scope
+   * itself thread-confined. Bindings of int, long, double and boolean are
+   * only held unboxed with {@link LazyImpl#MONITOR}; the others box them.
+   */
+  public ScopeBuilder lazies(LazyImpl impl) {
+    options.lazyImpl = Preconditions.checkNotNull(impl);
+    return this;
+  }
+
+  /**
+   * Emits each binding as a plain field on the scope with a
+   * {@code get_<binding>()} method, instead of a Lazy subclass per binding.
+   * The scope's Lazy fields remain, as instances of one shared view class.
+   * Saves loading a class per binding, and some heap per scope instance.
+   *
+   * <p>
+   * Creation of bindings is serialized on the scope's monitor (on a
+   * {@code ReentrantLock} with {@link LazyImpl#LOCKING}, or not synchronized
+   * at all with {@link LazyImpl#CONFINED}), so this mode suits
+   * scopes that are created often rather than scopes whose bindings are
+   * expensive to create in parallel. It can't be combined with
+   * {@link LazyImpl#ATOMIC}. {@link #generateClass} can only compile such a
+   * scope from source.
+   */
+  public ScopeBuilder inlineBindings() {
+    options.inlineBindings = true;
+    return this;
+  }
+
+  /**
+   * Generates support for {@link Scope#reset()}, and a static
+   * {@code pool(<constructor args>, int maxIdle)} method returning a
+   * {@link au.com.helixta.inject.ScopePool} of the scope, for scopes that are
+   * created and closed at a high rate.
+   */
+  public ScopeBuilder resettable() {
+    options.resettable = true;
+    return this;
+  }
+
+  /**
+   * Generates support for {@link Scope#freeze()}, which returns an instance of
+   * a nested {@code Frozen} class, with a final field for each binding of the
+   * scope. The scope's Lazy fields are generated as usual, so only readers of
+   * the snapshot skip their checks. {@link #generateClass} can only compile
+   * such a scope from source.
+   */
+  public ScopeBuilder freezable() {
+    options.freezable = true;
+    return this;
+  }
+
+  /**
+   * Generates support for
+   * {@link Scope#instrument(au.com.helixta.inject.BindingInstrumentation)},
+   * reporting how long each binding takes to create, and how long threads
+   * wait on each other's creations. Scopes generated without this have no
+   * instrumentation code at all. {@link #generateClass} can only compile
+   * such a scope from source.
+   *
+   * @param countGets also report every get of every binding, which costs a
+   *          call per get
+   */
+  public ScopeBuilder instrumented(boolean countGets) {
+    options.instrumented = true;
+    options.countGets = countGets;
+    return this;
+  }
+
   /**
    * Generates the scope.
+   *
+   * <p>
+   * If the scope was already generated and compiled by the given generator
+   * from the same inputs (see {@link ScopeFingerprint}), generation and
+   * compilation are skipped and the existing class is used.
    */
   public ClassBuilder generate(ClassGenerator generator) throws IOException {
+    String fingerprint = ScopeFingerprint.of(
+        pkg,
+        scopeName,
+        directValues,
+        autoProvided,
+        satisfiers,
+        providerClasses,
+        factories,
+        injectedMethodClasses,
+        parent,
+        options);
+    ClassBuilder upToDate = generator.upToDate(pkg, scopeName, fingerprint);
+    if (upToDate != null) {
+      return upToDate;
+    }
+    return newGenerator().generate(generator, pkg).recordFingerprint(fingerprint);
+  }
+
+  /**
+   * Generates the scope directly as bytecode and defines it in the given
+   * loader, skipping java source and javac entirely, so it works on a JRE
+   * without a compiler.
+   *
+   * <p>
+   * The class has the same fields and constructor as the one generated by
+   * {@link #generate(ClassGenerator)}. The bytecode backend covers straight
+   * line bindings only: not {@link #inlineBindings()},
+   * {@link #instrumented(boolean)}, {@link #memoizingFactory},
+   * {@link #freezable()}, primitive or asynchronous bindings, or bindings
+   * that need boxing. Its bindings also don't report
+   * {@link au.com.helixta.inject.ScopeEvents#failed}, which would need an
+   * exception handler.
+   *
+   * @throws BytecodeUnsupportedException if the scope uses anything else
+   */
+  public Class<?> generateClass(GeneratedClassLoader loader) {
+    return generateClass(loader, false);
+  }
+
+  /**
+   * Same as {@link #generateClass(GeneratedClassLoader)}, but optionally
+   * generates a scope the bytecode backend doesn't support as java source
+   * instead, compiled in memory and defined in the same loader. That does
+   * need a JDK.
+   *
+   * @param compileUnsupported compile a scope the bytecode backend can't
+   *          emit, rather than throwing
+   */
+  public Class<?> generateClass(GeneratedClassLoader loader, boolean compileUnsupported) {
+    Map<String, byte[]> classFiles;
+    try {
+      classFiles = newGenerator().generateBytecode(pkg);
+    } catch (BytecodeUnsupportedException e) {
+      if (!compileUnsupported) {
+        throw e;
+      }
+      try {
+        return newGenerator().generate(ClassGenerator.definingIn(loader), pkg).builtClass();
+      } catch (IOException ex) {
+        // Nothing is written in memory mode
+        throw new AssertionError(ex);
+      }
+    }
+    try {
+      return loader.define(classFiles, pkg + "." + scopeName);
+    } catch (ClassNotFoundException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Generates the scope's java source without compiling or writing it
+   * anywhere, e.g. for an annotation processor to hand to its Filer.
+   */
+  public String generateSource() {
+    return newGenerator().generateSource(pkg);
+  }
+
+  private ScopeGenerator newGenerator() {
     return new ScopeGenerator(
       scopeName,
       directValues,
@@ -261,7 +470,9 @@ public final class ScopeBuilder {
       satisfiers,
       providerClasses,
       factories,
-      injectedMethodClasses
-      ).generate(generator, pkg);
+      injectedMethodClasses,
+      parent,
+      options
+      );
   }
 }
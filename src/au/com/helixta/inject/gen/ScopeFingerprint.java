@@ -0,0 +1,252 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject.gen;
+
+import static au.com.helixta.gen.GenUtil.asClass;
+import static au.com.helixta.gen.GenUtil.sortedMethods;
+
+import au.com.helixta.gen.GenUtil;
+import au.com.helixta.inject.AutoFactory;
+
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+import javax.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Hash of everything that scope generation depends on, so that generation can
+ * be skipped when nothing has changed.
+ *
+ * <p>
+ * Covers the builder's configuration and options, the reflected signatures
+ * (with annotations) of every constructor and method the generator looks at,
+ * the type hierarchy of provided types (e.g. whether they are AutoCloseable),
+ * and every class file in the generator's packages, nested classes included,
+ * so that generator changes also cause regeneration.
+ *
+ * @author dan
+ */
+class ScopeFingerprint {
+  /** Classes whose packages hold the code that affects the output. */
+  private static final Class<?>[] GENERATOR_PACKAGES = { ScopeGenerator.class, GenUtil.class };
+
+  /** Hashed once, as the loaded generator can't change. */
+  private static class GeneratorHash {
+    static final String HASH = generatorHash();
+  }
+
+  private final Hasher hasher = Hashing.sha256().newHasher();
+  private final Set<Class<?>> described = new HashSet<>();
+
+  static String of(
+      String pkg,
+      String scopeName,
+      List<QualifiedType> values,
+      List<Type> autoProvided,
+      List<Satisfier> satisfiers,
+      List<Class<?>> providerClasses,
+      List<QualifiedType> factories,
+      List<QualifiedType> injectedMethodClasses,
+      @Nullable Class<?> parent,
+      ScopeOptions options) {
+    ScopeFingerprint f = new ScopeFingerprint();
+    f.put("generator", GeneratorHash.HASH);
+
+    f.put("scope", pkg + "." + scopeName);
+    for (Field field : options.getClass().getDeclaredFields()) {
+      try {
+        f.put("option", field.getName() + "=" + field.get(options));
+      } catch (IllegalAccessException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    for (QualifiedType t : values) {
+      f.put("value", t.toString());
+    }
+    for (Type t : autoProvided) {
+      f.put("constructor", t.toString());
+      f.describe(asClass(t));
+    }
+    for (Satisfier s : satisfiers) {
+      f.put("satisfy", s.dependency + " with " + s.satisfiedBy);
+      f.describe(asClass(s.satisfiedBy.type));
+    }
+    for (Class<?> c : providerClasses) {
+      f.put("providers", c.getName());
+      f.describe(c);
+    }
+    for (QualifiedType t : factories) {
+      f.put("factory", t.toString());
+      f.describe(asClass(t.type));
+    }
+    for (QualifiedType t : injectedMethodClasses) {
+      f.put("injectMethods", t.toString());
+      f.describe(asClass(t.type));
+    }
+
+    if (parent != null) {
+      // The parent's public bindings decide what is shared with it
+      f.put("parent", parent.getName());
+      for (Field field : sortedFields(parent.getFields())) {
+        f.put("parentBinding", field.toGenericString());
+      }
+    }
+
+    return f.hasher.hash().toString();
+  }
+
+  private static Field[] sortedFields(Field[] fields) {
+    Arrays.sort(fields, new Comparator<Field>() {
+      @Override public int compare(Field f1, Field f2) {
+        return f1.getName().compareTo(f2.getName());
+      }
+    });
+    return fields;
+  }
+
+  private void put(String key, String value) {
+    hasher.putString(key + ":" + value + "\n", StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Adds the class's declared members and hierarchy, then recurses into the
+   * types they mention that the generator may inspect.
+   */
+  private void describe(Class<?> c) {
+    if (c.isPrimitive() || c.isArray() || !described.add(c)) {
+      return;
+    }
+    // JDK classes don't change between builds, their names are enough
+    if (c.getName().startsWith("java.")) {
+      return;
+    }
+
+    put("class", c.getName() + " " + c.getModifiers());
+    Class<?> superclass = c.getSuperclass();
+    if (superclass != null) {
+      put("extends", superclass.getName());
+      describe(superclass);
+    }
+    for (Class<?> i : c.getInterfaces()) {
+      put("implements", i.getName());
+      describe(i);
+    }
+
+    Constructor<?>[] ctors = c.getConstructors();
+    Arrays.sort(ctors, new Comparator<Constructor<?>>() {
+      @Override public int compare(Constructor<?> c1, Constructor<?> c2) {
+        return c1.toString().compareTo(c2.toString());
+      }
+    });
+    for (Constructor<?> ctor : ctors) {
+      put("ctor", ctor.toGenericString()
+          + Arrays.toString(ctor.getAnnotations())
+          + Arrays.deepToString(ctor.getParameterAnnotations()));
+      describeParams(ctor.getParameterTypes(), ctor.getParameterAnnotations());
+    }
+
+    for (Method m : sortedMethods(c.getDeclaredMethods())) {
+      put("method", m.toGenericString()
+          + Arrays.toString(m.getAnnotations())
+          + Arrays.deepToString(m.getParameterAnnotations()));
+      describe(m.getReturnType());
+      describeParams(m.getParameterTypes(), m.getParameterAnnotations());
+    }
+  }
+
+  /** Auto-factory params cause generation of factories for their types. */
+  private void describeParams(Class<?>[] types, Annotation[][] annotations) {
+    for (int i = 0; i < types.length; i++) {
+      for (Annotation a : annotations[i]) {
+        if (a.annotationType() == AutoFactory.class) {
+          describe(types[i]);
+        }
+      }
+    }
+  }
+
+  private static String generatorHash() {
+    Hasher hasher = Hashing.sha256().newHasher();
+    for (Class<?> c : GENERATOR_PACKAGES) {
+      for (Map.Entry<String, byte[]> e : packageClassFiles(c).entrySet()) {
+        hasher.putString(e.getKey(), StandardCharsets.UTF_8);
+        hasher.putBytes(e.getValue());
+      }
+    }
+    return hasher.hash().toString();
+  }
+
+  /**
+   * The class files in the package of the given class, by name. Only
+   * directories and jars can be listed; from anywhere else, just the class's
+   * name is used.
+   */
+  private static SortedMap<String, byte[]> packageClassFiles(Class<?> c) {
+    SortedMap<String, byte[]> files = Maps.newTreeMap();
+    URL url = c.getResource(c.getSimpleName() + ".class");
+    try {
+      if (url != null && url.getProtocol().equals("file")) {
+        Path dir = Paths.get(url.toURI()).getParent();
+        try (DirectoryStream<Path> classFiles = Files.newDirectoryStream(dir, "*.class")) {
+          for (Path file : classFiles) {
+            files.put(file.getFileName().toString(), Files.readAllBytes(file));
+          }
+        }
+      } else if (url != null && url.getProtocol().equals("jar")) {
+        JarURLConnection connection = (JarURLConnection) url.openConnection();
+        String entryName = connection.getEntryName();
+        String dir = entryName.substring(0, entryName.lastIndexOf('/') + 1);
+        try (JarFile jar = new JarFile(Paths.get(connection.getJarFileURL().toURI()).toFile())) {
+          Enumeration<JarEntry> entries = jar.entries();
+          while (entries.hasMoreElements()) {
+            JarEntry entry = entries.nextElement();
+            String name = entry.getName();
+            if (name.startsWith(dir) && name.endsWith(".class")
+                && name.indexOf('/', dir.length()) < 0) {
+              try (InputStream in = jar.getInputStream(entry)) {
+                files.put(name.substring(dir.length()), ByteStreams.toByteArray(in));
+              }
+            }
+          }
+        }
+      } else {
+        files.put(c.getName(), new byte[0]);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not read generator classes from " + url, e);
+    } catch (URISyntaxException e) {
+      throw new RuntimeException("Could not read generator classes from " + url, e);
+    }
+    return files;
+  }
+}
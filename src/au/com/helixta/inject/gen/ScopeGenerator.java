@@ -7,42 +7,68 @@ import static au.com.helixta.gen.GenUtil.getSimpleName;
 import static au.com.helixta.gen.GenUtil.sortedMethods;
 import static au.com.helixta.inject.gen.Dependency.firstToLower;
 
+import au.com.helixta.common.base.AsyncLazy;
+import au.com.helixta.common.base.FutureLazy;
 import au.com.helixta.common.base.Lazies;
+import au.com.helixta.common.base.Lazies.Eager;
 import au.com.helixta.common.base.Lazy;
+import au.com.helixta.common.base.RacyLazy;
+import au.com.helixta.common.base.Factories.Factory0;
+import au.com.helixta.common.base.Resettable;
 import au.com.helixta.common.base.Returner;
 import au.com.helixta.common.base.StringUtil;
-import au.com.helixta.common.base.ThreadsafeLazy;
 import au.com.helixta.common.base.Unit;
 import au.com.helixta.gen.ClassGenerator;
 import au.com.helixta.gen.ClassGenerator.ClassBuilder;
 import au.com.helixta.gen.ClassWriter;
+import au.com.helixta.inject.BindingGraph;
+import au.com.helixta.inject.BindingInstrumentation;
+import au.com.helixta.inject.FactoryCache;
 import au.com.helixta.inject.InjectMethod;
 import au.com.helixta.inject.Provides;
 import au.com.helixta.inject.Scope;
+import au.com.helixta.inject.ScopeEvents;
+import au.com.helixta.inject.ScopePool;
 import au.com.helixta.inject.gen.Dependency.AutoFactoryDependency;
 import au.com.helixta.inject.gen.Dependency.DirectDependency;
-import au.com.helixta.inject.gen.Dependency.LazyDependency;
 
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheLoader;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.reflect.Invokable;
 import com.google.common.reflect.Parameter;
 import com.google.common.reflect.TypeToken;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 
 import java.io.IOException;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.lang.reflect.TypeVariable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
 
 /**
  *
@@ -77,16 +103,23 @@ public class ScopeGenerator {
     final QualifiedType type;
     final String callPart;
     final List<QualifiedType> args;
-    /** Null for {@code this} */
+    /** The provider method or constructor */
+    final Member member;
+    /** Null for constructors */
+    @Nullable final ProviderVar provider;
     public ProviderCallable(
         boolean isConstructor,
         String callPart,
         QualifiedType type,
         Type[] argTypes,
-        Annotation[][] argAnnotations) {
+        Annotation[][] argAnnotations,
+        Member member,
+        @Nullable ProviderVar provider) {
       this.isConstructor = isConstructor;
       this.type = type;
       this.callPart = callPart;
+      this.member = member;
+      this.provider = provider;
 
       assert argTypes.length == argAnnotations.length;
       args = Lists.newArrayList();
@@ -111,12 +144,12 @@ public class ScopeGenerator {
 
   static class ParentScopeVar {
     final ProviderVar parent;
-    final Type type;
+    final DirectDependency providesDep;
     final String name;
-    public ParentScopeVar(ProviderVar parent, Type type, String name) {
+    public ParentScopeVar(ProviderVar parent, DirectDependency providesDep) {
       this.parent = parent;
-      this.type = type;
-      this.name = name;
+      this.providesDep = providesDep;
+      this.name = providesDep.scopeVar();
     }
   }
 
@@ -125,23 +158,40 @@ public class ScopeGenerator {
     final ProviderCallable providerMethod;
     final List<Dependency> requiresDeps;
     final String cacheVar;
+    /** The provider returns a CompletableFuture of the provided type. */
+    final boolean async;
 
     public ScopeVar(DirectDependency providesDep, ProviderCallable providerMethod,
-        List<Dependency> requiresDeps) {
+        List<Dependency> requiresDeps, boolean async) {
       this.providesDep = providesDep;
       this.providerMethod = providerMethod;
       this.requiresDeps = requiresDeps;
       this.cacheVar = providesDep.scopeVar();
+      this.async = async;
+    }
+  }
+
+  /** Creating binding {@code from} forces binding {@code on}. */
+  static class BindingEdge {
+    final String from;
+    final String on;
+    public BindingEdge(String from, String on) {
+      this.from = from;
+      this.on = on;
     }
   }
 
-  private final String scopeName;
+  final String scopeName;
   private final List<Class<?>> providerClasses;
   private final List<QualifiedType> directValues;
   private final List<Satisfier> satisfiers;
   private final List<Type> autoProvided;
   private final List<QualifiedType> factories;
   private final List<QualifiedType> injectedMethodClasses;
+  /** Parent scope class, if any, and the constructor arg for it. */
+  @Nullable final Class<? extends Scope> parentScope;
+  @Nullable final ProviderVar parentVar;
+  final ScopeOptions options;
   private ClassWriter w;
 
   public ScopeGenerator(
@@ -151,7 +201,9 @@ public class ScopeGenerator {
       List<Satisfier> satisfiers,
       List<Class<?>> providerClasses,
       List<QualifiedType> factories,
-      List<QualifiedType> injectedMethodClasses) {
+      List<QualifiedType> injectedMethodClasses,
+      @Nullable Class<? extends Scope> parentScope,
+      ScopeOptions options) {
     this.scopeName = Preconditions.checkNotNull(scopeName);
     this.directValues = new ArrayList<>(values);
     this.autoProvided = new ArrayList<>(autoProvided);
@@ -159,21 +211,40 @@ public class ScopeGenerator {
     this.providerClasses = new ArrayList<>(providerClasses);
     this.factories = new ArrayList<>(factories);
     this.injectedMethodClasses = new ArrayList<>(injectedMethodClasses);
+    this.parentScope = parentScope;
+    this.parentVar = parentScope == null ? null : new ProviderVar(parentScope);
+    this.options = Preconditions.checkNotNull(options);
   }
 
 
-  private final List<Value> values = new ArrayList<>();
-  private final List<ScopeVar> scopeVars = new ArrayList<>();
-  private final List<SatisfactionVar> satisfactionVars = new ArrayList<>();
-  private final List<CurriedCtorFactory> factoryVars = new ArrayList<>();
-  private final List<MethodInjector> methodInjectors = new ArrayList<>();
+  final List<Value> values = new ArrayList<>();
+  final List<ParentScopeVar> parentScopeVars = new ArrayList<>();
+  final List<ScopeVar> scopeVars = new ArrayList<>();
+  final List<SatisfactionVar> satisfactionVars = new ArrayList<>();
+  final List<CurriedCtorFactory> factoryVars = new ArrayList<>();
+  final List<MethodInjector> methodInjectors = new ArrayList<>();
   private final Set<DirectDependency> satisfiedDeps = new LinkedHashSet<>();
   private final Set<DirectDependency> requiredDeps = new LinkedHashSet<>();
 
+  /** Satisfier vars to the var they alias. */
+  private final Map<String, String> aliases = new HashMap<>();
+  /**
+   * Position of each binding in a global topological order, dependencies
+   * first.
+   */
+  private final Map<String, Integer> bindingOrder = new HashMap<>();
+
   /**
    * @return a builder for compiling the java file, for convenience.
    */
   public ClassBuilder generate(ClassGenerator generator, Package pkg) throws IOException {
+    return generate(generator, pkg.getName());
+  }
+
+  /**
+   * @return a builder for compiling the java file, for convenience.
+   */
+  public ClassBuilder generate(ClassGenerator generator, String pkg) throws IOException {
     Preconditions.checkState(w == null);
     w = generator.writerFor(pkg, scopeName);
 
@@ -183,12 +254,75 @@ public class ScopeGenerator {
     return w.closeWithBuilder();
   }
 
+  /**
+   * Generates the scope directly as bytecode, without going through java
+   * source. Does not need a compiler.
+   *
+   * @return class files by binary class name, the scope class itself first.
+   * @throws BytecodeUnsupportedException if the scope uses something only
+   *           the source backend supports
+   */
+  public Map<String, byte[]> generateBytecode(String pkg) {
+    Preconditions.checkState(w == null);
+    if (options.inlineBindings) {
+      throw new BytecodeUnsupportedException(
+          "Inlined bindings need branching code, which the bytecode backend can't emit");
+    }
+    if (options.instrumented) {
+      throw new BytecodeUnsupportedException(
+          "Instrumentation is only supported by the source backend");
+    }
+    if (!options.memoizedFactories.isEmpty()) {
+      throw new BytecodeUnsupportedException(
+          "Memoizing factories are only supported by the source backend");
+    }
+    if (options.freezable) {
+      throw new BytecodeUnsupportedException(
+          "Frozen snapshots are only supported by the source backend");
+    }
+    // Only used for collecting imports, which bytecode has no use for.
+    w = new ClassWriter(null, pkg, scopeName);
+
+    think();
+    return new BytecodeEmitter(this, pkg).emit();
+  }
+
+  /**
+   * Generates the scope's java source, without writing or compiling it.
+   */
+  public String generateSource(String pkg) {
+    Preconditions.checkState(w == null);
+    w = new ClassWriter(null, pkg, scopeName);
+
+    think();
+    emit();
+
+    w.close();
+    return w.source();
+  }
+
   private void think() {
+    Preconditions.checkState(!options.inlineBindings || options.lazyImpl != LazyImpl.ATOMIC,
+        "Inlined bindings are guarded by the scope's monitor, and can't be ATOMIC");
     w.addType(Preconditions.class);
     w.addType(Scope.class);
     w.addType(Lazy.class);
     w.addType(Lazies.class);
-    w.addType(ThreadsafeLazy.class);
+    w.addType(BindingGraph.class);
+    w.addType(ScopeEvents.class);
+    w.addType(options.lazyImpl.lazyClass);
+    w.addType(options.lazyImpl.scopeClass);
+    if (options.instrumented) {
+      w.addType(BindingInstrumentation.class);
+    }
+    if (options.inlineBindings && options.lazyImpl == LazyImpl.LOCKING) {
+      w.addType(ReentrantLock.class);
+    }
+    if (options.resettable) {
+      w.addType(Resettable.class);
+      w.addType(ScopePool.class);
+      w.addType(Factory0.class);
+    }
     // TODO(dan): Bring this back, configure the lazies to throw these
     // w.addType(InjectionException.class);
 
@@ -208,7 +342,9 @@ public class ScopeGenerator {
           new QualifiedType(
               t, new Qualifiers() /* no annotations */),
           toInject.getGenericParameterTypes(),
-          toInject.getParameterAnnotations()));
+          toInject.getParameterAnnotations(),
+          toInject,
+          null));
     }
 
     for (Class<?> providerClass : providerClasses) {
@@ -237,7 +373,9 @@ public class ScopeGenerator {
                 method.getGenericReturnType(),
                 annotations),
             method.getGenericParameterTypes(),
-            method.getParameterAnnotations()));
+            method.getParameterAnnotations(),
+            method,
+            providerVar));
       }
     }
 
@@ -289,14 +427,287 @@ public class ScopeGenerator {
       factoryVars.add(fg);
     }
 
-    // Finally, expose all unsatisfied dependencies as constructor arguments.
+    // Finally, take unsatisfied dependencies from the parent scope where it
+    // has them, and expose the rest as constructor arguments.
     // Note, these are currently forced eagerly evaluated.
     // TODO(dan): Pass them through as Lazy values instead.
+    if (parentScope != null) {
+      w.addType(parentScope);
+    }
     for (DirectDependency dep : requiredDeps) {
       if (!satisfiedDeps.contains(dep)) {
-        values.add(new Value(importQualifiers(dep)));
+        if (parentProvides(dep)) {
+          parentScopeVars.add(new ParentScopeVar(parentVar, dep));
+        } else {
+          values.add(new Value(importQualifiers(dep)));
+        }
+      }
+    }
+
+    orderBindings();
+
+    for (ScopeVar v : scopeVars) {
+      Preconditions.checkState(!v.async || !options.inlineBindings,
+          "Asynchronous binding %s can't be inlined", v.providesDep);
+    }
+    for (String name : bindingNames()) {
+      w.addType(fieldClass(name));
+    }
+  }
+
+  /**
+   * Declared class of a binding's field. Bindings are declared with their
+   * concrete Lazy class rather than {@link Lazy}, so reads of them are
+   * virtual calls the JIT can bind statically, rather than interface calls
+   * that go megamorphic across the scope's many binding classes. Satisfiers
+   * are still declared {@link Lazy}, as the scope's own consumers bypass them.
+   */
+  Class<?> fieldClass(String name) {
+    for (Value v : values) {
+      if (v.variable.equals(name)) {
+        PrimitiveBinding primitive = PrimitiveBinding.of(v.providesDep.outerType().type);
+        return primitive != null ? primitive.lazyClass : Eager.class;
+      }
+    }
+    for (ParentScopeVar v : parentScopeVars) {
+      if (v.name.equals(name)) {
+        return parentField(v.providesDep).getType();
+      }
+    }
+    for (ScopeVar v : scopeVars) {
+      if (v.cacheVar.equals(name)) {
+        PrimitiveBinding primitive = PrimitiveBinding.of(v.providesDep.outerType().type);
+        return primitive != null
+            ? (unboxedBindings() ? primitive.threadsafeClass : primitive.lazyClass)
+            : options.inlineBindings ? Lazy.class
+            : v.async ? FutureLazy.class
+            : options.lazyImpl.lazyClass;
+      }
+    }
+    for (CurriedCtorFactory f : factoryVars) {
+      if (f.dependency.scopeVar().equals(name)) {
+        return Eager.class;
+      }
+    }
+    for (SatisfactionVar s : satisfactionVars) {
+      if (s.dependency.scopeVar().equals(name)) {
+        return Lazy.class;
+      }
+    }
+    throw new IllegalArgumentException("No binding " + name + " in " + scopeName);
+  }
+
+  /**
+   * Whether bindings of primitive types are held unboxed, as only the
+   * monitor-based primitive Lazies exist. Otherwise they are held boxed, behind
+   * a view with the unboxed getter.
+   */
+  private boolean unboxedBindings() {
+    return options.lazyImpl == LazyImpl.MONITOR && !options.inlineBindings;
+  }
+
+  /** Type the binding's object is held as. */
+  private static String heldTypeName(ScopeVar v) {
+    PrimitiveBinding primitive = PrimitiveBinding.of(v.providesDep.outerType().type);
+    return primitive != null ? primitive.boxed.getSimpleName() : v.providesDep.simpleTypeName();
+  }
+
+  /** Declared type of a binding's field. */
+  private String fieldType(String name, Dependency dep) {
+    Class<?> c = fieldClass(name);
+    return c.getTypeParameters().length == 0 ? c.getSimpleName()
+        : c.getSimpleName() + "<" + dep.simpleTypeName() + ">";
+  }
+
+  /**
+   * The dep, or if a satisfier aliases it to another binding, the binding at
+   * the end of the chain of satisfiers.
+   */
+  DirectDependency resolveSatisfier(DirectDependency dep) {
+    String target = resolveAlias(dep.scopeVar());
+    for (SatisfactionVar s : satisfactionVars) {
+      if (s.satisfiedBy.scopeVar().equals(target)) {
+        return s.satisfiedBy;
+      }
+    }
+    return dep;
+  }
+
+  /**
+   * Whether the parent scope has an accessible binding for the dep.
+   */
+  private boolean parentProvides(DirectDependency dep) {
+    return parentScope != null && parentField(dep) != null;
+  }
+
+  /**
+   * The parent scope's binding field for the dep, if it has an accessible one.
+   * Binding field names are derived from the qualified type, so the name
+   * identifies the dependency.
+   */
+  @Nullable private Field parentField(DirectDependency dep) {
+    Field field;
+    try {
+      field = parentScope.getField(dep.scopeVar());
+    } catch (NoSuchFieldException e) {
+      // Satisfiers are package-private
+      if (!parentScope.getPackage().getName().equals(w.pkg)) {
+        return null;
+      }
+      try {
+        field = parentScope.getDeclaredField(dep.scopeVar());
+      } catch (NoSuchFieldException e2) {
+        return null;
+      }
+      if (Modifier.isPrivate(field.getModifiers())) {
+        return null;
+      }
+    }
+    if (field.getDeclaringClass() == Scope.class || !Lazy.class.isAssignableFrom(field.getType())) {
+      return null;
+    }
+    PrimitiveBinding primitive = PrimitiveBinding.of(dep.outerType().type);
+    if (primitive != null) {
+      return primitive.lazyClass.isAssignableFrom(field.getType()) ? field : null;
+    }
+    if (!(field.getGenericType() instanceof ParameterizedType)) {
+      return null;
+    }
+    Type provided = ((ParameterizedType) field.getGenericType()).getActualTypeArguments()[0];
+    return asClass(provided) == asClass(dep.outerType().type) ? field : null;
+  }
+
+  /**
+   * Rejects dependency cycles, which would otherwise only show up at runtime,
+   * and computes {@link #bindingOrder}.
+   */
+  private void orderBindings() {
+    for (SatisfactionVar s : satisfactionVars) {
+      aliases.put(s.dependency.scopeVar(), s.satisfiedBy.scopeVar());
+    }
+    ListMultimap<String, String> edges = ArrayListMultimap.create();
+    for (BindingEdge e : bindingEdges()) {
+      edges.put(e.from, resolveAlias(e.on));
+    }
+    for (String name : bindingNames()) {
+      visit(name, edges, new ArrayList<String>());
+    }
+  }
+
+  private void visit(String name, ListMultimap<String, String> edges, List<String> path) {
+    if (bindingOrder.containsKey(name)) {
+      return;
+    }
+    int seen = path.indexOf(name);
+    if (seen >= 0) {
+      List<String> cycle = new ArrayList<>(path.subList(seen, path.size()));
+      cycle.add(name);
+      throw new RuntimeException("Circular dependency in " + scopeName + ": "
+          + StringUtil.joinIterable(" -> ", cycle));
+    }
+
+    path.add(name);
+    for (String on : edges.get(name)) {
+      visit(on, edges, path);
+    }
+    path.remove(path.size() - 1);
+    bindingOrder.put(name, bindingOrder.size());
+  }
+
+  private String resolveAlias(String name) {
+    Set<String> seen = new LinkedHashSet<>();
+    while (aliases.containsKey(name)) {
+      if (!seen.add(name)) {
+        throw new RuntimeException("Circular satisfiers in " + scopeName + ": "
+            + StringUtil.joinIterable(" -> ", seen) + " -> " + name);
+      }
+      name = aliases.get(name);
+    }
+    return name;
+  }
+
+  /**
+   * Indices of the scope var's forced (non-Lazy) arguments, in the global
+   * binding order. Resolving arguments in this order rather than argument
+   * order means every binding acquires the Lazies it depends on in the same
+   * relative order, so concurrent initialization can't deadlock.
+   */
+  List<Integer> forcedArgOrder(ScopeVar v) {
+    List<Integer> forced = new ArrayList<>();
+    for (int i = 0; i < v.requiresDeps.size(); i++) {
+      if (v.requiresDeps.get(i) instanceof DirectDependency) {
+        forced.add(i);
+      }
+    }
+    final List<Dependency> deps = v.requiresDeps;
+    Collections.sort(forced, new Comparator<Integer>() {
+      @Override public int compare(Integer a, Integer b) {
+        return Integer.compare(rank(deps.get(a)), rank(deps.get(b)));
+      }
+    });
+    return forced;
+  }
+
+  private int rank(Dependency dep) {
+    Integer rank = bindingOrder.get(resolveAlias(dep.getDirectDep().scopeVar()));
+    return rank == null ? -1 : rank;
+  }
+
+  /** Holders of the factories, then of the method injectors. */
+  List<CurriedHolder> curriedHolders() {
+    List<CurriedHolder> holders = Lists.newArrayList();
+    for (CurriedCtorFactory f : factoryVars) {
+      if (f.curried != null) {
+        holders.add(f.curried);
+      }
+    }
+    for (MethodInjector mi : methodInjectors) {
+      if (mi.curried != null) {
+        holders.add(mi.curried);
       }
     }
+    return holders;
+  }
+
+  /**
+   * Names of the scope's Lazy fields that are bindings in its
+   * {@link BindingGraph}, other than satisfiers, which are aliases.
+   */
+  List<String> bindingNames() {
+    List<String> names = new ArrayList<>();
+    for (Value v : values) {
+      names.add(v.variable);
+    }
+    for (ParentScopeVar v : parentScopeVars) {
+      names.add(v.name);
+    }
+    for (ScopeVar v : scopeVars) {
+      names.add(v.cacheVar);
+    }
+    for (CurriedCtorFactory f : factoryVars) {
+      names.add(f.dependency.scopeVar());
+    }
+    return names;
+  }
+
+  /**
+   * Dependencies forced when creating each scope var. Lazy dependencies are
+   * not forced, and factories only force their curried dependencies when
+   * called, so neither are edges.
+   */
+  List<BindingEdge> bindingEdges() {
+    List<BindingEdge> edges = new ArrayList<>();
+    for (ScopeVar v : scopeVars) {
+      if (v.providerMethod.provider != null) {
+        edges.add(new BindingEdge(v.cacheVar, v.providerMethod.provider.name));
+      }
+      for (Dependency dep : v.requiresDeps) {
+        if (dep instanceof DirectDependency) {
+          edges.add(new BindingEdge(v.cacheVar, ((DirectDependency) dep).scopeVar()));
+        }
+      }
+    }
+    return edges;
   }
 
   private <T extends Dependency> T satisfied(T dep) {
@@ -311,32 +722,58 @@ public class ScopeGenerator {
     // instead of Type, Method, etc.
     final TypeToken<?> returnType;
     final Invokable<?, ?> implementedMethod;
+    final Method implementedRawMethod;
+    final Constructor<?> constructor;
     final CurriedArgs args;
+    @Nullable final CurriedHolder curried;
+    /** Of its {@link FactoryCache}, or 0 if it doesn't memoize. */
+    final long maximumSize;
 
     CurriedCtorFactory(QualifiedType factoryType) {
       this.dependency = directDepFromType(factoryType);
+      implementedRawMethod = getSingleRawMethod(factoryType.type);
       implementedMethod = getSingleMethod(factoryType.type);
       returnType = implementedMethod.getReturnType();
       w.addType(returnType.getType());
-      Invokable<?, ?> ctor = returnType.constructor(selectConstructor(returnType.getRawType()));
+      constructor = selectConstructor(returnType.getRawType());
+      Invokable<?, ?> ctor = returnType.constructor(constructor);
       args = new CurriedArgs(implementedMethod, ctor);
+      curried = CurriedHolder.of(dependency.scopeVar(), null, args);
+      if (curried != null) {
+        w.addType(RacyLazy.class);
+      }
+      maximumSize = options.maximumSize(factoryType);
+      if (maximumSize > 0) {
+        w.addType(FactoryCache.class);
+        w.addType(CacheLoader.class);
+        if (args.implementedArgs.size() != 1) {
+          w.addType(Arrays.class);
+          w.addType(List.class);
+        }
+      }
     }
   }
 
   class MethodInjector {
     final DirectDependency receiver;
     final Invokable<?, ?> innerMethod;
+    final Method innerRawMethod;
     final Type iface;
     final TypeToken<?> returnType;
     final Invokable<?, ?> implementedMethod;
+    final Method implementedRawMethod;
     final CurriedArgs args;
     final String varName;
+    final boolean isStatic;
+    @Nullable final CurriedHolder curried;
     public MethodInjector(QualifiedType receiverType, Method method, Type interfaceType) {
       w.addType(Function.class);
       this.receiver = directDepFromType(receiverType);
       this.innerMethod = TypeToken.of(receiverType.type).method(method);
+      this.innerRawMethod = method;
       this.iface = w.addType(interfaceType);
       this.implementedMethod = getSingleMethod(iface);
+      this.implementedRawMethod = getSingleRawMethod(iface);
       TypeToken<?> retType = implementedMethod.getReturnType();
       if (retType.getType() instanceof TypeVariable) {
         retType = innerMethod.getReturnType();
@@ -347,12 +784,57 @@ public class ScopeGenerator {
       // TODO: handle overloaded methods without making the variable name too grotesquely verbose.
       //       and disambiguate qualified receiver types.
       this.varName = asClass(receiverType.type).getSimpleName() + "_" + method.getName();
+      this.isStatic = Modifier.isStatic(method.getModifiers());
+      this.curried = CurriedHolder.of(varName, isStatic ? null : receiver, args);
+      if (curried != null) {
+        w.addType(RacyLazy.class);
+      }
 
       w.addType(returnType.getType());
     }
   }
 
+  /**
+   * The dependencies of a factory or method injector that aren't arguments of
+   * its method. Rather than going through the scope's lazies on every call,
+   * they are resolved together on first use into the final fields of a holder
+   * object, which is then read through a {@link RacyLazy}.
+   */
+  static class CurriedHolder {
+    final String className;
+    final String var;
+    /** The receiver, if any, then the curried dependencies in order. */
+    final List<Dependency> deps;
+
+    private CurriedHolder(String owner, List<Dependency> deps) {
+      this.className = "Curried_" + owner;
+      this.var = "curried_" + owner;
+      this.deps = deps;
+    }
+
+    /**
+     * @return null if there is nothing to resolve
+     */
+    @Nullable static CurriedHolder of(String owner, @Nullable Dependency receiver,
+        CurriedArgs args) {
+      List<Dependency> deps = Lists.newArrayList();
+      if (receiver != null) {
+        deps.add(receiver);
+      }
+      for (Dependency d : args.curriedDeps) {
+        if (d != null) {
+          deps.add(d);
+        }
+      }
+      return deps.isEmpty() ? null : new CurriedHolder(owner, deps);
+    }
+  }
+
   static Invokable<?, ?> getSingleMethod(Type type) {
+    return TypeToken.of(type).method(getSingleRawMethod(type));
+  }
+
+  static Method getSingleRawMethod(Type type) {
     Method[] methods = asClass(type).getDeclaredMethods();
     if (methods.length == 0) {
       throw new UnsupportedOperationException("must define method");
@@ -364,7 +846,7 @@ public class ScopeGenerator {
       throw new UnsupportedOperationException("only one method currently supported");
     }
 
-    return TypeToken.of(type).method(methods[0]);
+    return methods[0];
   }
 
 
@@ -425,10 +907,30 @@ public class ScopeGenerator {
 
   private void addLazyVar(ProviderCallable providerMethod) {
 
+    // Providers returning a future provide the future's type asynchronously
+    QualifiedType provided = providerMethod.type;
+    boolean async = asClass(provided.type) == CompletableFuture.class;
+    if (async) {
+      Preconditions.checkArgument(provided.type instanceof ParameterizedType,
+          "Raw CompletableFuture provided by %s", providerMethod.member);
+      provided = new QualifiedType(
+          ((ParameterizedType) provided.type).getActualTypeArguments()[0], provided.qualifiers);
+      w.addType(AsyncLazy.class);
+      w.addType(FutureLazy.class);
+      w.addType(CompletableFuture.class);
+      w.addType(CompletionException.class);
+      w.addType(BiConsumer.class);
+    }
+
+    Preconditions.checkArgument(!asClass(provided.type).isPrimitive()
+        || PrimitiveBinding.of(provided.type) != null,
+        "Only int, long, double and boolean primitives can be provided, not %s by %s",
+        provided.type, providerMethod.member);
+
     // Providers may only provide direct dependencies
-    DirectDependency providedDep = satisfied(directDepFromType(providerMethod.type));
+    DirectDependency providedDep = satisfied(directDepFromType(provided));
     scopeVars.add(new ScopeVar(providedDep, providerMethod,
-        getDepsFromAnnotatedTypes(providerMethod.args)));
+        getDepsFromAnnotatedTypes(providerMethod.args), async));
   }
 
   List<Dependency> getDepsFromAnnotatedTypes(List<QualifiedType> types) {
@@ -448,7 +950,7 @@ public class ScopeGenerator {
 
   DirectDependency directDepFromType(QualifiedType t) {
     Dependency dep = depFromType(t);
-    if (dep instanceof LazyDependency) {
+    if (!(dep instanceof DirectDependency)) {
       throw new UnsupportedOperationException("Type " + t + " resulted in a Lazy dep " +
           "when this context only permits a direct dep");
     }
@@ -479,15 +981,27 @@ public class ScopeGenerator {
     // https://code.google.com/p/jmte/
 
     w("/** Generated scope. */");
-    w("public class " + scopeName + " extends Scope {");
+    w("public class " + scopeName + " extends "
+        + options.lazyImpl.scopeClass.getSimpleName() + " {");
     w("  private final " + scopeName + " self = this;");
+    if (options.instrumented) {
+      w("  private volatile BindingInstrumentation instrumentation = BindingInstrumentation.NONE;");
+    }
     if (!values.isEmpty()) {
       w("");
       w("  // Direct values");
     }
     for (Value v : values) {
       w("  /** " + v.providesDep + " */");
-      w("  public final Lazy<" + v.providesDep.simpleTypeName() + "> " + v.variable + ";");
+      w("  public final " + fieldType(v.variable, v.providesDep) + " " + v.variable + ";");
+    }
+    if (!parentScopeVars.isEmpty()) {
+      w("");
+      w("  // Shared with the parent scope");
+    }
+    for (ParentScopeVar v : parentScopeVars) {
+      w("  /** " + v.providesDep + " */");
+      w("  public final " + fieldType(v.name, v.providesDep) + " " + v.name + ";");
     }
     if (!satisfactionVars.isEmpty()) {
       w("");
@@ -505,60 +1019,81 @@ public class ScopeGenerator {
     w("  public " + scopeName + "(");
     {
     List<String> args = Lists.newArrayList();
+      if (parentVar != null) {
+        args.add("      " + parentScope.getSimpleName() + " " + parentVar.name);
+      }
       for (Value v : values) {
         args.add("      " + renderQualifiedType(v.providesDep.outerType()) + " " + v.variable);
       }
       w(StringUtil.joinIterable(",\n", args) + ") {");
     }
     for (Value var : values) {
-      w("    this." + var.variable + " = Lazies.eager("
-          + var.variable + ", \"" + var.variable + "\");");
+      PrimitiveBinding primitive = PrimitiveBinding.of(var.providesDep.outerType().type);
+      if (primitive != null) {
+        w("    this." + var.variable + " = Lazies." + primitive.eager + "(" + var.variable + ");");
+      } else {
+        w("    this." + var.variable + " = new Eager<" + var.providesDep.simpleTypeName() + ">("
+            + var.variable + ", \"" + var.variable + "\");");
+      }
+    }
+    for (ParentScopeVar v : parentScopeVars) {
+      w("    this." + v.name + " = " + v.parent.name + "." + v.name + ";");
     }
+    // Straight to the end of the chain, as the next alias may not be set yet
     for (SatisfactionVar s : satisfactionVars) {
       w("    " + s.dependency.scopeVar()
           + " = Lazies.<" + s.dependency.simpleTypeName()
-              + ">upcast(this." + s.satisfiedBy.scopeVar() + ");");
+              + ">upcast(this." + resolveSatisfier(s.satisfiedBy).scopeVar() + ");");
     }
+    w("    constructed();");
     w("  }");
     w("");
 
     // END CONSTRUCTOR
 
-    for (ScopeVar g : scopeVars) {
-      boolean isAutoCloseable = AutoCloseable.class.isAssignableFrom(
-          asClass(g.providesDep.outerType().type));
-
-      String type = g.providesDep.simpleTypeName();
-      w("  /** " + g.providesDep + " */");
-      w("  public final Lazy<" + type + "> " + g.cacheVar + " =");
-      String escapedDescriptor = g.providesDep.toString().replace("\"", "\\\"");
-      w("    new ThreadsafeLazy<" + type +">(\"" + escapedDescriptor + "\") { ");
-      w("    @Override protected " + type + " create() throws Exception {");
-      w("      checkOpen();");
-      w("      " + type + " object = " + g.providerMethod.callPart + "("
-          + (g.requiresDeps.isEmpty() ? ");" : ""));
-      for (int i = 0; i < g.requiresDeps.size(); i++) {
-        // TODO(dan): There is the very remote possibility of a deadlock
-        // here. It would be more correct if the args were initialised
-        // into separate variables, in member variable order (not arg order).
-        Dependency dep = g.requiresDeps.get(i);
-        w("        " + dep.instantiationExpr("self")
-            + (i == g.requiresDeps.size() - 1 ? ");" : ","));
-      }
-      if (isAutoCloseable) {
-        w("      addObjectToClose(object);");
+    if (options.inlineBindings) {
+      emitInlinedBindings();
+    } else {
+      for (ScopeVar g : scopeVars) {
+        if (g.async) {
+          emitAsyncBinding(g);
+          continue;
+        }
+        PrimitiveBinding primitive = PrimitiveBinding.of(g.providesDep.outerType().type);
+        if (primitive != null && unboxedBindings()) {
+          emitPrimitiveBinding(g);
+          continue;
+        }
+        String type = heldTypeName(g);
+        w("  /** " + g.providesDep + " */");
+        w("  public final " + fieldType(g.cacheVar, g.providesDep) + " " + g.cacheVar + " =");
+        w("    " + (primitive != null ? "Lazies." + primitive.unboxed + "(" : "")
+            + "new " + options.lazyImpl.lazyClass.getSimpleName()
+            + "<" + type +">(\"" + escapedDescriptor(g) + "\") { ");
+        boolean timeWaits = options.instrumented && options.lazyImpl != LazyImpl.CONFINED;
+        w("    @Override protected " + type + " create() throws Exception {");
+        if (timeWaits) {
+          w("      creator = Thread.currentThread();");
+        }
+        emitCreateBody(g, "      ");
+        w("    }");
+        emitInstrumentedGet(g, type, "get", timeWaits);
+        w(primitive != null ? "  });" : "  };");
+        w("");
       }
-      w("      return object;");
-      w("    }");
-      w("  };");
-      w("");
     }
 
     for (CurriedCtorFactory f : factoryVars) {
       String type = f.dependency.simpleTypeName();
+      if (f.curried != null) {
+        emitCurriedHolder(f.curried, f.dependency.toString());
+      }
+      if (f.maximumSize > 0) {
+        emitFactoryCache(f);
+      }
       w("  /** " + f.dependency + " */");
-      w("  public final Lazy<" + type + "> " + f.dependency.scopeVar()
-          + " = Lazies.<" + type + ">eager(new " + type + "() {");
+      w("  public final " + fieldType(f.dependency.scopeVar(), f.dependency) + " "
+          + f.dependency.scopeVar() + " = new Eager<" + type + ">(new " + type + "() {");
       w("    @Override public " + getSimpleName(f.returnType) + " "
           + f.implementedMethod.getName() + "(");
       int arg = 0;
@@ -567,23 +1102,30 @@ public class ScopeGenerator {
         args.add(renderQualifiedType(p) + " arg" + (arg++));
       }
       w("        " + StringUtil.joinIterable(", ", args) + ")/*XXX*/ {");
-      w("      return new " + getSimpleName(f.returnType) + "(");
-      arg = 0;
-      args = new ArrayList<>();
-      for (Dependency d : f.args.curriedDeps) {
-        if (d == null) {
-          args.add("arg" + (arg++));
-        } else {
-          args.add(d.instantiationExpr("self"));
-        }
+      if (f.maximumSize > 0) {
+        String key = f.args.implementedArgs.size() == 1 ? "arg0"
+            : "Arrays.<Object>asList(" + StringUtil.joinIterable(", ", argNames(arg)) + ")";
+        w("      return self.cache_" + f.dependency.scopeVar() + ".get(" + key + ");");
+        w("    }");
+        w("  });");
+        w("");
+        continue;
+      }
+      if (f.curried != null) {
+        w("      " + f.curried.className + " curried = self." + f.curried.var + ".get();");
       }
-      w("        " + StringUtil.joinIterable(",  ", args) + ");");
+      w("      return new " + getSimpleName(f.returnType) + "(");
+      w("        " + StringUtil.joinIterable(",  ", curriedArgs(f.args, f.curried, 0)) + ");");
       w("    }");
       w("  });");
       w("");
     }
 
     for (MethodInjector mi : methodInjectors) {
+      if (mi.curried != null) {
+        emitCurriedHolder(mi.curried,
+            mi.receiver.simpleTypeName() + "#" + mi.innerMethod.getName() + "()");
+      }
       w("  /** " + mi.receiver.simpleTypeName() + "#" + mi.innerMethod.getName() + "() */");
       String iface = getSimpleName(mi.iface);
       w("  public final " + iface + " " + mi.varName
@@ -598,18 +1140,14 @@ public class ScopeGenerator {
       w(StringUtil.joinIterable(", ", args) + ") {");
 
       boolean returningUnit = (mi.returnType.getType() == Unit.class);
-      w("      " + (returningUnit ? "" : "return ") + mi.receiver.instantiationExpr("self")
-          + "." + mi.innerMethod.getName() + "(");
-      arg = 0;
-      args = new ArrayList<>();
-      for (Dependency d : mi.args.curriedDeps) {
-        if (d == null) {
-          args.add("arg" + (arg++));
-        } else {
-          args.add(d.instantiationExpr("self"));
-        }
+      if (mi.curried != null) {
+        w("      " + mi.curried.className + " curried = self." + mi.curried.var + ".get();");
       }
-      w("        " + StringUtil.joinIterable(",  ", args) + ");");
+      String receiver = mi.isStatic ? mi.receiver.simpleTypeName() : "curried.dep0";
+      w("      " + (returningUnit ? "" : "return ") + receiver
+          + "." + mi.innerMethod.getName() + "(");
+      w("        " + StringUtil.joinIterable(",  ",
+          curriedArgs(mi.args, mi.curried, mi.isStatic ? 0 : 1)) + ");");
       if (returningUnit) {
         w("      return Unit.UNIT;");
       }
@@ -625,11 +1163,599 @@ public class ScopeGenerator {
       w("  };");
     }
 
+    w("  @Override public BindingGraph bindingGraph() {");
+    w("    return BindingGraph.builder()");
+    for (String name : bindingNames()) {
+      w("        .binding(\"" + name + "\", " + name + ")");
+    }
+    for (BindingEdge e : bindingEdges()) {
+      w("        .dependency(\"" + e.from + "\", \"" + e.on + "\")");
+    }
+    for (SatisfactionVar s : satisfactionVars) {
+      w("        .alias(\"" + s.dependency.scopeVar() + "\", \""
+          + s.satisfiedBy.scopeVar() + "\")");
+    }
+    w("        .build();");
+    w("  }");
+    w("");
+
+    if (options.freezable) {
+      emitFreeze();
+    }
+
+    if (options.resettable) {
+      emitReset();
+    }
+
+    if (options.instrumented) {
+      w("  @Override public void instrument(BindingInstrumentation instrumentation) {");
+      w("    this.instrumentation = Preconditions.checkNotNull(instrumentation);");
+      w("  }");
+      w("");
+    }
+
     w("  // Avoid unused import warning");
     w("  static { Preconditions.checkNotNull(new Object()); }");
     w("}");
   }
 
+  /**
+   * Emits the holder class, and the lazy it is read through. The holder's
+   * fields are all final, which is what makes reading it racily safe.
+   */
+  private void emitCurriedHolder(CurriedHolder h, String owner) {
+    String type = h.className;
+    w("  /** Curried dependencies of " + owner + ", resolved on first use */");
+    w("  final class " + type + " {");
+    for (int i = 0; i < h.deps.size(); i++) {
+      Dependency d = h.deps.get(i);
+      w("    final " + d.simpleTypeName() + " dep" + i + " = " + consumerExpr(d) + ";");
+    }
+    w("  }");
+    w("  final RacyLazy<" + type + "> " + h.var + " = new RacyLazy<" + type + ">() {");
+    w("    @Override protected " + type + " create() {");
+    w("      return new " + type + "();");
+    w("    }");
+    w("  };");
+  }
+
+  private static List<String> argNames(int count) {
+    List<String> names = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      names.add("arg" + i);
+    }
+    return names;
+  }
+
+  /**
+   * Arguments for a curried call, passing through the implemented method's
+   * arguments and reading everything else from the holder, starting at the
+   * given field.
+   */
+  private static List<String> curriedArgs(CurriedArgs curriedArgs,
+      @Nullable CurriedHolder holder, int field) {
+    int arg = 0;
+    List<String> args = new ArrayList<>();
+    for (Dependency d : curriedArgs.curriedDeps) {
+      if (d == null) {
+        args.add("arg" + (arg++));
+      } else {
+        assert holder != null && holder.deps.get(field) == d;
+        args.add("curried.dep" + (field++));
+      }
+    }
+    return args;
+  }
+
+  /**
+   * Emits the cache of a memoizing factory, whose loader constructs the
+   * instance for a key.
+   */
+  private void emitFactoryCache(CurriedCtorFactory f) {
+    String instance = getSimpleName(f.returnType);
+    String key = cacheKeyType(f);
+    String type = "FactoryCache<" + key + ", " + instance + ">";
+    String var = f.dependency.scopeVar();
+    List<QualifiedType> implementedArgs = f.args.implementedArgs;
+    w("  /** Instances of " + f.dependency + " */");
+    w("  final " + type + " cache_" + var + " = new " + type + "(");
+    w("      self, \"" + var + "\", " + f.maximumSize + "L, new CacheLoader<" + key + ", "
+        + instance + ">() {");
+    if (implementedArgs.size() == 1) {
+      w("    @Override public " + instance + " load(" + key + " arg0) {");
+    } else {
+      w("    @Override public " + instance + " load(" + key + " key) {");
+      for (int i = 0; i < implementedArgs.size(); i++) {
+        String argType = getSimpleName(implementedArgs.get(i).type);
+        w("      " + argType + " arg" + i + " = (" + argType + ") key.get(" + i + ");");
+      }
+    }
+    if (f.curried != null) {
+      w("      " + f.curried.className + " curried = self." + f.curried.var + ".get();");
+    }
+    w("      return new " + instance + "(");
+    w("        " + StringUtil.joinIterable(",  ", curriedArgs(f.args, f.curried, 0)) + ");");
+    w("    }");
+    w("  });");
+  }
+
+  /** The argument itself if there is only one, otherwise a list of them. */
+  private static String cacheKeyType(CurriedCtorFactory f) {
+    List<QualifiedType> implementedArgs = f.args.implementedArgs;
+    if (implementedArgs.size() == 1) {
+      return getSimpleName(TypeToken.of(implementedArgs.get(0).type).wrap().getType());
+    }
+    return "List<Object>";
+  }
+
+  /**
+   * Emits the snapshot class, with a final field for each binding, including
+   * satisfiers, and {@code freeze()}, which creates it once.
+   */
+  private void emitFreeze() {
+    Map<String, Dependency> bindings = new LinkedHashMap<>();
+    for (Value v : values) {
+      bindings.put(v.variable, v.providesDep);
+    }
+    for (ParentScopeVar v : parentScopeVars) {
+      bindings.put(v.name, v.providesDep);
+    }
+    for (ScopeVar v : scopeVars) {
+      bindings.put(v.cacheVar, v.providesDep);
+    }
+    for (CurriedCtorFactory f : factoryVars) {
+      bindings.put(f.dependency.scopeVar(), f.dependency);
+    }
+    for (SatisfactionVar s : satisfactionVars) {
+      bindings.put(s.dependency.scopeVar(), s.dependency);
+    }
+
+    w("  /** Objects of the scope's bindings, once it is frozen. */");
+    w("  public static final class Frozen {");
+    for (Map.Entry<String, Dependency> b : bindings.entrySet()) {
+      w("    /** " + b.getValue() + " */");
+      w("    public final " + b.getValue().simpleTypeName() + " " + b.getKey() + ";");
+    }
+    w("");
+    w("    private Frozen(" + scopeName + " scope) {");
+    for (Map.Entry<String, Dependency> b : bindings.entrySet()) {
+      w("      this." + b.getKey() + " = "
+          + resolveSatisfier(b.getValue().getDirectDep()).instantiationExpr("scope") + ";");
+    }
+    w("    }");
+    w("  }");
+    w("");
+    w("  /** Guarded by this */");
+    w("  private Frozen snapshot = null;");
+    w("");
+    w("  @Override public synchronized Frozen freeze() {");
+    w("    if (snapshot == null) {");
+    w("      checkOpen();");
+    w("      snapshot = new Frozen(this);");
+    w("      frozen();");
+    w("    }");
+    w("    return snapshot;");
+    w("  }");
+    w("");
+  }
+
+  private void emitReset() {
+    w("  @Override protected void resetBindings() {");
+    for (int index = 0; index < scopeVars.size(); index++) {
+      ScopeVar g = scopeVars.get(index);
+      if (options.inlineBindings) {
+        w("    started[" + index + "] = false;");
+        w("    value_" + g.cacheVar + " = null;");
+      } else {
+        w("    ((Resettable) " + g.cacheVar + ").reset();");
+      }
+    }
+    for (CurriedHolder h : curriedHolders()) {
+      w("    " + h.var + ".reset();");
+    }
+    for (CurriedCtorFactory f : factoryVars) {
+      if (f.maximumSize > 0) {
+        w("    cache_" + f.dependency.scopeVar() + ".reset();");
+      }
+    }
+    if (options.freezable) {
+      w("    snapshot = null;");
+    }
+    w("  }");
+    w("");
+
+    List<String> params = Lists.newArrayList();
+    List<String> args = Lists.newArrayList();
+    if (parentVar != null) {
+      params.add("      final " + parentScope.getSimpleName() + " " + parentVar.name);
+      args.add(parentVar.name);
+    }
+    for (Value v : values) {
+      params.add("      final " + renderQualifiedType(v.providesDep.outerType()) + " " + v.variable);
+      args.add(v.variable);
+    }
+    params.add("      int maxIdle");
+    w("  /** Pool of scopes constructed with the given seed values. */");
+    w("  public static ScopePool<" + scopeName + "> pool(");
+    w(StringUtil.joinIterable(",\n", params) + ") {");
+    w("    return new ScopePool<" + scopeName + ">(new Factory0<" + scopeName + ">() {");
+    w("      @Override public " + scopeName + " create() {");
+    w("        return new " + scopeName + "(" + StringUtil.joinIterable(", ", args) + ");");
+    w("      }");
+    w("    }, maxIdle);");
+    w("  }");
+    w("");
+  }
+
+  private static String escapedDescriptor(ScopeVar g) {
+    return g.providesDep.toString().replace("\"", "\\\"");
+  }
+
+  private void emitCreateBody(ScopeVar g, String indent) {
+    String name = "\"" + escapedDescriptor(g) + "\"";
+    w(indent + "ScopeEvents.BindingCreated event = ScopeEvents.beginBinding();");
+    w(indent + "try {");
+    emitCreateStatements(g, indent + "  ");
+    w(indent + "  ScopeEvents.created(event, self, " + name + ");");
+    w(indent + "  return object;");
+    w(indent + "} catch (Exception e) {");
+    w(indent + "  ScopeEvents.failed(self, " + name + ", e);");
+    w(indent + "  throw e;");
+    w(indent + "}");
+  }
+
+  private void emitCreateStatements(ScopeVar g, String indent) {
+    boolean isAutoCloseable = AutoCloseable.class.isAssignableFrom(
+        asClass(g.providesDep.outerType().type));
+    String type = g.providesDep.simpleTypeName();
+
+    w(indent + "checkOpen();");
+    if (options.instrumented) {
+      w(indent + "long start = System.nanoTime();");
+    }
+    List<Integer> forced = forcedArgOrder(g);
+    // Start asynchronous dependencies together before waiting on any
+    for (int i : forced) {
+      String target = asyncTarget(g.requiresDeps.get(i));
+      if (target != null) {
+        w(indent + "self." + target + ".getAsync();");
+      }
+    }
+    for (int i : forced) {
+      Dependency dep = g.requiresDeps.get(i);
+      w(indent + dep.simpleTypeName() + " arg" + i + " = " + forcedExpr(dep) + ";");
+    }
+    w(indent + type + " object = " + g.providerMethod.callPart + "("
+        + (g.requiresDeps.isEmpty() ? ");" : ""));
+    for (int i = 0; i < g.requiresDeps.size(); i++) {
+      Dependency dep = g.requiresDeps.get(i);
+      w(indent + "  " + (forced.contains(i) ? "arg" + i : dep.instantiationExpr("self"))
+          + (i == g.requiresDeps.size() - 1 ? ");" : ","));
+    }
+    if (isAutoCloseable) {
+      w(indent + "addObjectToClose(object, \"" + g.cacheVar + "\");");
+    }
+    if (options.instrumented) {
+      w(indent + "self.instrumentation.created(self, \"" + g.cacheVar
+          + "\", System.nanoTime() - start);");
+    }
+  }
+
+  /**
+   * Emits a binding of a primitive type, whose consumers read it without
+   * boxing.
+   */
+  private void emitPrimitiveBinding(ScopeVar g) {
+    PrimitiveBinding primitive = PrimitiveBinding.of(g.providesDep.outerType().type);
+    String type = g.providesDep.simpleTypeName();
+    w("  /** " + g.providesDep + " */");
+    w("  public final " + fieldType(g.cacheVar, g.providesDep) + " " + g.cacheVar + " =");
+    w("    new " + primitive.threadsafeClass.getSimpleName()
+        + "(\"" + escapedDescriptor(g) + "\") { ");
+    w("    @Override protected " + type + " create() throws Exception {");
+    if (options.instrumented) {
+      w("      creator = Thread.currentThread();");
+    }
+    emitCreateBody(g, "      ");
+    w("    }");
+    emitInstrumentedGet(g, type, primitive.getter, options.instrumented);
+    w("  };");
+    w("");
+  }
+
+  /**
+   * Emits the getter override of an instrumented binding. The lazies
+   * themselves carry no timing, so a thread that finds the binding not yet
+   * seen times its own read, and reports it as a wait unless it was the
+   * thread that created the object.
+   */
+  private void emitInstrumentedGet(ScopeVar g, String type, String getter, boolean timeWaits) {
+    String name = "\"" + g.cacheVar + "\"";
+    if (timeWaits) {
+      w("    private volatile boolean seen;");
+      w("    private Thread creator;");
+      w("    @Override public void reset() {");
+      w("      super.reset();");
+      w("      creator = null;");
+      w("      seen = false;");
+      w("    }");
+    }
+    if (!timeWaits && !options.countGets) {
+      return;
+    }
+    w("    @Override public " + type + " " + getter + "() {");
+    if (options.countGets) {
+      w("      self.instrumentation.got(self, " + name + ");");
+    }
+    if (timeWaits) {
+      w("      if (seen) {");
+      w("        return super." + getter + "();");
+      w("      }");
+      w("      long start = System.nanoTime();");
+      w("      " + type + " object = super." + getter + "();");
+      w("      if (creator != Thread.currentThread()) {");
+      w("        self.instrumentation.waited(self, " + name + ", System.nanoTime() - start);");
+      w("      }");
+      w("      seen = true;");
+      w("      return object;");
+    } else {
+      w("      return super." + getter + "();");
+    }
+    w("    }");
+  }
+
+  /**
+   * Emits a binding whose provider returns a future. Forced dependencies on
+   * other asynchronous bindings are started together, and the provider is
+   * called once they have all completed. Other forced dependencies are then
+   * created synchronously.
+   */
+  private void emitAsyncBinding(ScopeVar g) {
+    boolean isAutoCloseable = AutoCloseable.class.isAssignableFrom(
+        asClass(g.providesDep.outerType().type));
+    String type = g.providesDep.simpleTypeName();
+    String future = "CompletableFuture<" + type + ">";
+    String name = "\"" + escapedDescriptor(g) + "\"";
+
+    w("  /** " + g.providesDep + " */");
+    w("  public final " + fieldType(g.cacheVar, g.providesDep) + " " + g.cacheVar + " =");
+    w("    new FutureLazy<" + type + ">(" + name + ") {");
+    w("    @Override protected " + future + " createAsync() {");
+    w("      checkOpen();");
+    w("      final ScopeEvents.BindingCreated event = ScopeEvents.beginBinding();");
+    if (options.instrumented) {
+      w("      final long start = System.nanoTime();");
+    }
+    List<Integer> forced = forcedArgOrder(g);
+    List<String> futures = Lists.newArrayList();
+    for (int i : forced) {
+      Dependency dep = g.requiresDeps.get(i);
+      String target = asyncTarget(dep);
+      if (target != null) {
+        w("      final CompletableFuture<" + dep.simpleTypeName() + "> arg" + i
+            + " = self." + target + ".getAsync();");
+        futures.add("arg" + i);
+      }
+    }
+    // Fully qualified, as Guava's Function may be imported
+    w("      return CompletableFuture.allOf(" + StringUtil.joinIterable(", ", futures)
+        + ").thenCompose(");
+    w("          new java.util.function.Function<Void, " + future + ">() {");
+    w("        @Override public " + future + " apply(Void ignored) {");
+    w("          try {");
+    for (int i : forced) {
+      Dependency dep = g.requiresDeps.get(i);
+      if (asyncTarget(dep) == null) {
+        w("            " + dep.simpleTypeName() + " arg" + i + " = " + forcedExpr(dep) + ";");
+      }
+    }
+    w("            return " + g.providerMethod.callPart + "("
+        + (g.requiresDeps.isEmpty() ? ");" : ""));
+    for (int i = 0; i < g.requiresDeps.size(); i++) {
+      Dependency dep = g.requiresDeps.get(i);
+      String arg = !forced.contains(i) ? dep.instantiationExpr("self")
+          : asyncTarget(dep) != null ? "arg" + i + ".join()" : "arg" + i;
+      w("                " + arg + (i == g.requiresDeps.size() - 1 ? ");" : ","));
+    }
+    w("          } catch (Exception e) {");
+    w("            throw new CompletionException(e);");
+    w("          }");
+    w("        }");
+    w("      }).whenComplete(new BiConsumer<" + type + ", Throwable>() {");
+    w("        @Override public void accept(" + type + " object, Throwable t) {");
+    w("          if (t == null) {");
+    if (isAutoCloseable) {
+      w("            addObjectToClose(object, \"" + g.cacheVar + "\");");
+    }
+    if (options.instrumented) {
+      w("            self.instrumentation.created(self, \"" + g.cacheVar
+          + "\", System.nanoTime() - start);");
+    }
+    w("            ScopeEvents.created(event, self, " + name + ");");
+    w("          } else {");
+    w("            ScopeEvents.failed(self, " + name + ", t);");
+    w("          }");
+    w("        }");
+    w("      });");
+    w("    }");
+    w("  };");
+    w("");
+  }
+
+  /**
+   * The field of the asynchronous binding the dep is on, or null if the dep
+   * is not on one of this scope's asynchronous bindings.
+   */
+  @Nullable private String asyncTarget(Dependency dep) {
+    String target = resolveAlias(dep.getDirectDep().scopeVar());
+    for (ScopeVar v : scopeVars) {
+      if (v.async && v.cacheVar.equals(target)) {
+        return target;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * In inlined mode, forced deps on other bindings call their getter
+   * directly rather than going through the Lazy view.
+   */
+  private String forcedExpr(Dependency dep) {
+    if (options.inlineBindings) {
+      String target = resolveAlias(dep.getDirectDep().scopeVar());
+      for (ScopeVar v : scopeVars) {
+        if (v.cacheVar.equals(target)) {
+          return "self.get_" + target + "()";
+        }
+      }
+    }
+    return consumerExpr(dep);
+  }
+
+  /**
+   * Forced deps read the binding that satisfies them directly, rather than
+   * through the satisfier's alias.
+   */
+  private String consumerExpr(Dependency dep) {
+    if (dep instanceof DirectDependency) {
+      return resolveSatisfier((DirectDependency) dep).instantiationExpr("self");
+    }
+    return dep.instantiationExpr("self");
+  }
+
+  /**
+   * Emits bindings as plain fields on the scope, each with a
+   * {@code get_<binding>()} method. The public Lazy fields are instances of a
+   * single nested view class that dispatches on the binding's index, so there
+   * is no class per binding.
+   */
+  private void emitInlinedBindings() {
+    boolean confined = options.lazyImpl == LazyImpl.CONFINED;
+    boolean locking = options.lazyImpl == LazyImpl.LOCKING;
+
+    w("  // Bindings");
+    if (locking) {
+      w("  private final ReentrantLock bindingLock = new ReentrantLock();");
+    }
+    w("  private final boolean[] started = new boolean[" + scopeVars.size() + "];");
+    for (ScopeVar g : scopeVars) {
+      w("  private " + (confined ? "" : "volatile ") + heldTypeName(g)
+          + " value_" + g.cacheVar + ";");
+    }
+    w("");
+
+    for (int index = 0; index < scopeVars.size(); index++) {
+      ScopeVar g = scopeVars.get(index);
+      String type = heldTypeName(g);
+      String name = "\"" + escapedDescriptor(g) + "\"";
+      String value = "value_" + g.cacheVar;
+      PrimitiveBinding primitive = PrimitiveBinding.of(g.providesDep.outerType().type);
+
+      w("  /** " + g.providesDep + " */");
+      if (primitive != null) {
+        w("  public final " + fieldType(g.cacheVar, g.providesDep) + " " + g.cacheVar
+            + " = Lazies." + primitive.unboxed + "(new Binding<" + type + ">(this, " + index
+            + "));");
+      } else {
+        w("  public final Lazy<" + type + "> " + g.cacheVar
+            + " = new Binding<" + type + ">(this, " + index + ");");
+      }
+      w("");
+      w("  /** " + g.providesDep + " */");
+      w("  public " + type + " get_" + g.cacheVar + "() {");
+      if (options.countGets) {
+        w("    instrumentation.got(this, \"" + g.cacheVar + "\");");
+      }
+      w("    " + type + " object = " + value + ";");
+      w("    if (object == null) {");
+      String indent = "      ";
+      if (!confined) {
+        if (options.instrumented) {
+          w("      long start = System.nanoTime();");
+        }
+        if (locking) {
+          w("      bindingLock.lock();");
+          w("      try {");
+        } else {
+          w("      synchronized (this) {");
+        }
+        w("        object = " + value + ";");
+        w("        if (object == null) {");
+        indent = "          ";
+      }
+      w(indent + "startCreating(" + index + ", " + name + ");");
+      w(indent + "try {");
+      w(indent + "  object = Preconditions.checkNotNull(create_" + g.cacheVar
+          + "(), \"Null %s\", " + name + ");");
+      w(indent + "} catch (Exception e) {");
+      w(indent + "  throw creationFailure(e, " + name + ");");
+      w(indent + "}");
+      w(indent + value + " = object;");
+      if (!confined) {
+        if (options.instrumented) {
+          w("        } else {");
+          w("          instrumentation.waited(this, \"" + g.cacheVar
+              + "\", System.nanoTime() - start);");
+        }
+        w("        }");
+        if (locking) {
+          w("      } finally {");
+          w("        bindingLock.unlock();");
+          w("      }");
+        } else {
+          w("      }");
+        }
+      }
+      w("    }");
+      w("    return object;");
+      w("  }");
+      w("");
+      w("  private " + type + " create_" + g.cacheVar + "() throws Exception {");
+      emitCreateBody(g, "    ");
+      w("  }");
+      w("");
+    }
+
+    w("  private void startCreating(int binding, String name) {");
+    w("    if (started[binding]) {");
+    w("      throw new RuntimeException(\"Circular dependency or failed initialization for \" + name);");
+    w("    }");
+    w("    started[binding] = true;");
+    w("  }");
+    w("");
+    w("  private static RuntimeException creationFailure(Exception e, String name) {");
+    w("    if (e instanceof RuntimeException) {");
+    w("      return (RuntimeException) e;");
+    w("    }");
+    w("    return new RuntimeException(\"Error initializing \" + name, e);");
+    w("  }");
+    w("");
+    w("  private Object getBinding(int binding) {");
+    w("    switch (binding) {");
+    for (int index = 0; index < scopeVars.size(); index++) {
+      w("      case " + index + ": return get_" + scopeVars.get(index).cacheVar + "();");
+    }
+    w("      default: throw new AssertionError(binding);");
+    w("    }");
+    w("  }");
+    w("");
+    w("  private static final class Binding<T> implements Lazy<T> {");
+    w("    private final " + scopeName + " scope;");
+    w("    private final int index;");
+    w("");
+    w("    Binding(" + scopeName + " scope, int index) {");
+    w("      this.scope = scope;");
+    w("      this.index = index;");
+    w("    }");
+    w("");
+    w("    @SuppressWarnings(\"unchecked\")");
+    w("    @Override public T get() {");
+    w("      return (T) scope.getBinding(index);");
+    w("    }");
+    w("  }");
+    w("");
+  }
+
   private static String renderQualifiedType(QualifiedType q) {
     List<String> paramAnnotations = new ArrayList<>();
     for (String decl : q.qualifiers.getDeclarations()) {
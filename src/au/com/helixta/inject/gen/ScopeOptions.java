@@ -0,0 +1,62 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject.gen;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Code generation options for a single scope, as configured by
+ * {@link ScopeBuilder}.
+ *
+ * @author dan
+ */
+final class ScopeOptions {
+  /** Lazy implementation used for bindings. */
+  LazyImpl lazyImpl = LazyImpl.MONITOR;
+
+  /** Bindings are fields on the scope rather than a Lazy class each. */
+  boolean inlineBindings = false;
+
+  /** Generate reset support and a pool factory method. */
+  boolean resettable = false;
+
+  /** Generate freeze support and the snapshot class. */
+  boolean freezable = false;
+
+  /** Report binding creation to a BindingInstrumentation. */
+  boolean instrumented = false;
+
+  /** Also report every get, if instrumented. */
+  boolean countGets = false;
+
+  /** Factories that cache their instances. */
+  final List<MemoizedFactory> memoizedFactories = new ArrayList<>();
+
+  static final class MemoizedFactory {
+    final QualifiedType type;
+    final long maximumSize;
+
+    MemoizedFactory(QualifiedType type, long maximumSize) {
+      this.type = type;
+      this.maximumSize = maximumSize;
+    }
+
+    @Override public String toString() {
+      return type + " maximumSize " + maximumSize;
+    }
+  }
+
+  /**
+   * @return the maximum size of the factory's cache, or 0 if it doesn't
+   *         memoize
+   */
+  long maximumSize(QualifiedType factory) {
+    for (MemoizedFactory m : memoizedFactories) {
+      if (m.type.equals(factory)) {
+        return m.maximumSize;
+      }
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,160 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject.gen;
+
+import au.com.helixta.inject.GenerateScope;
+import au.com.helixta.inject.Scope;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.JavaFileObject;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates the scopes declared with {@link GenerateScope} as part of the
+ * normal compile, so there is no separate generator run.
+ *
+ * <p>
+ * Scope generation reflects over the classes involved, so they are loaded
+ * from this processor's class loader, which is the compile class path unless
+ * a separate processor path is given. Classes that are only being compiled in
+ * the same javac run can't be loaded, and are reported as errors.
+ *
+ * @author dan
+ */
+@SupportedAnnotationTypes("au.com.helixta.inject.GenerateScope")
+public class ScopeProcessor extends AbstractProcessor {
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    for (Element e : roundEnv.getElementsAnnotatedWith(GenerateScope.class)) {
+      try {
+        generate(e);
+      } catch (ClassNotFoundException ex) {
+        error(e, "Class " + ex.getMessage() + " is not on the class path. Classes used by "
+            + "generated scopes must be compiled before the scope is generated.");
+      } catch (IOException | RuntimeException ex) {
+        error(e, "Scope generation failed: " + ex);
+      }
+    }
+    return true;
+  }
+
+  private void generate(Element e) throws ClassNotFoundException, IOException {
+    Elements elements = processingEnv.getElementUtils();
+    Map<String, AnnotationValue> values = annotationValues(e, GenerateScope.class);
+    String pkg = elements.getPackageOf(e).getQualifiedName().toString();
+    String name = (String) values.get("value").getValue();
+
+    ScopeBuilder builder = ScopeBuilder.create(pkg, name);
+    for (Class<?> c : classes(values.get("instances"))) {
+      builder.instance(c);
+    }
+    builder.constructors(classes(values.get("constructors")).toArray(new Class<?>[0]));
+    builder.providers(classes(values.get("providers")).toArray(new Class<?>[0]));
+    for (AnnotationValue v : list(values.get("satisfy"))) {
+      Map<String, AnnotationValue> satisfy = elementValues((AnnotationMirror) v.getValue());
+      builder.satisfy(load(satisfy.get("value"))).with(load(satisfy.get("with")));
+    }
+    for (Class<?> c : classes(values.get("factories"))) {
+      builder.factory(c);
+    }
+    for (AnnotationValue v : list(values.get("memoizingFactories"))) {
+      Map<String, AnnotationValue> memoizing = elementValues((AnnotationMirror) v.getValue());
+      builder.memoizingFactory(load(memoizing.get("value")),
+          (Long) memoizing.get("maximumSize").getValue());
+    }
+    for (Class<?> c : classes(values.get("injectMethods"))) {
+      builder.injectMethods(c);
+    }
+    Class<?> parent = load(values.get("parent"));
+    if (parent != Scope.class) {
+      builder.parent(parent.asSubclass(Scope.class));
+    }
+    builder.lazies(LazyImpl.valueOf((String) values.get("lazies").getValue()));
+    if ((Boolean) values.get("inlineBindings").getValue()) {
+      builder.inlineBindings();
+    }
+    if ((Boolean) values.get("resettable").getValue()) {
+      builder.resettable();
+    }
+    if ((Boolean) values.get("freezable").getValue()) {
+      builder.freezable();
+    }
+    if ((Boolean) values.get("instrumented").getValue()) {
+      builder.instrumented((Boolean) values.get("countGets").getValue());
+    }
+
+    String source = builder.generateSource();
+    JavaFileObject file = processingEnv.getFiler().createSourceFile(pkg + "." + name, e);
+    try (Writer w = file.openWriter()) {
+      w.write(source);
+    }
+  }
+
+  private Map<String, AnnotationValue> annotationValues(Element e, Class<?> annotation) {
+    for (AnnotationMirror m : e.getAnnotationMirrors()) {
+      TypeElement type = (TypeElement) m.getAnnotationType().asElement();
+      if (type.getQualifiedName().contentEquals(annotation.getCanonicalName())) {
+        return elementValues(m);
+      }
+    }
+    throw new AssertionError(e + " is not annotated with " + annotation);
+  }
+
+  private Map<String, AnnotationValue> elementValues(AnnotationMirror m) {
+    Map<String, AnnotationValue> values = new HashMap<>();
+    for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+        : processingEnv.getElementUtils().getElementValuesWithDefaults(m).entrySet()) {
+      values.put(entry.getKey().getSimpleName().toString(), entry.getValue());
+    }
+    return values;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<? extends AnnotationValue> list(AnnotationValue value) {
+    return (List<? extends AnnotationValue>) value.getValue();
+  }
+
+  private List<Class<?>> classes(AnnotationValue value) throws ClassNotFoundException {
+    List<Class<?>> classes = new ArrayList<>();
+    for (AnnotationValue v : list(value)) {
+      classes.add(load(v));
+    }
+    return classes;
+  }
+
+  private Class<?> load(AnnotationValue value) throws ClassNotFoundException {
+    TypeMirror type = processingEnv.getTypeUtils().erasure((TypeMirror) value.getValue());
+    TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+    String binaryName = processingEnv.getElementUtils().getBinaryName(element).toString();
+    return Class.forName(binaryName, false, ScopeProcessor.class.getClassLoader());
+  }
+
+  private void error(Element e, String message) {
+    processingEnv.getMessager().printMessage(Kind.ERROR, message, e);
+  }
+}
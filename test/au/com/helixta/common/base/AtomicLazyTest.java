@@ -0,0 +1,236 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.common.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author dan
+ */
+public class AtomicLazyTest {
+  private static final int THREADS = 8;
+
+  @Test(timeout = 10000)
+  public void createsAtMostOnceUnderContention() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      for (int round = 0; round < 200; round++) {
+        final AtomicInteger creations = new AtomicInteger();
+        final AtomicLazy<Object> lazy = new AtomicLazy<Object>() {
+          @Override protected Object create() {
+            creations.incrementAndGet();
+            Thread.yield();
+            return new Object();
+          }
+        };
+
+        List<Future<Object>> results = getAll(executor, lazy);
+        Object first = results.get(0).get();
+        for (Future<Object> result : results) {
+          assertSame(first, result.get());
+        }
+        assertEquals(1, creations.get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void waitersSeeTheFailure() throws Exception {
+    final CountDownLatch waiting = new CountDownLatch(1);
+    final AtomicInteger creations = new AtomicInteger();
+    final AtomicLazy<Object> lazy = new AtomicLazy<Object>() {
+      @Override protected Object create() throws Exception {
+        creations.incrementAndGet();
+        waiting.await();
+        throw new Exception("broken");
+      }
+    };
+
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      List<Future<Object>> results = getAll(executor, lazy);
+      waiting.countDown();
+      for (Future<Object> result : results) {
+        try {
+          result.get();
+          fail();
+        } catch (ExecutionException e) {
+          assertTrue(e.getCause() instanceof RuntimeException);
+        }
+      }
+      assertEquals(1, creations.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void detectsCycle() {
+    final List<Lazy<Object>> self = new ArrayList<>();
+    AtomicLazy<Object> lazy = new AtomicLazy<Object>("cyclic") {
+      @Override protected Object create() {
+        return self.get(0).get();
+      }
+    };
+    self.add(lazy);
+
+    try {
+      lazy.get();
+      fail();
+    } catch (RuntimeException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("Circular dependency for cyclic"));
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void detectsCycleWhileOthersWait() throws Exception {
+    final CountDownLatch othersStarted = new CountDownLatch(1);
+    final List<Lazy<Object>> self = new ArrayList<>();
+    final AtomicLazy<Object> lazy = new AtomicLazy<Object>("cyclic") {
+      @Override protected Object create() throws Exception {
+        othersStarted.await();
+        // Give the other threads time to park
+        Thread.sleep(50);
+        return self.get(0).get();
+      }
+    };
+    self.add(lazy);
+
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      List<Future<Object>> results = getAll(executor, lazy);
+      othersStarted.countDown();
+      for (Future<Object> result : results) {
+        try {
+          result.get(5, TimeUnit.SECONDS);
+          fail();
+        } catch (ExecutionException e) {
+          // One thread sees the cycle, the rest see the failed initialization
+          assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("cyclic"));
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void keepsInterruptWhileWaiting() throws Exception {
+    final CountDownLatch creating = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicLazy<Object> lazy = new AtomicLazy<Object>() {
+      @Override protected Object create() throws Exception {
+        creating.countDown();
+        release.await();
+        return "done";
+      }
+    };
+
+    Thread creator = new Thread(new Runnable() {
+      @Override public void run() {
+        lazy.get();
+      }
+    });
+    creator.start();
+    creating.await();
+
+    final boolean[] interrupted = new boolean[1];
+    final Object[] got = new Object[1];
+    Thread waiter = new Thread(new Runnable() {
+      @Override public void run() {
+        got[0] = lazy.get();
+        interrupted[0] = Thread.currentThread().isInterrupted();
+      }
+    });
+    waiter.start();
+    waiter.interrupt();
+    Thread.sleep(50);
+    assertTrue(waiter.isAlive());
+
+    release.countDown();
+    waiter.join();
+    creator.join();
+    assertEquals("done", got[0]);
+    assertTrue(interrupted[0]);
+  }
+
+  @Test
+  public void resetCreatesAgain() {
+    final AtomicInteger creations = new AtomicInteger();
+    AtomicLazy<Integer> lazy = new AtomicLazy<Integer>() {
+      @Override protected Integer create() {
+        return creations.incrementAndGet();
+      }
+    };
+
+    assertEquals(Integer.valueOf(1), lazy.get());
+    assertEquals(Integer.valueOf(1), lazy.get());
+    lazy.reset();
+    assertEquals(Integer.valueOf(2), lazy.get());
+  }
+
+  @Test(timeout = 10000)
+  public void rejectsResetWhileCreating() throws Exception {
+    final CountDownLatch creating = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicLazy<Object> lazy = new AtomicLazy<Object>() {
+      @Override protected Object create() throws Exception {
+        creating.countDown();
+        release.await();
+        return "created";
+      }
+    };
+
+    // Nobody waits on the creator, so only the state shows it is in use
+    Thread creator = new Thread(new Runnable() {
+      @Override public void run() {
+        lazy.get();
+      }
+    });
+    creator.start();
+    creating.await();
+    try {
+      lazy.reset();
+      fail();
+    } catch (IllegalStateException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("Reset while in use"));
+    }
+
+    release.countDown();
+    creator.join();
+    assertEquals("created", lazy.get());
+  }
+
+  private static List<Future<Object>> getAll(ExecutorService executor, final Lazy<Object> lazy) {
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Future<Object>> results = new ArrayList<>();
+    for (int i = 0; i < THREADS; i++) {
+      results.add(executor.submit(new Callable<Object>() {
+        @Override public Object call() throws Exception {
+          start.await();
+          return lazy.get();
+        }
+      }));
+    }
+    start.countDown();
+    return results;
+  }
+}
@@ -0,0 +1,177 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.common.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author dan
+ */
+public class FutureLazyTest {
+  private static final int THREADS = 8;
+
+  /** Counts its creations, returning a future completed by the test. */
+  private static class Pending extends FutureLazy<String> {
+    final AtomicInteger creations = new AtomicInteger();
+    volatile CompletableFuture<String> future = new CompletableFuture<>();
+
+    Pending() {
+      super("pending");
+    }
+
+    @Override protected CompletableFuture<String> createAsync() {
+      creations.incrementAndGet();
+      return future;
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void startsAtMostOnceUnderContention() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      for (int round = 0; round < 200; round++) {
+        final Pending lazy = new Pending();
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+          results.add(executor.submit(new Callable<String>() {
+            @Override public String call() {
+              return lazy.get();
+            }
+          }));
+        }
+        lazy.future.complete("value");
+        for (Future<String> result : results) {
+          assertEquals("value", result.get());
+        }
+        assertEquals(1, lazy.creations.get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void getAsyncDoesNotBlock() {
+    Pending lazy = new Pending();
+    CompletableFuture<String> f = lazy.getAsync();
+    assertFalse(f.isDone());
+    assertSame(f, lazy.getAsync());
+    lazy.future.complete("value");
+    assertEquals("value", f.join());
+    assertEquals(1, lazy.creations.get());
+  }
+
+  @Test
+  public void failedFutureFailsEveryGet() {
+    Pending lazy = new Pending();
+    lazy.future.completeExceptionally(new Exception("broken"));
+    for (int i = 0; i < 2; i++) {
+      try {
+        lazy.get();
+        fail();
+      } catch (RuntimeException e) {
+        assertEquals("Error initializing pending", e.getMessage());
+        assertEquals("broken", e.getCause().getMessage());
+      }
+    }
+    assertEquals(1, lazy.creations.get());
+  }
+
+  @Test
+  public void runtimeExceptionsAreNotWrapped() {
+    Pending lazy = new Pending();
+    IllegalStateException failure = new IllegalStateException();
+    lazy.future.completeExceptionally(failure);
+    try {
+      lazy.get();
+      fail();
+    } catch (IllegalStateException e) {
+      assertSame(failure, e);
+    }
+  }
+
+  @Test
+  public void failureToStartFailsTheFuture() {
+    FutureLazy<String> lazy = new FutureLazy<String>("unstarted") {
+      @Override protected CompletableFuture<String> createAsync() throws Exception {
+        throw new Exception("can't start");
+      }
+    };
+    assertTrue(lazy.getAsync().isCompletedExceptionally());
+    try {
+      lazy.get();
+      fail();
+    } catch (RuntimeException e) {
+      assertEquals("can't start", e.getCause().getMessage());
+    }
+  }
+
+  @Test
+  public void rejectsNulls() {
+    FutureLazy<String> nullFuture = new FutureLazy<String>("nullFuture") {
+      @Override protected CompletableFuture<String> createAsync() {
+        return null;
+      }
+    };
+    try {
+      nullFuture.get();
+      fail();
+    } catch (NullPointerException e) {
+      assertEquals("Null future for nullFuture", e.getMessage());
+    }
+
+    FutureLazy<String> nullValue = new FutureLazy<String>("nullValue") {
+      @Override protected CompletableFuture<String> createAsync() {
+        return CompletableFuture.completedFuture(null);
+      }
+    };
+    try {
+      nullValue.get();
+      fail();
+    } catch (NullPointerException e) {
+      assertEquals("Null nullValue", e.getMessage());
+    }
+  }
+
+  @Test
+  public void detectsCreationWaitingForItself() {
+    FutureLazy<String> lazy = new FutureLazy<String>("cyclic") {
+      @Override protected CompletableFuture<String> createAsync() {
+        return CompletableFuture.completedFuture(get() + " again");
+      }
+    };
+    try {
+      lazy.get();
+      fail();
+    } catch (RuntimeException e) {
+      assertEquals("Circular dependency for cyclic", e.getMessage());
+    }
+  }
+
+  @Test
+  public void resetStartsAgain() {
+    Pending lazy = new Pending();
+    lazy.future.complete("first");
+    assertEquals("first", lazy.get());
+
+    lazy.reset();
+    lazy.future = CompletableFuture.completedFuture("second");
+    assertEquals("second", lazy.get());
+    assertEquals(2, lazy.creations.get());
+  }
+}
@@ -0,0 +1,163 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.common.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author dan
+ */
+public class LockingLazyTest {
+  private static final int THREADS = 8;
+
+  @Test(timeout = 10000)
+  public void createsAtMostOnceUnderContention() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      for (int round = 0; round < 200; round++) {
+        final AtomicInteger creations = new AtomicInteger();
+        final LockingLazy<Object> lazy = new LockingLazy<Object>() {
+          @Override protected Object create() {
+            creations.incrementAndGet();
+            Thread.yield();
+            return new Object();
+          }
+        };
+
+        List<Future<Object>> results = getAll(executor, lazy);
+        Object first = results.get(0).get();
+        for (Future<Object> result : results) {
+          assertSame(first, result.get());
+        }
+        assertEquals(1, creations.get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void waitersSeeTheFailure() throws Exception {
+    final CountDownLatch waiting = new CountDownLatch(1);
+    final AtomicInteger creations = new AtomicInteger();
+    final LockingLazy<Object> lazy = new LockingLazy<Object>("broken") {
+      @Override protected Object create() throws Exception {
+        creations.incrementAndGet();
+        waiting.await();
+        throw new Exception("broken");
+      }
+    };
+
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      List<Future<Object>> results = getAll(executor, lazy);
+      waiting.countDown();
+      int initializing = 0;
+      for (Future<Object> result : results) {
+        try {
+          result.get();
+          fail();
+        } catch (ExecutionException e) {
+          String message = e.getCause().getMessage();
+          if (message.equals("Error initializing broken")) {
+            initializing++;
+          } else {
+            assertEquals("Circular dependency or failed initialization for broken", message);
+          }
+        }
+      }
+      assertEquals(1, initializing);
+      assertEquals(1, creations.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void detectsCycle() {
+    final List<Lazy<Object>> self = new ArrayList<>();
+    LockingLazy<Object> lazy = new LockingLazy<Object>("cyclic") {
+      @Override protected Object create() {
+        return self.get(0).get();
+      }
+    };
+    self.add(lazy);
+
+    try {
+      lazy.get();
+      fail();
+    } catch (RuntimeException e) {
+      assertEquals("Circular dependency or failed initialization for cyclic", e.getMessage());
+    }
+  }
+
+  @Test
+  public void rejectsNull() {
+    LockingLazy<Object> lazy = new LockingLazy<Object>("nothing") {
+      @Override protected Object create() {
+        return null;
+      }
+    };
+    try {
+      lazy.get();
+      fail();
+    } catch (NullPointerException e) {
+      assertEquals("Null nothing", e.getMessage());
+    }
+  }
+
+  @Test
+  public void resetCreatesAgain() {
+    final AtomicInteger creations = new AtomicInteger();
+    LockingLazy<Integer> lazy = new LockingLazy<Integer>() {
+      @Override protected Integer create() throws Exception {
+        if (creations.incrementAndGet() == 1) {
+          throw new Exception("first fails");
+        }
+        return creations.get();
+      }
+    };
+
+    try {
+      lazy.get();
+      fail();
+    } catch (RuntimeException e) {
+      assertEquals("first fails", e.getCause().getMessage());
+    }
+    lazy.reset();
+    assertEquals(Integer.valueOf(2), lazy.get());
+    assertEquals(Integer.valueOf(2), lazy.get());
+    lazy.reset();
+    assertEquals(Integer.valueOf(3), lazy.get());
+  }
+
+  private static List<Future<Object>> getAll(ExecutorService executor, final Lazy<Object> lazy) {
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Future<Object>> results = new ArrayList<>();
+    for (int i = 0; i < THREADS; i++) {
+      results.add(executor.submit(new Callable<Object>() {
+        @Override public Object call() throws Exception {
+          start.await();
+          return lazy.get();
+        }
+      }));
+    }
+    start.countDown();
+    return results;
+  }
+}
@@ -0,0 +1,80 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.common.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author dan
+ */
+public class RacyLazyTest {
+
+  @Test
+  public void keepsCreatedValue() {
+    final AtomicInteger creations = new AtomicInteger();
+    RacyLazy<Object> lazy = new RacyLazy<Object>() {
+      @Override protected Object create() {
+        creations.incrementAndGet();
+        return new Object();
+      }
+    };
+    Object first = lazy.get();
+    assertSame(first, lazy.get());
+    assertEquals(1, creations.get());
+  }
+
+  @Test
+  public void retriesFailedCreation() {
+    final AtomicInteger creations = new AtomicInteger();
+    RacyLazy<Integer> lazy = new RacyLazy<Integer>() {
+      @Override protected Integer create() {
+        if (creations.incrementAndGet() == 1) {
+          throw new IllegalStateException("not yet");
+        }
+        return creations.get();
+      }
+    };
+    try {
+      lazy.get();
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("not yet", e.getMessage());
+    }
+    assertEquals(Integer.valueOf(2), lazy.get());
+    assertEquals(Integer.valueOf(2), lazy.get());
+  }
+
+  @Test
+  public void rejectsNull() {
+    RacyLazy<Object> lazy = new RacyLazy<Object>() {
+      @Override protected Object create() {
+        return null;
+      }
+    };
+    try {
+      lazy.get();
+      fail();
+    } catch (NullPointerException e) {
+      assertEquals("Lazy created null", e.getMessage());
+    }
+  }
+
+  @Test
+  public void resetCreatesAgain() {
+    final AtomicInteger creations = new AtomicInteger();
+    RacyLazy<Integer> lazy = new RacyLazy<Integer>() {
+      @Override protected Integer create() {
+        return creations.incrementAndGet();
+      }
+    };
+    assertEquals(Integer.valueOf(1), lazy.get());
+    lazy.reset();
+    assertEquals(Integer.valueOf(2), lazy.get());
+  }
+}
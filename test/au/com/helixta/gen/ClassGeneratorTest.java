@@ -0,0 +1,212 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.gen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import au.com.helixta.gen.ClassGenerator.ClassBuilder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * @author dan
+ */
+public class ClassGeneratorTest {
+  private Path dir;
+  private File buildDir;
+  private ClassGenerator generator;
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("class-generator");
+    buildDir = dir.resolve("build").toFile();
+    generator = new ClassGenerator(dir.resolve("gen").toString(), buildDir.toString());
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    executor.shutdownNow();
+    try (Stream<Path> files = Files.walk(dir)) {
+      files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+  }
+
+  private ClassBuilder write(String pkg, String name, String... body) throws IOException {
+    ClassWriter w = generator.writerFor(pkg, name);
+    w.println("package " + pkg + ";");
+    w.println("public class " + name + " {");
+    for (String line : body) {
+      w.println("  " + line);
+    }
+    w.println("}");
+    return w.closeWithBuilder();
+  }
+
+  private Object call(String className, String method) throws Exception {
+    try (URLClassLoader loader = new URLClassLoader(new URL[] {buildDir.toURI().toURL()})) {
+      Method m = loader.loadClass(className).getMethod(method);
+      return m.invoke(null);
+    }
+  }
+
+  @Test
+  public void buildAllCompilesPendingClassesTogether() throws Exception {
+    write("gen.a", "First", "public static String name() { return Second.NAME; }");
+    write("gen.a", "Second", "static final String NAME = \"second\";");
+
+    generator.buildAll();
+    assertEquals("second", call("gen.a.First", "name"));
+
+    // Nothing left to compile
+    generator.buildAll();
+  }
+
+  @Test
+  public void parallelBuildCompilesEachPackage() throws Exception {
+    for (String pkg : new String[] {"gen.a", "gen.b", "gen.c"}) {
+      write(pkg, "Named", "public static String name() { return \"" + pkg + "\"; }");
+    }
+
+    generator.buildAll(executor);
+    for (String pkg : new String[] {"gen.a", "gen.b", "gen.c"}) {
+      assertEquals(pkg, call(pkg + ".Named", "name"));
+    }
+  }
+
+  @Test
+  public void parallelBuildReportsErrorsPerFile() throws Exception {
+    ClassBuilder good = write("gen.a", "Good", "public static String name() { return \"a\"; }");
+    ClassBuilder bad = write("gen.b", "Bad", "int broken() { return \"b\"; }");
+
+    try {
+      generator.buildAll(executor);
+      fail();
+    } catch (CompilationException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("Bad.java"));
+      assertFalse(e.getMessage(), e.getMessage().contains("Good.java"));
+      boolean error = false;
+      for (Diagnostic<? extends JavaFileObject> d : e.getDiagnostics()) {
+        if (d.getKind() == Diagnostic.Kind.ERROR) {
+          assertTrue(d.getSource().getName(), d.getSource().getName().endsWith("Bad.java"));
+          assertEquals(1, d.getLineNumber() - 2);
+          error = true;
+        }
+      }
+      assertTrue(error);
+    }
+
+    // The good package compiled, the bad one is still pending
+    assertEquals("a", call("gen.a.Good", "name"));
+    assertTrue(good.diagnostics().isEmpty());
+    try {
+      generator.buildAll();
+      fail();
+    } catch (CompilationException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("Bad.java"));
+    }
+    assertTrue(bad.diagnostics().isEmpty());
+  }
+
+  @Test
+  public void exposesWarningsOfCompiledFiles() throws Exception {
+    ClassBuilder old = write("gen.a", "Old",
+        "@Deprecated(forRemoval = true) public static void old() {}");
+    ClassBuilder user = write("gen.b", "User", "static { gen.a.Old.old(); }");
+    generator.buildAll();
+
+    assertTrue(old.diagnostics().isEmpty());
+    List<Diagnostic<? extends JavaFileObject>> warnings = user.diagnostics();
+    assertEquals(1, warnings.size());
+    assertSame(Diagnostic.Kind.MANDATORY_WARNING, warnings.get(0).getKind());
+  }
+
+  @Test(timeout = 10000)
+  public void builtClassWaitsForBatchCompilingIt() throws Exception {
+    final ClassBuilder builder = write("gen.a", "Waited");
+    File classFile = new File(buildDir, "gen/a/Waited.class");
+
+    // One thread, held up so the batch's task queues behind
+    final ExecutorService held = Executors.newSingleThreadExecutor();
+    final CountDownLatch release = new CountDownLatch(1);
+    try {
+      held.execute(new Runnable() {
+        @Override public void run() {
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+      Thread batch = new Thread(new Runnable() {
+        @Override public void run() {
+          try {
+            generator.buildAll(held);
+          } catch (InterruptedException e) {
+            throw new AssertionError(e);
+          }
+        }
+      });
+      batch.start();
+      awaitWaiting(batch);
+
+      final Throwable[] thrown = new Throwable[1];
+      Thread single = new Thread(new Runnable() {
+        @Override public void run() {
+          try {
+            builder.builtClass();
+          } catch (Throwable t) {
+            thrown[0] = t;
+          }
+        }
+      });
+      single.start();
+      awaitWaiting(single);
+      assertFalse(classFile.exists());
+
+      release.countDown();
+      batch.join();
+      single.join();
+      assertTrue(classFile.exists());
+      // buildDir isn't on the class path, so it can't be loaded
+      assertTrue(String.valueOf(thrown[0]),
+          thrown[0].getCause() instanceof ClassNotFoundException);
+    } finally {
+      held.shutdownNow();
+      held.awaitTermination(5, TimeUnit.SECONDS);
+    }
+  }
+
+  private static void awaitWaiting(Thread thread) throws InterruptedException {
+    while (thread.getState() != Thread.State.WAITING) {
+      assertTrue(thread.isAlive());
+      Thread.sleep(1);
+    }
+  }
+}
@@ -0,0 +1,176 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.gen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import au.com.helixta.gen.ClassGenerator.ClassBuilder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+
+/**
+ * @author dan
+ */
+public class InMemoryClassGeneratorTest {
+  private Path dir;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("in-memory");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    try (Stream<Path> files = Files.walk(dir)) {
+      files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+  }
+
+  private static ClassBuilder write(ClassGenerator generator, String pkg, String name,
+      String... body) throws IOException {
+    ClassWriter w = generator.writerFor(pkg, name);
+    w.println("package " + pkg + ";");
+    w.println("public class " + name + " {");
+    for (String line : body) {
+      w.println("  " + line);
+    }
+    w.println("}");
+    return w.closeWithBuilder();
+  }
+
+  private static Object call(Class<?> c, String method) throws Exception {
+    return c.getMethod(method).invoke(null);
+  }
+
+  /** Compiles a class with javac into a directory of its own. */
+  private File compileToDirectory(String pkg, String name, String body) throws IOException {
+    File src = dir.resolve("src/" + pkg.replace('.', '/') + "/" + name + ".java").toFile();
+    src.getParentFile().mkdirs();
+    Files.write(src.toPath(),
+        ("package " + pkg + "; public class " + name + " { " + body + " }").getBytes("UTF-8"));
+    File classes = dir.resolve("classes").toFile();
+    classes.mkdirs();
+    JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+    assertEquals(0, javac.run(null, null, null, "-d", classes.getPath(), src.getPath()));
+    return classes;
+  }
+
+  @Test
+  public void compilesAndLoadsWithoutFiles() throws Exception {
+    ClassGenerator generator = ClassGenerator.inMemory();
+    assertTrue(generator.isInMemory());
+    ClassBuilder builder = write(generator, "gen.mem", "Hello",
+        "public static String hello() { return \"hello\"; }");
+
+    Class<?> c = builder.builtClass();
+    assertSame(generator.classLoader(), c.getClassLoader());
+    assertEquals("hello", call(c, "hello"));
+    assertSame(c, builder.builtClass());
+  }
+
+  @Test
+  public void laterBatchesSeeEarlierClasses() throws Exception {
+    ClassGenerator generator = ClassGenerator.inMemory();
+    write(generator, "gen.mem", "First", "public static final String NAME = \"first\";");
+    generator.buildAll();
+    ClassBuilder second = write(generator, "gen.mem", "Second",
+        "public static String name() { return First.NAME + \" then second\"; }");
+
+    assertEquals("first then second", call(second.builtClass(), "name"));
+  }
+
+  @Test
+  public void compilesAgainstClassesOnlyTheParentSees() throws Exception {
+    File classes = compileToDirectory("gen.parent", "Greeting",
+        "public static String text() { return \"from parent\"; }");
+    try (URLClassLoader parent = new URLClassLoader(new URL[] {classes.toURI().toURL()},
+        getClass().getClassLoader())) {
+      ClassGenerator generator = ClassGenerator.inMemory(parent);
+      ClassBuilder builder = write(generator, "gen.mem", "UsesParent",
+          "public static String text() { return gen.parent.Greeting.text(); }");
+      assertEquals("from parent", call(builder.builtClass(), "text"));
+    }
+  }
+
+  @Test
+  public void compilesAgainstJarsOnlyTheParentSees() throws Exception {
+    File classes = compileToDirectory("gen.jarred", "Greeting",
+        "public static String text() { return \"from jar\"; }");
+    File jar = dir.resolve("greeting.jar").toFile();
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+      // Packages are found through their directory entries, as jar writes them
+      for (String entry : new String[] {"gen/", "gen/jarred/"}) {
+        out.putNextEntry(new ZipEntry(entry));
+        out.closeEntry();
+      }
+      out.putNextEntry(new ZipEntry("gen/jarred/Greeting.class"));
+      out.write(Files.readAllBytes(classes.toPath().resolve("gen/jarred/Greeting.class")));
+      out.closeEntry();
+    }
+
+    try (URLClassLoader parent = new URLClassLoader(new URL[] {jar.toURI().toURL()},
+        getClass().getClassLoader())) {
+      ClassGenerator generator = ClassGenerator.inMemory(parent);
+      ClassBuilder builder = write(generator, "gen.mem", "UsesJar",
+          "public static String text() { return gen.jarred.Greeting.text(); }");
+      assertEquals("from jar", call(builder.builtClass(), "text"));
+    }
+  }
+
+  @Test
+  public void listsParentPackagesOnce() throws Exception {
+    File classes = compileToDirectory("gen.counted", "Greeting",
+        "public static String text() { return \"counted\"; }");
+    final AtomicInteger listings = new AtomicInteger();
+    try (URLClassLoader parent = new URLClassLoader(new URL[] {classes.toURI().toURL()},
+        getClass().getClassLoader()) {
+      @Override public Enumeration<URL> getResources(String name) throws IOException {
+        if (name.equals("gen/counted")) {
+          listings.incrementAndGet();
+        }
+        return super.getResources(name);
+      }
+    }) {
+      ClassGenerator generator = ClassGenerator.inMemory(parent);
+      write(generator, "gen.mem", "First",
+          "public static String text() { return gen.counted.Greeting.text(); }").builtClass();
+      int first = listings.get();
+      assertTrue(first > 0);
+
+      ClassBuilder second = write(generator, "gen.mem", "Second",
+          "public static String text() { return gen.counted.Greeting.text(); }");
+      assertEquals("counted", call(second.builtClass(), "text"));
+      assertEquals(first, listings.get());
+    }
+  }
+
+  @Test
+  public void writesNoFiles() throws Exception {
+    ClassGenerator generator = ClassGenerator.inMemory();
+    write(generator, "gen.mem", "NoFiles").builtClass();
+    assertFalse(new File("gen/mem/NoFiles.java").exists());
+    assertFalse(new File("gen/mem/NoFiles.class").exists());
+  }
+}
@@ -0,0 +1,192 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import au.com.helixta.common.base.Lazy;
+import au.com.helixta.common.base.ThreadsafeLazy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author dan
+ */
+public class BindingGraphTest {
+  private final List<String> created = Collections.synchronizedList(new ArrayList<String>());
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private Lazy<String> recording(final String name) {
+    return recording(name, null);
+  }
+
+  /** Records its creation, after running body. */
+  private Lazy<String> recording(final String name, final Runnable body) {
+    return new ThreadsafeLazy<String>(name) {
+      @Override protected String create() {
+        if (body != null) {
+          body.run();
+        }
+        created.add(name);
+        return name;
+      }
+    };
+  }
+
+  /** app depends on cacheA and cacheB, which both depend on db. */
+  private BindingGraph.Builder diamond(Runnable cacheBody) {
+    return BindingGraph.builder()
+        .binding("app", recording("app"))
+        .binding("cacheA", recording("cacheA", cacheBody))
+        .binding("cacheB", recording("cacheB", cacheBody))
+        .binding("db", recording("db"))
+        .dependency("app", "cacheA")
+        .dependency("app", "cacheB")
+        .dependency("cacheA", "db")
+        .dependency("cacheB", "db");
+  }
+
+  private static List<String> names(BindingGraph graph, int[] bindings) {
+    List<String> names = new ArrayList<>();
+    for (int i : bindings) {
+      names.add(graph.name(i));
+    }
+    return names;
+  }
+
+  @Test
+  public void keepsBindingsInDependencyOrder() {
+    BindingGraph graph = diamond(null).build();
+    assertEquals(4, graph.size());
+    assertEquals("db", graph.name(0));
+    assertEquals("app", graph.name(3));
+    for (int i = 0; i < graph.size(); i++) {
+      for (int d : graph.dependencies(i)) {
+        assertTrue(d < i);
+      }
+    }
+    int app = graph.indexOf("app");
+    assertEquals(Arrays.asList("cacheA", "cacheB"), names(graph, graph.dependencies(app)));
+    assertEquals(Arrays.asList("cacheA", "cacheB"),
+        names(graph, graph.dependents(graph.indexOf("db"))));
+    assertEquals(-1, graph.indexOf("missing"));
+  }
+
+  @Test
+  public void resolvesAliases() {
+    BindingGraph graph = BindingGraph.builder()
+        .binding("impl", recording("impl"))
+        .binding("user", recording("user"))
+        .alias("iface", "impl")
+        .dependency("user", "iface")
+        .build();
+    assertEquals(Arrays.asList("impl"), names(graph, graph.dependencies(graph.indexOf("user"))));
+  }
+
+  @Test
+  public void rejectsCycles() {
+    try {
+      BindingGraph.builder()
+          .binding("a", recording("a"))
+          .binding("b", recording("b"))
+          .binding("c", recording("c"))
+          .dependency("a", "b")
+          .dependency("b", "a")
+          .dependency("c", "a")
+          .build();
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals("Dependency cycle among [a, b, c]", e.getMessage());
+    }
+  }
+
+  @Test
+  public void rejectsUnknownDependencies() {
+    try {
+      BindingGraph.builder().binding("a", recording("a")).dependency("a", "b").build();
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals("a depends on unknown binding b", e.getMessage());
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void warmUpCreatesIndependentBindingsInParallel() throws Exception {
+    final CyclicBarrier bothCaches = new CyclicBarrier(2);
+    Runnable meet = new Runnable() {
+      @Override public void run() {
+        // Only completes if the two caches are created at the same time
+        try {
+          bothCaches.await(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+
+    diamond(meet).build().warmUp(executor).get();
+    assertEquals(4, created.size());
+    assertEquals("db", created.get(0));
+    assertEquals("app", created.get(3));
+  }
+
+  @Test(timeout = 10000)
+  public void warmUpNeedsOnlyOneThread() throws Exception {
+    ExecutorService single = Executors.newSingleThreadExecutor();
+    try {
+      diamond(null).build().warmUp(single).get();
+      assertEquals(Arrays.asList("db", "cacheA", "cacheB", "app"), created);
+    } finally {
+      single.shutdownNow();
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void warmUpStopsAtFailure() throws Exception {
+    Runnable fail = new Runnable() {
+      @Override public void run() {
+        throw new IllegalStateException("cache failed");
+      }
+    };
+    ExecutorService single = Executors.newSingleThreadExecutor();
+    try {
+      diamond(fail).build().warmUp(single).get();
+      fail();
+    } catch (ExecutionException e) {
+      assertEquals("cache failed", e.getCause().getMessage());
+    } finally {
+      single.shutdownNow();
+    }
+    assertEquals(Arrays.asList("db"), created);
+  }
+
+  @Test(timeout = 10000)
+  public void warmUpOfEmptyGraphIsDone() throws Exception {
+    assertTrue(BindingGraph.builder().build().warmUp(executor).isDone());
+    assertTrue(new Scope().warmUp(executor).isDone());
+  }
+}
@@ -0,0 +1,110 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author dan
+ */
+public class ConfinedScopeTest {
+
+  private static class TestScope extends ConfinedScope {
+    @Override protected void resetBindings() {}
+  }
+
+  private final List<String> closed = new ArrayList<>();
+
+  private AutoCloseable recording(final String name) {
+    return new AutoCloseable() {
+      @Override public void close() {
+        closed.add(name);
+      }
+    };
+  }
+
+  @Test
+  public void closesInReverseRegistrationOrder() {
+    TestScope scope = new TestScope();
+    scope.addObjectToClose(recording("a"), "a");
+    scope.addObjectToClose(recording("b"));
+    scope.addObjectToClose(recording("c"), "c");
+
+    scope.close();
+    assertEquals(Arrays.asList("c", "b", "a"), closed);
+    scope.close();
+    assertEquals(3, closed.size());
+  }
+
+  @Test
+  public void registrationAfterCloseClosesLate() {
+    TestScope scope = new TestScope();
+    scope.close();
+    try {
+      scope.addObjectToClose(recording("late"), "late");
+      fail();
+    } catch (IllegalStateException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("closed while creating late"));
+    }
+    assertEquals(Arrays.asList("late"), closed);
+  }
+
+  @Test
+  public void closedScopeFailsOpenCheck() {
+    TestScope scope = new TestScope();
+    scope.checkOpen();
+    scope.close();
+    try {
+      scope.checkOpen();
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("Scope is closed", e.getMessage());
+    }
+  }
+
+  @Test
+  public void resetClearsCloseList() {
+    TestScope scope = new TestScope();
+    scope.addObjectToClose(recording("first"));
+    scope.close();
+    assertNull(scope.takeObjectsToClose());
+
+    scope.reset();
+    scope.checkOpen();
+    scope.addObjectToClose(recording("second"));
+    scope.close();
+    assertEquals(Arrays.asList("first", "second"), closed);
+  }
+
+  @Test
+  public void useFromAnotherThreadFailsAssertion() throws Exception {
+    final TestScope scope = new TestScope();
+    final Throwable[] thrown = new Throwable[1];
+    Thread other = new Thread(new Runnable() {
+      @Override public void run() {
+        try {
+          scope.addObjectToClose(recording("other"));
+        } catch (Throwable t) {
+          thrown[0] = t;
+        }
+      }
+    });
+    other.start();
+    other.join();
+
+    boolean assertions = false;
+    assert assertions = true;
+    if (assertions) {
+      assertTrue(String.valueOf(thrown[0]), thrown[0] instanceof AssertionError);
+    }
+  }
+}
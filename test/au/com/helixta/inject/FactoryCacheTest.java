@@ -0,0 +1,170 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.cache.CacheLoader;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author dan
+ */
+public class FactoryCacheTest {
+
+  private static class Instance implements AutoCloseable {
+    private final String key;
+    private final boolean failClose;
+    private int closes = 0;
+
+    Instance(String key, boolean failClose) {
+      this.key = key;
+      this.failClose = failClose;
+    }
+
+    @Override public void close() throws Exception {
+      closes++;
+      if (failClose) {
+        throw new Exception("can't close " + key);
+      }
+    }
+  }
+
+  /** Creates instances, failing to close those whose key starts with "bad". */
+  private static class Loader extends CacheLoader<String, Instance> {
+    private final List<Instance> created = Collections.synchronizedList(
+        new ArrayList<Instance>());
+
+    @Override public Instance load(String key) {
+      if (key.equals("broken")) {
+        throw new IllegalArgumentException("broken key");
+      }
+      Instance instance = new Instance(key, key.startsWith("bad"));
+      created.add(instance);
+      return instance;
+    }
+  }
+
+  private final Scope scope = new Scope() {
+    @Override protected void resetBindings() {}
+  };
+  private final Loader loader = new Loader();
+
+  @Test
+  public void returnsSameInstanceForEqualKeys() {
+    FactoryCache<String, Instance> cache = new FactoryCache<>(scope, "test", 10, loader);
+    Instance a = cache.get("a");
+    assertSame(a, cache.get(new String("a")));
+    assertNotSame(a, cache.get("b"));
+    assertEquals(2, loader.created.size());
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void closesEvictedInstances() {
+    FactoryCache<String, Instance> cache = new FactoryCache<>(scope, "test", 2, loader);
+    Instance a = cache.get("a");
+    Instance b = cache.get("b");
+    // a is now the most recently used
+    cache.get("a");
+    cache.get("c");
+
+    assertEquals(2, cache.size());
+    assertEquals(1, b.closes);
+    assertEquals(0, a.closes);
+
+    // Evicted instances are created again
+    Instance b2 = cache.get("b");
+    assertNotSame(b, b2);
+    assertEquals(0, b2.closes);
+  }
+
+  @Test
+  public void closesCachedInstancesWithScope() {
+    FactoryCache<String, Instance> cache = new FactoryCache<>(scope, "test", 10, loader);
+    Instance a = cache.get("a");
+    Instance b = cache.get("b");
+
+    scope.close();
+    assertEquals(1, a.closes);
+    assertEquals(1, b.closes);
+    assertEquals(0, cache.size());
+
+    try {
+      cache.get("a");
+      fail();
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void reportsEvictionFailuresOnClose() {
+    FactoryCache<String, Instance> cache = new FactoryCache<>(scope, "test", 1, loader);
+    cache.get("bad1");
+    cache.get("bad2");
+    cache.get("ok");
+    assertEquals(2, loader.created.get(0).closes + loader.created.get(1).closes);
+
+    try {
+      scope.close();
+      fail();
+    } catch (RuntimeException e) {
+      Throwable problem = e.getCause();
+      assertTrue(problem.getMessage(), problem.getMessage().contains("instances of test"));
+      assertEquals(1, problem.getSuppressed().length);
+    }
+    assertEquals(1, loader.created.get(2).closes);
+  }
+
+  @Test
+  public void propagatesLoaderFailures() {
+    FactoryCache<String, Instance> cache = new FactoryCache<>(scope, "test", 10, loader);
+    try {
+      cache.get("broken");
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals("broken key", e.getMessage());
+    }
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void reopensAfterReset() {
+    FactoryCache<String, Instance> cache = new FactoryCache<>(scope, "test", 10, loader);
+    Instance a = cache.get("a");
+    scope.close();
+    scope.reset();
+    cache.reset();
+
+    Instance a2 = cache.get("a");
+    assertNotSame(a, a2);
+
+    // Registered with the scope again
+    scope.close();
+    assertEquals(1, a2.closes);
+  }
+
+  @Test
+  public void closesInstanceFrozenScopeCantTakeOn() {
+    FactoryCache<String, Instance> cache = new FactoryCache<>(scope, "test", 10, loader);
+    scope.frozen();
+    try {
+      cache.get("a");
+      fail();
+    } catch (IllegalStateException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("frozen"));
+    }
+    assertEquals(1, loader.created.get(0).closes);
+    assertEquals(0, cache.size());
+  }
+}
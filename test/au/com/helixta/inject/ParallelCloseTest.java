@@ -0,0 +1,280 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import au.com.helixta.common.base.Lazies;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Tests {@link Scope#close(Executor, long, TimeUnit)}.
+ *
+ * @author dan
+ */
+public class ParallelCloseTest {
+
+  /**
+   * app depends on cacheA and cacheB, which both depend on db. c1, c2 and c3
+   * are independent.
+   */
+  private static class GraphScope extends Scope {
+    @Override public BindingGraph bindingGraph() {
+      BindingGraph.Builder b = BindingGraph.builder();
+      for (String name : new String[] {"db", "cacheA", "cacheB", "app", "c1", "c2", "c3"}) {
+        b.binding(name, Lazies.eager(name));
+      }
+      return b
+          .dependency("cacheA", "db")
+          .dependency("cacheB", "db")
+          .dependency("app", "cacheA")
+          .dependency("app", "cacheB")
+          .build();
+    }
+  }
+
+  private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private AutoCloseable recording(final String name) {
+    return recording(name, null);
+  }
+
+  /** Records the start and end of its close, running body in between. */
+  private AutoCloseable recording(final String name, final Body body) {
+    return new AutoCloseable() {
+      @Override public void close() throws Exception {
+        events.add(name + " start");
+        try {
+          if (body != null) {
+            body.run();
+          }
+        } finally {
+          events.add(name + " end");
+        }
+      }
+    };
+  }
+
+  private interface Body {
+    void run() throws Exception;
+  }
+
+  @Test(timeout = 10000)
+  public void closesDependentsFirstAndIndependentsInParallel() {
+    final CyclicBarrier bothCaches = new CyclicBarrier(2);
+    Body meet = new Body() {
+      @Override public void run() throws Exception {
+        // Only completes if the two caches are closed at the same time
+        bothCaches.await(5, TimeUnit.SECONDS);
+      }
+    };
+
+    Scope scope = new GraphScope();
+    scope.addObjectToClose(recording("db"), "db");
+    scope.addObjectToClose(recording("cacheA", meet), "cacheA");
+    scope.addObjectToClose(recording("cacheB", meet), "cacheB");
+    scope.addObjectToClose(recording("app"), "app");
+
+    scope.close(executor, 5, TimeUnit.SECONDS);
+
+    assertEquals(8, events.size());
+    assertBefore("app end", "cacheA start");
+    assertBefore("app end", "cacheB start");
+    assertBefore("cacheA end", "db start");
+    assertBefore("cacheB end", "db start");
+  }
+
+  @Test(timeout = 10000)
+  public void timeoutDoesNotHoldUpDependencies() {
+    Scope scope = new GraphScope();
+    scope.addObjectToClose(recording("db"), "db");
+    scope.addObjectToClose(recording("cacheA"), "cacheA");
+    scope.addObjectToClose(recording("cacheB"), "cacheB");
+    scope.addObjectToClose(recording("app", new Body() {
+      @Override public void run() throws Exception {
+        Thread.sleep(60000);
+      }
+    }), "app");
+
+    long start = System.nanoTime();
+    try {
+      scope.close(executor, 100, TimeUnit.MILLISECONDS);
+      fail();
+    } catch (RuntimeException e) {
+      assertTrue(e.getCause() instanceof TimeoutException);
+      assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("closing app"));
+    }
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    assertTrue(events.contains("db end"));
+    assertTrue(events.contains("cacheA end"));
+    assertTrue(events.contains("cacheB end"));
+  }
+
+  @Test(timeout = 10000)
+  public void timeoutStartsWhenTheCloseStarts() {
+    // One thread, so each close queues behind the others. Together they take
+    // longer than the timeout, but none of them does alone.
+    ExecutorService single = Executors.newSingleThreadExecutor();
+    try {
+      Scope scope = new GraphScope();
+      for (String name : new String[] {"c1", "c2", "c3"}) {
+        scope.addObjectToClose(recording(name, new Body() {
+          @Override public void run() throws Exception {
+            Thread.sleep(150);
+          }
+        }), name);
+      }
+
+      scope.close(single, 400, TimeUnit.MILLISECONDS);
+      assertEquals(6, events.size());
+    } finally {
+      single.shutdownNow();
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void aggregatesFailures() {
+    Scope scope = new GraphScope();
+    scope.addObjectToClose(recording("db"), "db");
+    scope.addObjectToClose(recording("cacheA", new Body() {
+      @Override public void run() throws Exception {
+        throw new Exception("cacheA failed");
+      }
+    }), "cacheA");
+    scope.addObjectToClose(recording("cacheB", new Body() {
+      @Override public void run() throws Exception {
+        throw new Exception("cacheB failed");
+      }
+    }), "cacheB");
+
+    try {
+      scope.close(executor, 5, TimeUnit.SECONDS);
+      fail();
+    } catch (RuntimeException e) {
+      assertNotNull(e.getCause());
+      assertEquals(1, e.getSuppressed().length);
+    }
+    assertTrue(events.contains("db end"));
+  }
+
+  @Test(timeout = 10000)
+  public void hungCloseDoesNotHoldUpQueuedClosesForever() {
+    // One thread, which a close that ignores interrupts keeps hold of
+    final CountDownLatch release = new CountDownLatch(1);
+    ExecutorService single = Executors.newSingleThreadExecutor();
+    try {
+      Scope scope = new GraphScope();
+      scope.addObjectToClose(recording("c1"), "c1");
+      scope.addObjectToClose(recording("c2"), "c2");
+      scope.addObjectToClose(recording("c3", new Body() {
+        @Override public void run() {
+          while (true) {
+            try {
+              release.await();
+              return;
+            } catch (InterruptedException e) {
+              // Ignored
+            }
+          }
+        }
+      }), "c3");
+
+      long start = System.nanoTime();
+      try {
+        scope.close(single, 100, TimeUnit.MILLISECONDS);
+        fail();
+      } catch (RuntimeException e) {
+        assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("closing c3"));
+        assertEquals(2, e.getSuppressed().length);
+        for (Throwable t : e.getSuppressed()) {
+          assertTrue(t instanceof TimeoutException);
+          assertTrue(t.getMessage(), t.getMessage().contains("300ms before closing c"));
+        }
+      }
+      assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+      assertEquals(Arrays.asList("c3 start"), events);
+    } finally {
+      release.countDown();
+      single.shutdownNow();
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void closesOnOwnThreadsWhenRejected() {
+    Executor rejecting = new Executor() {
+      @Override public void execute(Runnable command) {
+        throw new RejectedExecutionException();
+      }
+    };
+
+    Scope scope = new GraphScope();
+    scope.addObjectToClose(recording("db"), "db");
+    scope.addObjectToClose(recording("cacheA"), "cacheA");
+    scope.addObjectToClose(recording("app", new Body() {
+      @Override public void run() throws Exception {
+        Thread.sleep(60000);
+      }
+    }), "app");
+
+    long start = System.nanoTime();
+    try {
+      scope.close(rejecting, 100, TimeUnit.MILLISECONDS);
+      fail();
+    } catch (RuntimeException e) {
+      assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("closing app"));
+    }
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    assertBefore("cacheA end", "db start");
+    assertTrue(events.contains("db end"));
+  }
+
+  @Test(timeout = 10000)
+  public void unboundObjectsCloseInReverseRegistrationOrder() {
+    Scope scope = new GraphScope();
+    scope.addObjectToClose(recording("first"));
+    scope.addObjectToClose(recording("c1"), "c1");
+    scope.addObjectToClose(recording("last"));
+    scope.close(executor, 5, TimeUnit.SECONDS);
+
+    assertBefore("last end", "c1 start");
+    assertBefore("c1 end", "first start");
+  }
+
+  private void assertBefore(String first, String second) {
+    int i = events.indexOf(first);
+    int j = events.indexOf(second);
+    assertTrue(first + " missing from " + events, i >= 0);
+    assertTrue(second + " missing from " + events, j >= 0);
+    assertTrue(first + " should come before " + second + " in " + events, i < j);
+  }
+}
@@ -0,0 +1,155 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author dan
+ */
+public class ScopeTest {
+
+  /** Counts its closes, and records the order in a shared list. */
+  private static class Closeable implements AutoCloseable {
+    private final int id;
+    private final List<Integer> order;
+    private final AtomicInteger closes = new AtomicInteger();
+
+    Closeable(int id, List<Integer> order) {
+      this.id = id;
+      this.order = order;
+    }
+
+    @Override public void close() {
+      closes.incrementAndGet();
+      order.add(id);
+    }
+  }
+
+  @Test
+  public void closesInReverseRegistrationOrder() {
+    Scope scope = new Scope();
+    List<Integer> order = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      scope.addObjectToClose(new Closeable(i, order));
+    }
+
+    scope.close();
+    assertEquals(Arrays.asList(4, 3, 2, 1, 0), order);
+
+    // Closing again does nothing
+    scope.close();
+    assertEquals(5, order.size());
+  }
+
+  @Test
+  public void closesLateRegistration() {
+    Scope scope = new Scope();
+    scope.close();
+
+    List<Integer> order = new ArrayList<>();
+    Closeable late = new Closeable(1, order);
+    try {
+      scope.addObjectToClose(late, "late");
+      fail();
+    } catch (IllegalStateException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("closed while creating late"));
+    }
+    assertEquals(1, late.closes.get());
+  }
+
+  @Test
+  public void lateCloseFailureIsSuppressed() {
+    Scope scope = new Scope();
+    scope.close();
+
+    final Exception failure = new Exception("close failed");
+    try {
+      scope.addObjectToClose(new AutoCloseable() {
+        @Override public void close() throws Exception {
+          throw failure;
+        }
+      });
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals(1, e.getSuppressed().length);
+      assertEquals(failure, e.getSuppressed()[0]);
+    }
+  }
+
+  @Test(timeout = 30000)
+  public void registrationRacingCloseClosesEverythingOnce() throws Exception {
+    final int threads = 4;
+    final int perThread = 2000;
+    for (int round = 0; round < 20; round++) {
+      final Scope scope = new Scope();
+      final List<Closeable> registered = Collections.synchronizedList(
+          new ArrayList<Closeable>());
+      final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+      final CountDownLatch start = new CountDownLatch(1);
+
+      List<Thread> registering = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        Thread thread = new Thread(new Runnable() {
+          @Override public void run() {
+            try {
+              start.await();
+            } catch (InterruptedException e) {
+              return;
+            }
+            for (int i = 0; i < perThread; i++) {
+              Closeable c = new Closeable(i, order);
+              registered.add(c);
+              try {
+                scope.addObjectToClose(c);
+              } catch (IllegalStateException e) {
+                // Closed late, already counted
+              }
+            }
+          }
+        });
+        thread.start();
+        registering.add(thread);
+      }
+
+      start.countDown();
+      Thread.yield();
+      scope.close();
+      for (Thread thread : registering) {
+        thread.join();
+      }
+
+      assertEquals(threads * perThread, registered.size());
+      for (Closeable c : registered) {
+        assertEquals(1, c.closes.get());
+      }
+    }
+  }
+
+  @Test
+  public void resetAcceptsRegistrationAgain() {
+    Scope scope = new Scope() {
+      @Override protected void resetBindings() {}
+    };
+    scope.close();
+    scope.reset();
+
+    List<Integer> order = new ArrayList<>();
+    Closeable c = new Closeable(1, order);
+    scope.addObjectToClose(c);
+    assertEquals(0, c.closes.get());
+    scope.close();
+    assertEquals(1, c.closes.get());
+  }
+}
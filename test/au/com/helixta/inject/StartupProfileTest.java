@@ -0,0 +1,154 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import au.com.helixta.common.base.Lazy;
+import au.com.helixta.common.base.ThreadsafeLazy;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author dan
+ */
+public class StartupProfileTest {
+
+  /** Sleeps for the given time when created. */
+  private static Lazy<String> sleeping(final String name, final long millis) {
+    return new ThreadsafeLazy<String>(name) {
+      @Override protected String create() {
+        try {
+          Thread.sleep(millis);
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        return name;
+      }
+    };
+  }
+
+  /**
+   * app depends on the slow cacheA and the quick cacheB, which both depend
+   * on db.
+   */
+  private static StartupProfile profile() {
+    final BindingGraph graph = BindingGraph.builder()
+        .binding("app", sleeping("app", 1))
+        .binding("cacheA", sleeping("cacheA", 60))
+        .binding("cacheB", sleeping("cacheB", 5))
+        .binding("db", sleeping("db", 10))
+        .dependency("app", "cacheA")
+        .dependency("app", "cacheB")
+        .dependency("cacheA", "db")
+        .dependency("cacheB", "db")
+        .build();
+    return StartupProfile.of(new Scope() {
+      @Override public BindingGraph bindingGraph() {
+        return graph;
+      }
+    });
+  }
+
+  private static List<String> names(StartupProfile profile, List<Integer> bindings) {
+    List<String> names = Lists.newArrayList();
+    for (int i : bindings) {
+      names.add(profile.graph().name(i));
+    }
+    return names;
+  }
+
+  @Test
+  public void timesEachBindingExclusively() {
+    StartupProfile profile = profile();
+    BindingGraph graph = profile.graph();
+    int app = graph.indexOf("app");
+    int cacheA = graph.indexOf("cacheA");
+    int db = graph.indexOf("db");
+
+    // cacheA doesn't include db, which was already created
+    assertTrue(profile.exclusiveNanos(cacheA) >= TimeUnit.MILLISECONDS.toNanos(60));
+    assertTrue(profile.exclusiveNanos(cacheA) < profile.inclusiveNanos(cacheA));
+    assertEquals(profile.exclusiveNanos(cacheA) + profile.exclusiveNanos(db),
+        profile.inclusiveNanos(cacheA));
+    assertEquals(profile.exclusiveNanos(db), profile.inclusiveNanos(db));
+    // db is counted once, though both caches force it
+    assertEquals(profile.totalNanos(), profile.inclusiveNanos(app));
+  }
+
+  @Test
+  public void findsCriticalPath() {
+    StartupProfile profile = profile();
+    BindingGraph graph = profile.graph();
+    assertEquals(Arrays.asList("db", "cacheA", "app"), names(profile, profile.criticalPath()));
+    assertEquals(profile.exclusiveNanos(graph.indexOf("db"))
+        + profile.exclusiveNanos(graph.indexOf("cacheA"))
+        + profile.exclusiveNanos(graph.indexOf("app")), profile.criticalPathNanos());
+    assertTrue(profile.criticalPathNanos() < profile.totalNanos());
+  }
+
+  @Test
+  public void emptyScope() {
+    StartupProfile profile = StartupProfile.of(new Scope());
+    assertTrue(profile.criticalPath().isEmpty());
+    assertEquals(0, profile.criticalPathNanos());
+    assertEquals("digraph startup {\n  node [shape=box];\n}\n", profile.toDot());
+    assertEquals("", profile.toFoldedStacks());
+  }
+
+  @Test
+  public void drawsCriticalPathInDot() {
+    String dot = profile().toDot();
+    assertTrue(dot, dot.startsWith("digraph startup {\n"));
+    assertTrue(dot, dot.contains("  \"app\" -> \"cacheA\" [color=red, penwidth=2];\n"));
+    assertTrue(dot, dot.contains("  \"cacheA\" -> \"db\" [color=red, penwidth=2];\n"));
+    assertTrue(dot, dot.contains("  \"app\" -> \"cacheB\";\n"));
+    assertTrue(dot, dot.contains("  \"cacheB\" -> \"db\";\n"));
+    assertTrue(dot, dot.contains("  \"cacheA\" [label=\"cacheA\\nexclusive "));
+    for (String line : dot.split("\n")) {
+      if (line.startsWith("  \"cacheB\" [")) {
+        assertFalse(line, line.contains("red"));
+      } else if (line.startsWith("  \"db\" [")) {
+        assertTrue(line, line.endsWith(", color=red, penwidth=2];"));
+      }
+    }
+  }
+
+  @Test
+  public void foldsStacksUnderFirstDependent() {
+    StartupProfile profile = profile();
+    BindingGraph graph = profile.graph();
+    String firstCache = graph.indexOf("cacheA") < graph.indexOf("cacheB") ? "cacheA" : "cacheB";
+
+    List<String> stacks = Lists.newArrayList();
+    for (String line : profile.toFoldedStacks().split("\n")) {
+      int space = line.lastIndexOf(' ');
+      stacks.add(line.substring(0, space));
+      long micros = Long.parseLong(line.substring(space + 1));
+      int binding = graph.indexOf(line.substring(line.lastIndexOf(';') + 1, space));
+      assertEquals(TimeUnit.NANOSECONDS.toMicros(profile.exclusiveNanos(binding)), micros);
+    }
+    assertEquals(4, stacks.size());
+    assertTrue(stacks.toString(), stacks.contains("app;" + firstCache + ";db"));
+    assertTrue(stacks.toString(), stacks.contains("app;cacheA"));
+    assertTrue(stacks.toString(), stacks.contains("app;cacheB"));
+    assertTrue(stacks.toString(), stacks.contains("app"));
+  }
+
+  @Test
+  public void tableMarksCriticalPath() {
+    String table = profile().toString();
+    String[] lines = table.split("\n");
+    assertTrue(lines[1], lines[1].endsWith("  cacheA *"));
+    assertTrue(table, table.contains("  cacheB\n"));
+    assertTrue(table, table.endsWith(":\n  db\n  cacheA\n  app\n"));
+  }
+}
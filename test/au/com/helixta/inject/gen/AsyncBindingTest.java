@@ -0,0 +1,191 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject.gen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import au.com.helixta.common.base.AsyncLazy;
+import au.com.helixta.common.base.Lazy;
+import au.com.helixta.gen.ClassGenerator;
+import au.com.helixta.gen.GeneratedClassLoader;
+import au.com.helixta.inject.Provides;
+import au.com.helixta.inject.Scope;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests bindings provided asynchronously, by providers returning
+ * {@link CompletableFuture}.
+ *
+ * @author dan
+ */
+public class AsyncBindingTest {
+
+  public static class Config {}
+
+  public static class Pool implements AutoCloseable {
+    final Config config;
+    boolean closed = false;
+
+    public Pool(Config config) {
+      this.config = config;
+    }
+
+    @Override public void close() {
+      closed = true;
+    }
+  }
+
+  public static class Cache {}
+
+  public static class App {
+    final Pool pool;
+    final Cache cache;
+    final AsyncLazy<Cache> asyncCache;
+
+    public App(Pool pool, Cache cache, AsyncLazy<Cache> asyncCache) {
+      this.pool = pool;
+      this.cache = cache;
+      this.asyncCache = asyncCache;
+    }
+  }
+
+  /** Providers whose futures are completed by the test. */
+  public static class Providers {
+    final CompletableFuture<Config> config = new CompletableFuture<>();
+    final CompletableFuture<Cache> cache = new CompletableFuture<>();
+    final CountDownLatch started = new CountDownLatch(2);
+    final AtomicInteger pools = new AtomicInteger();
+
+    @Provides public CompletableFuture<Config> config() {
+      started.countDown();
+      return config;
+    }
+
+    @Provides public CompletableFuture<Pool> pool(Config config) {
+      pools.incrementAndGet();
+      return CompletableFuture.completedFuture(new Pool(config));
+    }
+
+    @Provides public CompletableFuture<Cache> cache() {
+      started.countDown();
+      return cache;
+    }
+  }
+
+  public static class BadProviders {
+    @Provides public CompletableFuture<Integer> bad() throws Exception {
+      throw new Exception("bad");
+    }
+  }
+
+  private static ScopeBuilder builder(String name) {
+    return ScopeBuilder.create(AsyncBindingTest.class.getPackage(), name)
+        .providers(Providers.class)
+        .constructor(App.class);
+  }
+
+  private static Object field(Scope scope, String name) throws Exception {
+    return scope.getClass().getField(name).get(scope);
+  }
+
+  @Test(timeout = 10000)
+  public void startsAsyncDependenciesTogether() throws Exception {
+    Class<?> c = builder("AsyncScope").generate(ClassGenerator.inMemory()).builtClass();
+    final Providers providers = new Providers();
+    final Scope scope = (Scope) c.getConstructor(Providers.class).newInstance(providers);
+    assertTrue(AsyncLazy.class.isAssignableFrom(c.getField("pool").getType()));
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<?> app = executor.submit(new Callable<Object>() {
+        @Override public Object call() throws Exception {
+          return ((Lazy<?>) field(scope, "app")).get();
+        }
+      });
+      // Both started before either completes
+      assertTrue(providers.started.await(5, TimeUnit.SECONDS));
+      assertFalse(app.isDone());
+      providers.cache.complete(new Cache());
+      providers.config.complete(new Config());
+
+      App made = (App) app.get();
+      assertSame(providers.config.get(), made.pool.config);
+      assertSame(made.cache, made.asyncCache.getAsync().get());
+      assertSame(made.pool, ((Lazy<?>) field(scope, "pool")).get());
+      assertEquals(1, providers.pools.get());
+
+      // Closeables are registered when their future completes
+      scope.close();
+      assertTrue(made.pool.closed);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void getAsyncStartsWithoutBlocking() throws Exception {
+    Class<?> c = builder("AsyncStartScope").generate(ClassGenerator.inMemory()).builtClass();
+    Providers providers = new Providers();
+    Scope scope = (Scope) c.getConstructor(Providers.class).newInstance(providers);
+
+    CompletableFuture<?> pool = ((AsyncLazy<?>) field(scope, "pool")).getAsync();
+    assertFalse(pool.isDone());
+    assertEquals(0, providers.pools.get());
+    providers.config.complete(new Config());
+    assertSame(providers.config.get(), ((Pool) pool.get()).config);
+  }
+
+  @Test
+  public void failuresReachEveryGet() throws Exception {
+    Class<?> c = ScopeBuilder.create(AsyncBindingTest.class.getPackage(), "AsyncBadScope")
+        .providers(BadProviders.class)
+        .generate(ClassGenerator.inMemory()).builtClass();
+    Scope scope = (Scope) c.getConstructor(BadProviders.class).newInstance(new BadProviders());
+    AsyncLazy<?> bad = (AsyncLazy<?>) field(scope, "integer");
+    assertTrue(bad.getAsync().isCompletedExceptionally());
+    for (int i = 0; i < 2; i++) {
+      try {
+        bad.get();
+        fail();
+      } catch (RuntimeException e) {
+        assertEquals("Error initializing Dependency(Integer)", e.getMessage());
+        assertEquals("bad", e.getCause().getMessage());
+      }
+    }
+  }
+
+  @Test
+  public void cannotBeInlined() throws Exception {
+    try {
+      builder("AsyncInlinedScope").inlineBindings().generate(ClassGenerator.inMemory());
+      fail();
+    } catch (IllegalStateException e) {
+      assertTrue(e.getMessage(), e.getMessage().endsWith("can't be inlined"));
+    }
+  }
+
+  @Test
+  public void bytecodeBackendRejectsAsyncBindings() throws Exception {
+    try {
+      builder("AsyncBytecodeScope")
+          .generateClass(new GeneratedClassLoader(getClass().getClassLoader()));
+      fail();
+    } catch (BytecodeUnsupportedException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith("Asynchronous binding"));
+    }
+  }
+}
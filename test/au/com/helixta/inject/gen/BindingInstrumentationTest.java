@@ -0,0 +1,175 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject.gen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import au.com.helixta.common.base.Lazy;
+import au.com.helixta.gen.ClassGenerator;
+import au.com.helixta.gen.GeneratedClassLoader;
+import au.com.helixta.inject.BindingStats;
+import au.com.helixta.inject.Scope;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests scopes generated with instrumentation, reporting to {@link BindingStats}.
+ *
+ * @author dan
+ */
+public class BindingInstrumentationTest {
+  static volatile CountDownLatch started = new CountDownLatch(1);
+  static volatile CountDownLatch release = new CountDownLatch(0);
+
+  public static class Slow {
+    public Slow() throws InterruptedException {
+      started.countDown();
+      release.await();
+    }
+  }
+
+  public static class User {
+    final Slow slow;
+
+    public User(Slow slow) {
+      this.slow = slow;
+    }
+  }
+
+  private static ScopeBuilder builder(String name) {
+    return ScopeBuilder.create(BindingInstrumentationTest.class.getPackage(), name)
+        .constructor(Slow.class)
+        .constructor(User.class);
+  }
+
+  private static Scope newScope(ScopeBuilder builder, BindingStats stats) throws Exception {
+    Scope scope = (Scope) builder.generate(ClassGenerator.inMemory()).builtClass().newInstance();
+    scope.instrument(stats);
+    return scope;
+  }
+
+  private static Object get(Scope scope, String binding) throws Exception {
+    return ((Lazy<?>) scope.getClass().getField(binding).get(scope)).get();
+  }
+
+  private static Map<String, BindingStats.Entry> byBinding(BindingStats stats) {
+    Map<String, BindingStats.Entry> map = Maps.newHashMap();
+    for (BindingStats.Entry e : stats.entries()) {
+      map.put(e.binding(), e);
+    }
+    return map;
+  }
+
+  @Test
+  public void reportsCreationsAndGets() throws Exception {
+    BindingStats stats = new BindingStats();
+    Scope scope = newScope(builder("CountedScope").instrumented(true), stats);
+    get(scope, "user");
+    get(scope, "user");
+    get(scope, "slow");
+
+    Map<String, BindingStats.Entry> entries = byBinding(stats);
+    BindingStats.Entry user = entries.get("user");
+    assertEquals(1, user.creations());
+    assertEquals(2, user.gets());
+    assertEquals(Thread.currentThread().getName(), user.lastCreator());
+    assertEquals(scope.getClass().getName(), user.scopeClass());
+    // user's creation includes creating slow on the way
+    BindingStats.Entry slow = entries.get("slow");
+    assertEquals(1, slow.creations());
+    assertTrue(user.totalCreationNanos() >= slow.totalCreationNanos());
+    assertEquals(user, stats.entries().get(0));
+    assertEquals(2, slow.gets());
+    assertEquals(0, user.waits());
+  }
+
+  @Test
+  public void getsOnlyCountedWhenAsked() throws Exception {
+    BindingStats stats = new BindingStats();
+    Scope scope = newScope(builder("UncountedScope").instrumented(false), stats);
+    get(scope, "user");
+    get(scope, "user");
+    BindingStats.Entry user = byBinding(stats).get("user");
+    assertEquals(1, user.creations());
+    assertEquals(0, user.gets());
+  }
+
+  @Test(timeout = 10000)
+  public void reportsWaitsOnAnotherThreadsCreation() throws Exception {
+    ScopeBuilder[] builders = {
+        builder("WaitedMonitorScope").instrumented(false),
+        builder("WaitedAtomicScope").instrumented(false).lazies(LazyImpl.ATOMIC),
+        builder("WaitedInlinedScope").instrumented(false).inlineBindings(),
+    };
+    for (ScopeBuilder builder : builders) {
+      BindingStats stats = new BindingStats();
+      final Scope scope = newScope(builder, stats);
+      started = new CountDownLatch(1);
+      release = new CountDownLatch(1);
+
+      List<Thread> threads = Lists.newArrayList();
+      for (int i = 0; i < 3; i++) {
+        threads.add(new Thread(new Runnable() {
+          @Override public void run() {
+            try {
+              get(scope, "slow");
+            } catch (Exception e) {
+              throw new AssertionError(e);
+            }
+          }
+        }));
+      }
+      threads.get(0).start();
+      assertTrue(started.await(5, TimeUnit.SECONDS));
+      for (Thread t : threads.subList(1, threads.size())) {
+        t.start();
+        while (t.getState() != Thread.State.BLOCKED && t.getState() != Thread.State.WAITING) {
+          assertTrue(t.isAlive());
+          Thread.sleep(1);
+        }
+      }
+      release.countDown();
+      for (Thread t : threads) {
+        t.join();
+      }
+
+      BindingStats.Entry slow = byBinding(stats).get("slow");
+      assertEquals(scope.getClass().getSimpleName(), 1, slow.creations());
+      assertEquals(scope.getClass().getSimpleName(), 2, slow.waits());
+      assertTrue(slow.totalWaitNanos() > 0);
+    }
+  }
+
+  @Test
+  public void uninstrumentedScopesRejectInstrumentation() throws Exception {
+    Scope scope = (Scope) builder("PlainScope").generate(ClassGenerator.inMemory()).builtClass()
+        .newInstance();
+    try {
+      scope.instrument(new BindingStats());
+      fail();
+    } catch (UnsupportedOperationException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("instrumentation"));
+    }
+  }
+
+  @Test
+  public void bytecodeBackendRejectsInstrumentation() throws Exception {
+    try {
+      builder("InstrumentedBytecodeScope").instrumented(false)
+          .generateClass(new GeneratedClassLoader(getClass().getClassLoader()));
+      fail();
+    } catch (BytecodeUnsupportedException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("Instrumentation"));
+    }
+  }
+}
@@ -0,0 +1,243 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject.gen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import au.com.helixta.common.base.Lazy;
+import au.com.helixta.gen.ClassGenerator;
+import au.com.helixta.gen.GeneratedClassLoader;
+import au.com.helixta.inject.Provides;
+import au.com.helixta.inject.Scope;
+
+import org.junit.Test;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checks the bytecode backend against the source backend.
+ *
+ * @author dan
+ */
+public class BytecodeEmitterTest {
+
+  public interface Store {
+    String load();
+  }
+
+  public static class MemoryStore implements Store, AutoCloseable {
+    private final String name;
+    private boolean closed = false;
+
+    public MemoryStore(String name) {
+      this.name = name;
+    }
+
+    @Override public String load() {
+      return "loaded " + name;
+    }
+
+    @Override public void close() {
+      closed = true;
+    }
+  }
+
+  /** Not a factory, as it has no method. */
+  public interface NoMethods {}
+
+  public static class Clock {
+    private final long now;
+
+    public Clock(long now) {
+      this.now = now;
+    }
+  }
+
+  public static class Service {
+    private final Store store;
+    private final Lazy<Clock> clock;
+
+    public Service(Store store, Lazy<Clock> clock) {
+      this.store = store;
+      this.clock = clock;
+    }
+
+    String run() {
+      return store.load() + " at " + clock.get().now;
+    }
+  }
+
+  public static class Job {
+    private final Service service;
+    private final int size;
+
+    public Job(Service service, Integer size) {
+      this.service = service;
+      this.size = size;
+    }
+  }
+
+  public static class Providers {
+    @Provides public Clock clock() {
+      return new Clock(42);
+    }
+  }
+
+  private static ScopeBuilder builder(String name, LazyImpl lazies) {
+    return ScopeBuilder.create(BytecodeEmitterTest.class.getPackage(), name)
+        .instance(String.class)
+        .providers(Providers.class)
+        .satisfy(Store.class).withConstructor(MemoryStore.class)
+        .constructor(Service.class)
+        .lazies(lazies);
+  }
+
+  private static GeneratedClassLoader newLoader() {
+    return new GeneratedClassLoader(BytecodeEmitterTest.class.getClassLoader());
+  }
+
+  @Test
+  public void sameShapeAsSource() throws Exception {
+    for (LazyImpl lazies : LazyImpl.values()) {
+      String name = "ShapeScope" + lazies;
+      Class<?> fromBytecode = builder(name, lazies).generateClass(newLoader());
+      Class<?> fromSource = builder(name, lazies)
+          .generate(ClassGenerator.inMemory()).builtClass();
+
+      assertEquals(lazies.toString(), shape(fromSource), shape(fromBytecode));
+      assertSame(fromSource.getSuperclass(), fromBytecode.getSuperclass());
+    }
+  }
+
+  @Test
+  public void behavesLikeSource() throws Exception {
+    for (LazyImpl lazies : LazyImpl.values()) {
+      String name = "BehaviourScope" + lazies;
+      Class<?> fromBytecode = builder(name, lazies).generateClass(newLoader());
+      Class<?> fromSource = builder(name, lazies)
+          .generate(ClassGenerator.inMemory()).builtClass();
+
+      assertEquals(run(fromSource), run(fromBytecode));
+    }
+  }
+
+  @Test
+  public void closesLikeSource() throws Exception {
+    Class<?> c = builder("CloseScope", LazyImpl.MONITOR).generateClass(newLoader());
+    Scope scope = newScope(c);
+    MemoryStore store = (MemoryStore) get(scope, "memoryStore");
+    assertSame(store, ((Service) get(scope, "service")).store);
+
+    scope.close();
+    assertTrue(store.closed);
+    try {
+      get(newClosedScope(c), "clock");
+      fail();
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void rejectsScopesOutsideSubset() throws Exception {
+    try {
+      builder("RejectedScope", LazyImpl.MONITOR).inlineBindings().generateClass(newLoader());
+      fail();
+    } catch (BytecodeUnsupportedException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void userErrorsAreNotUnsupported() throws Exception {
+    try {
+      ScopeBuilder.create(BytecodeEmitterTest.class.getPackage(), "BadFactoryScope")
+          .factory(NoMethods.class)
+          .generateClass(newLoader(), true);
+      fail();
+    } catch (UnsupportedOperationException e) {
+      assertFalse(e instanceof BytecodeUnsupportedException);
+      assertEquals("must define method", e.getMessage());
+    }
+  }
+
+  @Test
+  public void compilesScopesOutsideSubsetWhenAsked() throws Exception {
+    GeneratedClassLoader loader = newLoader();
+    Class<?> c = builder("InlinedScope", LazyImpl.MONITOR).inlineBindings()
+        .generateClass(loader, true);
+    assertSame(loader, c.getClassLoader());
+    assertEquals("loaded db at 42", run(c));
+  }
+
+  @Test
+  public void parentInSameLoader() throws Exception {
+    GeneratedClassLoader loader = newLoader();
+    Class<? extends Scope> parent = builder("ParentScope", LazyImpl.MONITOR)
+        .generateClass(loader).asSubclass(Scope.class);
+    // Inlined, so compiled from source, against the parent made as bytecode
+    Class<?> child = ScopeBuilder.create(BytecodeEmitterTest.class.getPackage(), "ChildScope")
+        .parent(parent)
+        .instance(Integer.class)
+        .constructor(Job.class)
+        .inlineBindings()
+        .generateClass(loader, true);
+
+    Scope p = newScope(parent);
+    Constructor<?> ctor = child.getConstructors()[0];
+    Scope s = (Scope) ctor.newInstance(p, 7);
+    Job job = (Job) get(s, "job");
+    assertSame(get(p, "service"), job.service);
+    assertEquals(7, job.size);
+  }
+
+  private static String run(Class<?> c) throws Exception {
+    Scope scope = newScope(c);
+    Service service = (Service) get(scope, "service");
+    assertSame(service, get(scope, "service"));
+    String result = service.run();
+    scope.close();
+    return result;
+  }
+
+  private static Scope newScope(Class<?> c) throws Exception {
+    Constructor<?> ctor = c.getConstructor(String.class, Providers.class);
+    return (Scope) ctor.newInstance("db", new Providers());
+  }
+
+  private static Scope newClosedScope(Class<?> c) throws Exception {
+    Scope scope = newScope(c);
+    scope.close();
+    return scope;
+  }
+
+  private static Object get(Scope scope, String field) throws Exception {
+    return ((Lazy<?>) scope.getClass().getField(field).get(scope)).get();
+  }
+
+  /** Fields and constructors, sorted, with the class's own name left out. */
+  private static List<String> shape(Class<?> c) {
+    List<String> shape = new ArrayList<>();
+    for (Field f : c.getDeclaredFields()) {
+      // The source backend's anonymous classes reach the scope through self
+      if (!f.isSynthetic() && !f.getName().equals("self")) {
+        shape.add(Modifier.toString(f.getModifiers()) + " "
+            + f.getGenericType().toString().replace(c.getName(), "Scope") + " " + f.getName());
+      }
+    }
+    for (Constructor<?> ctor : c.getConstructors()) {
+      shape.add(ctor.toGenericString().replace(c.getName(), "Scope"));
+    }
+    Collections.sort(shape);
+    return shape;
+  }
+}
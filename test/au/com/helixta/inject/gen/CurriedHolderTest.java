@@ -0,0 +1,158 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject.gen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import au.com.helixta.common.base.Lazy;
+import au.com.helixta.common.base.RacyLazy;
+import au.com.helixta.gen.ClassGenerator;
+import au.com.helixta.gen.GeneratedClassLoader;
+import au.com.helixta.inject.BindingStats;
+import au.com.helixta.inject.InjectMethod;
+import au.com.helixta.inject.Scope;
+import au.com.helixta.inject.ScopePool;
+
+import com.google.common.collect.Maps;
+
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests the curried dependencies of factories and method injectors, which are
+ * resolved once into a holder rather than on every call.
+ *
+ * @author dan
+ */
+public class CurriedHolderTest {
+  static final AtomicInteger services = new AtomicInteger();
+  static final AtomicInteger counters = new AtomicInteger();
+
+  public static class Service {
+    final int id = services.incrementAndGet();
+
+    @InjectMethod(Greeter.class) public String greet(String who, Counter counter) {
+      return "hi " + who + " from " + id + "/" + counter.id;
+    }
+
+    @InjectMethod(Counted.class) public static int count(Counter counter) {
+      return counter.id;
+    }
+  }
+
+  public static class Counter {
+    final int id = counters.incrementAndGet();
+  }
+
+  public static class Widget {
+    final String label;
+    final Service service;
+
+    public Widget(String label, Service service) {
+      this.label = label;
+      this.service = service;
+    }
+  }
+
+  public interface WidgetFactory {
+    Widget create(String label);
+  }
+
+  public interface Greeter {
+    String greet(String who);
+  }
+
+  public interface Counted {
+    int count();
+  }
+
+  private static ScopeBuilder builder(String name) {
+    return ScopeBuilder.create(CurriedHolderTest.class.getPackage(), name)
+        .ctorAndInjectMethods(Service.class)
+        .constructor(Counter.class)
+        .factory(WidgetFactory.class)
+        .resettable();
+  }
+
+  private static Object field(Scope scope, String name) throws Exception {
+    Field f = scope.getClass().getDeclaredField(name);
+    f.setAccessible(true);
+    return f.get(scope);
+  }
+
+  private static void check(Class<?> c) throws Exception {
+    @SuppressWarnings("unchecked")
+    ScopePool<Scope> pool = (ScopePool<Scope>) c.getMethod("pool", int.class).invoke(null, 1);
+    Scope scope = pool.acquire();
+    assertTrue(field(scope, "curried_widgetFactory") instanceof RacyLazy);
+
+    WidgetFactory factory = (WidgetFactory) ((Lazy<?>) field(scope, "widgetFactory")).get();
+    Greeter greeter = (Greeter) field(scope, "Service_greet");
+    Counted counted = (Counted) field(scope, "Service_count");
+    Widget a = factory.create("a");
+    Widget b = factory.create("b");
+    assertEquals("b", b.label);
+    assertSame(a.service, b.service);
+    assertSame(a.service, ((Lazy<?>) field(scope, "service")).get());
+    int counter = counted.count();
+    assertEquals("hi bob from " + a.service.id + "/" + counter, greeter.greet("bob"));
+
+    // The holders are reset with the bindings, so a pooled scope starts afresh
+    pool.release(scope);
+    assertSame(scope, pool.acquire());
+    Widget again = factory.create("c");
+    assertNotSame(a.service, again.service);
+    assertSame(again.service, ((Lazy<?>) field(scope, "service")).get());
+    assertTrue(counted.count() != counter);
+    assertEquals("hi bob from " + again.service.id + "/" + counted.count(), greeter.greet("bob"));
+  }
+
+  @Test
+  public void sourceScopesResolveHoldersOnFirstUse() throws Exception {
+    check(builder("CurriedSourceScope").generate(ClassGenerator.inMemory()).builtClass());
+  }
+
+  @Test
+  public void bytecodeScopesResolveHoldersOnFirstUse() throws Exception {
+    check(builder("CurriedBytecodeScope")
+        .generateClass(new GeneratedClassLoader(getClass().getClassLoader())));
+  }
+
+  @Test
+  public void inlinedScopesResolveHoldersOnFirstUse() throws Exception {
+    check(builder("CurriedInlinedScope").inlineBindings()
+        .generate(ClassGenerator.inMemory()).builtClass());
+  }
+
+  @Test
+  public void getsCurriedDependenciesOnce() throws Exception {
+    Scope scope = (Scope) builder("CurriedCountedScope").instrumented(true)
+        .generate(ClassGenerator.inMemory()).builtClass().newInstance();
+    BindingStats stats = new BindingStats();
+    scope.instrument(stats);
+
+    WidgetFactory factory = (WidgetFactory) ((Lazy<?>) field(scope, "widgetFactory")).get();
+    Greeter greeter = (Greeter) field(scope, "Service_greet");
+    Counted counted = (Counted) field(scope, "Service_count");
+    for (int i = 0; i < 10; i++) {
+      factory.create("w" + i);
+      greeter.greet("bob");
+      counted.count();
+    }
+
+    Map<String, Long> gets = Maps.newHashMap();
+    for (BindingStats.Entry e : stats.entries()) {
+      gets.put(e.binding(), e.gets());
+    }
+    // Once for the factory's holder, once for the greeter's
+    assertEquals(Long.valueOf(2), gets.get("service"));
+    // Once for each injector; the static count() doesn't need a Service
+    assertEquals(Long.valueOf(2), gets.get("counter"));
+  }
+}
@@ -0,0 +1,112 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject.gen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import au.com.helixta.common.base.Lazy;
+import au.com.helixta.gen.ClassGenerator;
+import au.com.helixta.inject.Scope;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Tests that dependency cycles are rejected when a scope is generated, and
+ * that forced arguments are resolved in binding order.
+ *
+ * @author dan
+ */
+public class DependencyOrderTest {
+
+  public static class A {
+    public A(B b) {}
+  }
+
+  public static class B {
+    public B(C c) {}
+  }
+
+  public static class C {
+    public C(A a) {}
+  }
+
+  public static class LazyA {
+    final Lazy<LazyB> b;
+
+    public LazyA(Lazy<LazyB> b) {
+      this.b = b;
+    }
+  }
+
+  public static class LazyB {
+    final LazyA a;
+
+    public LazyB(LazyA a) {
+      this.a = a;
+    }
+  }
+
+  public static class First {}
+
+  public static class Second {
+    public Second(First first) {}
+  }
+
+  public static class Top {
+    public Top(Second second, First first) {}
+  }
+
+  private static ScopeBuilder builder(String name) {
+    return ScopeBuilder.create(DependencyOrderTest.class.getPackage(), name);
+  }
+
+  @Test
+  public void rejectsCycleWithItsPath() throws IOException {
+    try {
+      builder("CycleScope").constructors(A.class, B.class, C.class)
+          .generate(ClassGenerator.inMemory());
+      fail();
+    } catch (RuntimeException e) {
+      assertEquals("Circular dependency in CycleScope: a -> b -> c -> a", e.getMessage());
+    }
+  }
+
+  @Test
+  public void lazyDependencyBreaksCycle() throws Exception {
+    Class<?> c = builder("LazyCycleScope").constructors(LazyA.class, LazyB.class)
+        .generate(ClassGenerator.inMemory()).builtClass();
+    Scope scope = (Scope) c.getConstructor().newInstance();
+    LazyB b = (LazyB) ((Lazy<?>) c.getField("lazyB").get(scope)).get();
+    assertSame(b, b.a.b.get());
+  }
+
+  @Test
+  public void resolvesForcedArgumentsInBindingOrder() throws IOException {
+    Path dir = Files.createTempDirectory("dependency-order");
+    try {
+      builder("OrderScope").constructors(First.class, Second.class, Top.class)
+          .generate(new ClassGenerator(dir.resolve("gen").toString(),
+              dir.resolve("build").toString()));
+      String source = new String(Files.readAllBytes(
+          dir.resolve("gen/au/com/helixta/inject/gen/OrderScope.java")), "UTF-8");
+      int first = source.indexOf("First arg1 = ");
+      int second = source.indexOf("Second arg0 = ");
+      assertTrue(source, first >= 0 && second >= 0);
+      assertTrue(source, first < second);
+    } finally {
+      try (Stream<Path> files = Files.walk(dir)) {
+        files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+      }
+    }
+  }
+}
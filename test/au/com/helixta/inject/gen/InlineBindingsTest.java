@@ -0,0 +1,143 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject.gen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import au.com.helixta.common.base.Lazy;
+import au.com.helixta.gen.ClassGenerator;
+import au.com.helixta.inject.Provides;
+import au.com.helixta.inject.Scope;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests scopes generated with {@link ScopeBuilder#inlineBindings()}.
+ *
+ * @author dan
+ */
+public class InlineBindingsTest {
+
+  public static class Config {
+    static final AtomicInteger created = new AtomicInteger();
+
+    public Config() {
+      created.incrementAndGet();
+    }
+  }
+
+  public static class Service {
+    final Config config;
+    final Lazy<Config> lazyConfig;
+
+    public Service(Config config, Lazy<Config> lazyConfig) {
+      this.config = config;
+      this.lazyConfig = lazyConfig;
+    }
+  }
+
+  public static class Broken {}
+
+  public static class Providers {
+    @Provides public Broken broken() {
+      throw new IllegalStateException("broken");
+    }
+  }
+
+  private static Class<?> generate(String name, LazyImpl impl) throws IOException {
+    return ScopeBuilder.create(InlineBindingsTest.class.getPackage(), name)
+        .providers(Providers.class)
+        .constructors(Config.class, Service.class)
+        .lazies(impl)
+        .inlineBindings()
+        .generate(ClassGenerator.inMemory()).builtClass();
+  }
+
+  private static Scope newScope(Class<?> c) throws Exception {
+    return (Scope) c.getConstructor(Providers.class).newInstance(new Providers());
+  }
+
+  private static Object get(Scope scope, String binding) throws Exception {
+    return ((Lazy<?>) scope.getClass().getField(binding).get(scope)).get();
+  }
+
+  @Test
+  public void bindingsShareOneViewClass() throws Exception {
+    for (LazyImpl impl : new LazyImpl[] {LazyImpl.MONITOR, LazyImpl.LOCKING, LazyImpl.CONFINED}) {
+      Class<?> c = generate("Inlined" + impl + "Scope", impl);
+      Scope scope = newScope(c);
+      Service service = (Service) get(scope, "service");
+      assertSame(service, c.getMethod("get_service").invoke(scope));
+      assertSame(service.config, service.lazyConfig.get());
+      assertSame(service.config, get(scope, "config"));
+
+      Class<?> view = c.getField("service").get(scope).getClass();
+      assertSame(c, view.getEnclosingClass());
+      assertSame(view, c.getField("config").get(scope).getClass());
+    }
+  }
+
+  @Test
+  public void failedBindingKeepsFailing() throws Exception {
+    Scope scope = newScope(generate("InlinedFailureScope", LazyImpl.MONITOR));
+    try {
+      get(scope, "broken");
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("broken", e.getMessage());
+    }
+    try {
+      get(scope, "broken");
+      fail();
+    } catch (RuntimeException e) {
+      assertTrue(e.getMessage(),
+          e.getMessage().startsWith("Circular dependency or failed initialization"));
+    }
+  }
+
+  @Test(timeout = 20000)
+  public void createsOnceUnderContention() throws Exception {
+    final Scope scope = newScope(generate("InlinedContendedScope", LazyImpl.MONITOR));
+    int before = Config.created.get();
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Object>> gets = new ArrayList<>();
+      for (int i = 0; i < 32; i++) {
+        gets.add(executor.submit(new Callable<Object>() {
+          @Override public Object call() throws Exception {
+            return get(scope, "service");
+          }
+        }));
+      }
+      Object first = gets.get(0).get();
+      for (Future<Object> f : gets) {
+        assertSame(first, f.get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(before + 1, Config.created.get());
+  }
+
+  @Test
+  public void rejectsAtomicLazies() throws Exception {
+    try {
+      generate("InlinedAtomicScope", LazyImpl.ATOMIC);
+      fail();
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,89 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject.gen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import au.com.helixta.common.base.Lazy;
+import au.com.helixta.gen.ClassGenerator;
+import au.com.helixta.inject.Provides;
+import au.com.helixta.inject.Scope;
+
+import org.junit.Test;
+
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+
+/**
+ * Tests child scopes sharing their parent's bindings.
+ *
+ * @author dan
+ */
+public class ParentScopeTest {
+
+  public static class Db {
+    final String url;
+
+    public Db(String url) {
+      this.url = url;
+    }
+  }
+
+  public static class AppProviders {
+    @Provides public Db db(String url) {
+      return new Db(url);
+    }
+  }
+
+  public static class Request {
+    final Db db;
+    final Integer id;
+
+    public Request(Db db, Integer id) {
+      this.db = db;
+      this.id = id;
+    }
+  }
+
+  private static Object get(Scope scope, String binding) throws Exception {
+    return ((Lazy<?>) scope.getClass().getField(binding).get(scope)).get();
+  }
+
+  @Test
+  public void childSharesParentBindings() throws Exception {
+    ClassGenerator generator = ClassGenerator.inMemory();
+    Class<? extends Scope> app = ScopeBuilder.create(ParentScopeTest.class.getPackage(), "AppScope")
+        .instance(String.class)
+        .providers(AppProviders.class)
+        .generate(generator).builtClass().asSubclass(Scope.class);
+    Class<?> request = ScopeBuilder.create(ParentScopeTest.class.getPackage(), "RequestScope")
+        .parent(app)
+        .instance(Integer.class)
+        .constructor(Request.class)
+        .generate(generator).builtClass();
+
+    // The parent comes first, and the child only takes what the parent lacks
+    Constructor<?> ctor = request.getConstructors()[0];
+    assertEquals(Arrays.asList(app, Integer.class), Arrays.asList(ctor.getParameterTypes()));
+
+    Scope parent = (Scope) app.getConstructor(String.class, AppProviders.class)
+        .newInstance("jdbc:test", new AppProviders());
+    Scope first = (Scope) ctor.newInstance(parent, 1);
+    Scope second = (Scope) ctor.newInstance(parent, 2);
+
+    // The parent's Lazy itself, not a copy of its value
+    assertSame(app.getField("db").get(parent), request.getField("db").get(first));
+    Request r1 = (Request) get(first, "request");
+    Request r2 = (Request) get(second, "request");
+    assertNotSame(r1, r2);
+    assertSame(get(parent, "db"), r1.db);
+    assertSame(r1.db, r2.db);
+    assertEquals(Integer.valueOf(2), r2.id);
+
+    // Closing a child leaves the parent's bindings alone
+    first.close();
+    assertSame(r1.db, get(parent, "db"));
+  }
+}
@@ -0,0 +1,176 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject.gen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import au.com.helixta.common.base.Lazy;
+import au.com.helixta.common.base.LazyBoolean;
+import au.com.helixta.common.base.LazyDouble;
+import au.com.helixta.common.base.LazyInt;
+import au.com.helixta.common.base.LazyLong;
+import au.com.helixta.common.base.ThreadsafeLazyInt;
+import au.com.helixta.gen.ClassGenerator;
+import au.com.helixta.inject.Provides;
+import au.com.helixta.inject.Scope;
+
+import org.junit.Test;
+
+import javax.inject.Named;
+
+/**
+ * Tests bindings of primitive types, with each Lazy implementation.
+ *
+ * @author dan
+ */
+public class PrimitiveBindingTest {
+
+  public static class Knobs {
+    int created = 0;
+
+    @Provides public int poolSize() {
+      return 8 + created++;
+    }
+
+    @Provides @Named("timeout") public long timeout() {
+      return 1500L;
+    }
+
+    @Provides public double ratio(@Named("base") double base) {
+      return base * 2;
+    }
+
+    @Provides @Named("fast") public boolean fast(int poolSize) {
+      return poolSize > 4;
+    }
+  }
+
+  public static class Engine {
+    final int pool;
+    final long timeout;
+    final double ratio;
+    final boolean fast;
+
+    public Engine(int pool, @Named("timeout") long timeout, double ratio,
+        @Named("fast") boolean fast) {
+      this.pool = pool;
+      this.timeout = timeout;
+      this.ratio = ratio;
+      this.fast = fast;
+    }
+  }
+
+  public static class Child {
+    final int pool;
+    final Engine engine;
+
+    public Child(int pool, Engine engine) {
+      this.pool = pool;
+      this.engine = engine;
+    }
+  }
+
+  private static ScopeBuilder builder(String name) {
+    return ScopeBuilder.create(PrimitiveBindingTest.class.getPackage(), name)
+        .providers(Knobs.class)
+        .constructor(Engine.class)
+        .resettable();
+  }
+
+  private static Scope newScope(Class<?> c, Knobs knobs) throws Exception {
+    return (Scope) c.getConstructor(Knobs.class, double.class).newInstance(knobs, 1.5);
+  }
+
+  private static Object field(Scope scope, String name) throws Exception {
+    return scope.getClass().getField(name).get(scope);
+  }
+
+  private static void check(Class<?> c) throws Exception {
+    Knobs knobs = new Knobs();
+    Scope scope = newScope(c, knobs);
+
+    LazyInt pool = (LazyInt) field(scope, "int_");
+    assertEquals(8, pool.getInt());
+    assertEquals(Integer.valueOf(8), pool.get());
+    assertEquals(1500L, ((LazyLong) field(scope, "long_0Named_timeout")).getLong());
+    assertEquals(3.0, ((LazyDouble) field(scope, "double_")).getDouble(), 0);
+    assertTrue(((LazyBoolean) field(scope, "boolean_0Named_fast")).getBoolean());
+
+    Engine engine = (Engine) ((Lazy<?>) field(scope, "engine")).get();
+    assertEquals(8, engine.pool);
+    assertEquals(1500L, engine.timeout);
+    assertEquals(3.0, engine.ratio, 0);
+    assertTrue(engine.fast);
+    assertEquals(1, knobs.created);
+
+    scope.close();
+    scope.reset();
+    assertEquals(9, ((LazyInt) field(scope, "int_")).getInt());
+    assertEquals(9, ((Engine) ((Lazy<?>) field(scope, "engine")).get()).pool);
+  }
+
+  @Test
+  public void monitorHoldsPrimitivesUnboxed() throws Exception {
+    Class<?> c = builder("PrimitiveMonitorScope").lazies(LazyImpl.MONITOR)
+        .generate(ClassGenerator.inMemory()).builtClass();
+    assertTrue(ThreadsafeLazyInt.class.isAssignableFrom(c.getField("int_").getType()));
+    check(c);
+  }
+
+  @Test
+  public void otherImplsHoldPrimitivesBoxed() throws Exception {
+    for (LazyImpl impl : LazyImpl.values()) {
+      if (impl == LazyImpl.MONITOR) {
+        continue;
+      }
+      Class<?> c = builder("Primitive" + impl + "Scope").lazies(impl)
+          .generate(ClassGenerator.inMemory()).builtClass();
+      assertSame(impl.toString(), LazyInt.class, c.getField("int_").getType());
+      check(c);
+    }
+  }
+
+  @Test
+  public void inlinedBindingsHoldPrimitivesBoxed() throws Exception {
+    for (LazyImpl impl : new LazyImpl[] {LazyImpl.MONITOR, LazyImpl.LOCKING, LazyImpl.CONFINED}) {
+      Class<?> c = builder("PrimitiveInlined" + impl + "Scope").lazies(impl).inlineBindings()
+          .generate(ClassGenerator.inMemory()).builtClass();
+      assertSame(impl.toString(), LazyInt.class, c.getField("int_").getType());
+      check(c);
+    }
+  }
+
+  @Test
+  public void boxedPrimitivesInstrumentedAndFrozen() throws Exception {
+    Class<?> c = builder("PrimitiveFrozenScope").lazies(LazyImpl.LOCKING)
+        .instrumented(true).freezable()
+        .generate(ClassGenerator.inMemory()).builtClass();
+    Scope scope = newScope(c, new Knobs());
+    Object frozen = scope.freeze();
+    assertEquals(8, frozen.getClass().getField("int_").getInt(frozen));
+    assertTrue(frozen.getClass().getField("boolean_0Named_fast").getBoolean(frozen));
+  }
+
+  @Test
+  public void childSharesParentPrimitive() throws Exception {
+    ClassGenerator generator = ClassGenerator.inMemory();
+    Class<? extends Scope> parent = builder("PrimitiveParentScope").lazies(LazyImpl.ATOMIC)
+        .generate(generator).builtClass().asSubclass(Scope.class);
+    Class<?> child = ScopeBuilder.create(PrimitiveBindingTest.class.getPackage(),
+        "PrimitiveChildScope")
+        .parent(parent)
+        .constructor(Child.class)
+        .generate(generator).builtClass();
+
+    Scope p = newScope(parent, new Knobs());
+    Scope c = (Scope) child.getConstructor(parent).newInstance(p);
+    assertSame(field(p, "int_"), field(c, "int_"));
+    Child made = (Child) ((Lazy<?>) field(c, "child")).get();
+    assertEquals(8, made.pool);
+    assertSame(((Lazy<?>) field(p, "engine")).get(), made.engine);
+    assertFalse(made.engine.ratio == 0);
+  }
+}
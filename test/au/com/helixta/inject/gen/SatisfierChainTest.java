@@ -0,0 +1,135 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject.gen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import au.com.helixta.common.base.Lazies.Eager;
+import au.com.helixta.common.base.Lazy;
+import au.com.helixta.common.base.LockingLazy;
+import au.com.helixta.common.base.ThreadsafeLazy;
+import au.com.helixta.gen.ClassGenerator;
+import au.com.helixta.gen.GeneratedClassLoader;
+import au.com.helixta.inject.Scope;
+
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+
+/**
+ * Tests bindings reached through a chain of satisfiers, and the declared
+ * classes of binding fields.
+ *
+ * @author dan
+ */
+public class SatisfierChainTest {
+
+  public interface Store {}
+
+  public interface Db extends Store {}
+
+  public static class DbImpl implements Db {
+    final String url;
+
+    public DbImpl(String url) {
+      this.url = url;
+    }
+  }
+
+  public static class App {
+    final Store store;
+    final Lazy<Store> lazyStore;
+
+    public App(Store store, Lazy<Store> lazyStore) {
+      this.store = store;
+      this.lazyStore = lazyStore;
+    }
+  }
+
+  private static ScopeBuilder builder(String name) {
+    return ScopeBuilder.create(SatisfierChainTest.class.getPackage(), name)
+        .instance(String.class)
+        .satisfy(Store.class).with(Db.class)
+        .satisfy(Db.class).withConstructor(DbImpl.class)
+        .constructor(App.class);
+  }
+
+  public static class Child {
+    final Store store;
+    final DbImpl db;
+
+    public Child(Store store, DbImpl db) {
+      this.store = store;
+      this.db = db;
+    }
+  }
+
+  private static Object get(Scope scope, String binding) throws Exception {
+    Field f = scope.getClass().getDeclaredField(binding);
+    f.setAccessible(true);
+    return ((Lazy<?>) f.get(scope)).get();
+  }
+
+  private static void check(Class<?> c, Class<?> lazyClass) throws Exception {
+    assertSame(Eager.class, c.getField("string").getType());
+    assertSame(lazyClass, c.getField("dbImpl").getType());
+    assertSame(lazyClass, c.getField("app").getType());
+    // Aliases are only kept for Lazy dependencies, and aren't public
+    assertSame(Lazy.class, c.getDeclaredField("store").getType());
+
+    Scope scope = (Scope) c.getConstructor(String.class).newInstance("jdbc:test");
+    App app = (App) get(scope, "app");
+    DbImpl db = (DbImpl) get(scope, "dbImpl");
+    assertEquals("jdbc:test", db.url);
+    assertSame(db, app.store);
+    assertSame(db, app.lazyStore.get());
+    assertSame(db, get(scope, "store"));
+    assertSame(db, get(scope, "db"));
+  }
+
+  @Test
+  public void sourceScopesResolveChains() throws Exception {
+    check(builder("ChainSourceScope").generate(ClassGenerator.inMemory()).builtClass(),
+        ThreadsafeLazy.class);
+    check(builder("ChainLockingScope").lazies(LazyImpl.LOCKING)
+        .generate(ClassGenerator.inMemory()).builtClass(), LockingLazy.class);
+  }
+
+  @Test
+  public void bytecodeScopesResolveChains() throws Exception {
+    check(builder("ChainBytecodeScope")
+        .generateClass(new GeneratedClassLoader(getClass().getClassLoader())),
+        ThreadsafeLazy.class);
+  }
+
+  @Test
+  public void forcedDependenciesSkipAliases() {
+    String source = builder("ChainDirectScope").generateSource();
+    assertTrue(source, source.contains("Store arg0 = self.dbImpl.get();"));
+    assertFalse(source, source.contains("self.store.get()"));
+    assertFalse(source, source.contains("self.db.get()"));
+  }
+
+  @Test
+  public void childFieldsHaveParentFieldClass() throws Exception {
+    ClassGenerator generator = ClassGenerator.inMemory();
+    Class<? extends Scope> parent = builder("ChainParentScope").lazies(LazyImpl.LOCKING)
+        .generate(generator).builtClass().asSubclass(Scope.class);
+    Class<?> child = ScopeBuilder.create(SatisfierChainTest.class.getPackage(), "ChainChildScope")
+        .parent(parent)
+        .constructor(Child.class)
+        .generate(generator).builtClass();
+
+    assertSame(LockingLazy.class, child.getField("dbImpl").getType());
+    assertSame(Lazy.class, child.getField("store").getType());
+    assertSame(ThreadsafeLazy.class, child.getField("child").getType());
+    Scope p = (Scope) parent.getConstructor(String.class).newInstance("jdbc:parent");
+    Scope c = (Scope) child.getConstructor(parent).newInstance(p);
+    Child made = (Child) get(c, "child");
+    assertSame(get(p, "dbImpl"), made.store);
+    assertSame(made.db, made.store);
+  }
+}
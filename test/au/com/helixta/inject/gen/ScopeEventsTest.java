@@ -0,0 +1,144 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject.gen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import au.com.helixta.common.base.Lazy;
+import au.com.helixta.gen.ClassGenerator;
+import au.com.helixta.gen.GeneratedClassLoader;
+import au.com.helixta.inject.Scope;
+
+import com.google.common.collect.Lists;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Tests the flight recorder events of generated scopes.
+ *
+ * @author dan
+ */
+public class ScopeEventsTest {
+  private static final String PREFIX = "au.com.helixta.inject.";
+
+  // Short binding names, as JDK 17's recorder can lose a string of 16 or more
+  // chars that an earlier, dumped recording already held
+  public static class Db implements AutoCloseable {
+    @Override public void close() {}
+  }
+
+  public static class Bad {
+    public Bad() throws Exception {
+      throw new Exception("broken");
+    }
+  }
+
+  private Recording recording;
+
+  @Before
+  public void setUp() {
+    recording = new Recording();
+    for (String event : new String[] {
+        "ScopeConstructed", "BindingCreated", "BindingFailed", "ScopeClosed", "ObjectClosed"}) {
+      recording.enable(PREFIX + event).withThreshold(Duration.ZERO);
+    }
+    recording.start();
+  }
+
+  @After
+  public void tearDown() {
+    recording.close();
+  }
+
+  private static ScopeBuilder builder(String name) {
+    return ScopeBuilder.create(ScopeEventsTest.class.getPackage(), name)
+        .constructor(Db.class)
+        .constructor(Bad.class);
+  }
+
+  /** Runs the scope, returning the names and main field of its events. */
+  private List<String> record(Class<?> c) throws Exception {
+    Scope scope = (Scope) c.newInstance();
+    ((Lazy<?>) c.getField("db").get(scope)).get();
+    try {
+      ((Lazy<?>) c.getField("bad").get(scope)).get();
+      fail();
+    } catch (RuntimeException e) {
+      // Reported as BindingFailed, where supported
+    }
+    scope.close();
+    recording.stop();
+
+    Path file = Files.createTempFile("scope-events", ".jfr");
+    try {
+      recording.dump(file);
+      List<String> events = Lists.newArrayList();
+      for (RecordedEvent e : RecordingFile.readAllEvents(file)) {
+        if (!c.getName().equals(e.getString("scope"))) {
+          continue;
+        }
+        String name = e.getEventType().getName().substring(PREFIX.length());
+        if (name.equals("BindingCreated")) {
+          name += " " + e.getString("binding");
+        } else if (name.equals("BindingFailed")) {
+          name += " " + e.getString("binding") + " " + e.getString("failure");
+        } else if (name.equals("ObjectClosed")) {
+          assertFalse(e.getBoolean("failed"));
+          name += " " + e.getString("binding");
+        } else if (name.equals("ScopeClosed")) {
+          name += " " + e.getInt("objects") + " " + e.getInt("failures");
+        }
+        events.add(name);
+      }
+      return events;
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test
+  public void sourceScopesReportEachStep() throws Exception {
+    Class<?> c = builder("EventsSourceScope").generate(ClassGenerator.inMemory()).builtClass();
+    assertEquals(Lists.newArrayList(
+        "ScopeConstructed",
+        "BindingCreated Dependency(Db)",
+        "BindingFailed Dependency(Bad) java.lang.Exception: broken",
+        "ObjectClosed db",
+        "ScopeClosed 1 0"), record(c));
+  }
+
+  @Test
+  public void inlinedBindingsReportEachStep() throws Exception {
+    Class<?> c = builder("EventsInlinedScope").inlineBindings()
+        .generate(ClassGenerator.inMemory()).builtClass();
+    List<String> events = record(c);
+    assertTrue(events.toString(),
+        events.contains("BindingFailed Dependency(Bad) java.lang.Exception: broken"));
+    assertEquals(5, events.size());
+  }
+
+  @Test
+  public void bytecodeScopesDoNotReportFailures() throws Exception {
+    Class<?> c = builder("EventsBytecodeScope")
+        .generateClass(new GeneratedClassLoader(getClass().getClassLoader()));
+    assertEquals(Lists.newArrayList(
+        "ScopeConstructed",
+        "BindingCreated Dependency(Db)",
+        "ObjectClosed db",
+        "ScopeClosed 1 0"), record(c));
+  }
+}
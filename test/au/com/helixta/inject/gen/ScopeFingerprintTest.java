@@ -0,0 +1,144 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject.gen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import au.com.helixta.gen.ClassGenerator;
+import au.com.helixta.gen.ClassGenerator.ClassBuilder;
+import au.com.helixta.inject.Provides;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Tests that {@link ScopeBuilder#generate} skips scopes whose inputs haven't
+ * changed.
+ *
+ * @author dan
+ */
+public class ScopeFingerprintTest {
+
+  public static class Providers {
+    @Provides public String name() {
+      return "fingerprinted";
+    }
+  }
+
+  public static class Other {
+    @Provides public String name() {
+      return "other";
+    }
+  }
+
+  public static class Greeter {
+    final String name;
+
+    public Greeter(String name) {
+      this.name = name;
+    }
+  }
+
+  private Path dir;
+  private File javaFile;
+  private File classFile;
+  private File fingerprintFile;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("fingerprint");
+    String path = "/au/com/helixta/inject/gen/FingerprintScope";
+    javaFile = new File(dir + "/gen" + path + ".java");
+    classFile = new File(dir + "/build" + path + ".class");
+    fingerprintFile = new File(dir + "/gen" + path + ".fingerprint");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    try (Stream<Path> files = Files.walk(dir)) {
+      files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+  }
+
+  private ClassGenerator newGenerator() {
+    return new ClassGenerator(dir.resolve("gen").toString(), dir.resolve("build").toString());
+  }
+
+  private static ScopeBuilder builder(Class<?> providers) {
+    return ScopeBuilder.create(ScopeFingerprintTest.class.getPackage(), "FingerprintScope")
+        .providers(providers)
+        .constructor(Greeter.class);
+  }
+
+  /** Generates and compiles the scope, marking its source as old. */
+  private String generate(ScopeBuilder builder) throws IOException {
+    ClassGenerator generator = newGenerator();
+    builder.generate(generator);
+    generator.buildAll();
+    assertTrue(javaFile.setLastModified(1000));
+    return new String(Files.readAllBytes(fingerprintFile.toPath()), "UTF-8").trim();
+  }
+
+  @Test
+  public void skipsUnchangedScope() throws Exception {
+    String fingerprint = generate(builder(Providers.class));
+    assertTrue(classFile.exists());
+    assertFalse(fingerprint.isEmpty());
+
+    ClassGenerator generator = newGenerator();
+    assertNotNull(generator.upToDate("au.com.helixta.inject.gen", "FingerprintScope",
+        fingerprint));
+    ClassBuilder builder = builder(Providers.class).generate(generator);
+    assertNotNull(builder);
+    // Nothing is pending, and the source wasn't rewritten
+    generator.buildAll();
+    assertEquals(1000, javaFile.lastModified());
+  }
+
+  @Test
+  public void regeneratesWhenInputsChange() throws Exception {
+    String fingerprint = generate(builder(Providers.class));
+
+    String changed = generate(builder(Other.class));
+    assertFalse(fingerprint.equals(changed));
+
+    String withOptions = generate(builder(Other.class).lazies(LazyImpl.ATOMIC));
+    assertFalse(changed.equals(withOptions));
+    assertTrue(new String(Files.readAllBytes(javaFile.toPath()), "UTF-8")
+        .contains("AtomicLazy"));
+  }
+
+  @Test
+  public void regeneratesWhenOutputIsMissing() throws Exception {
+    String fingerprint = generate(builder(Providers.class));
+    assertTrue(classFile.delete());
+
+    ClassGenerator generator = newGenerator();
+    assertNull(generator.upToDate("au.com.helixta.inject.gen", "FingerprintScope",
+        fingerprint));
+    builder(Providers.class).generate(generator);
+    generator.buildAll();
+    assertTrue(classFile.exists());
+    assertTrue(javaFile.lastModified() != 1000);
+  }
+
+  @Test
+  public void inMemoryAlwaysRegenerates() throws Exception {
+    ClassGenerator generator = ClassGenerator.inMemory();
+    assertNull(generator.upToDate("au.com.helixta.inject.gen", "FingerprintScope", "any"));
+    Class<?> c = builder(Providers.class).generate(generator).builtClass();
+    assertEquals("au.com.helixta.inject.gen.FingerprintScope", c.getName());
+  }
+}
@@ -0,0 +1,174 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject.gen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import au.com.helixta.common.base.Lazy;
+import au.com.helixta.gen.ClassGenerator;
+import au.com.helixta.gen.GeneratedClassLoader;
+import au.com.helixta.inject.Scope;
+
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Tests frozen snapshots of generated scopes.
+ *
+ * @author dan
+ */
+public class ScopeFreezeTest {
+
+  public interface Db {}
+
+  public static class DbImpl implements Db, AutoCloseable {
+    final String url;
+    boolean closed = false;
+
+    public DbImpl(String url) {
+      this.url = url;
+    }
+
+    @Override public void close() {
+      closed = true;
+    }
+  }
+
+  public static class Service {
+    final Db db;
+
+    public Service(Db db) {
+      this.db = db;
+    }
+  }
+
+  private static ScopeBuilder builder(String name) {
+    return ScopeBuilder.create(ScopeFreezeTest.class.getPackage(), name)
+        .instance(String.class)
+        .satisfy(Db.class).withConstructor(DbImpl.class)
+        .constructor(Service.class)
+        .freezable();
+  }
+
+  private static Scope newScope(Class<?> c) throws Exception {
+    return (Scope) c.getConstructor(String.class).newInstance("jdbc:test");
+  }
+
+  private static Object get(Scope scope, String binding) throws Exception {
+    return ((Lazy<?>) scope.getClass().getField(binding).get(scope)).get();
+  }
+
+  private static Object read(Object frozen, String binding) throws Exception {
+    return frozen.getClass().getField(binding).get(frozen);
+  }
+
+  private static void checkSnapshot(Class<?> c) throws Exception {
+    Scope scope = newScope(c);
+    assertFalse(scope.isFrozen());
+    Object frozen = scope.freeze();
+    assertTrue(scope.isFrozen());
+    assertSame(frozen, scope.freeze());
+
+    // Every binding was created, and the snapshot holds the same objects
+    Service service = (Service) read(frozen, "service");
+    assertSame(get(scope, "service"), service);
+    assertSame(get(scope, "dbImpl"), read(frozen, "dbImpl"));
+    assertSame(service.db, read(frozen, "db"));
+    assertEquals("jdbc:test", read(frozen, "string"));
+
+    scope.close();
+    assertTrue(((DbImpl) service.db).closed);
+  }
+
+  @Test
+  public void snapshotsEveryBinding() throws Exception {
+    checkSnapshot(builder("FreezeSourceScope").generate(ClassGenerator.inMemory()).builtClass());
+  }
+
+  @Test
+  public void snapshotsInlinedAndConfinedScopes() throws Exception {
+    checkSnapshot(builder("FreezeInlinedScope").inlineBindings()
+        .generate(ClassGenerator.inMemory()).builtClass());
+    checkSnapshot(builder("FreezeConfinedScope").lazies(LazyImpl.CONFINED)
+        .generate(ClassGenerator.inMemory()).builtClass());
+  }
+
+  @Test
+  public void frozenScopeRejectsRegistration() throws Exception {
+    Scope scope = newScope(builder("FreezeRegisterScope")
+        .generate(ClassGenerator.inMemory()).builtClass());
+    scope.freeze();
+    Method register = Scope.class.getDeclaredMethod("addObjectToClose", AutoCloseable.class);
+    register.setAccessible(true);
+    try {
+      register.invoke(scope, new DbImpl("late"));
+      fail();
+    } catch (InvocationTargetException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+      assertTrue(e.getCause().getMessage(),
+          e.getCause().getMessage().startsWith("Scope is frozen, can't register"));
+    }
+  }
+
+  @Test
+  public void resetUnfreezes() throws Exception {
+    Scope scope = newScope(builder("FreezeResetScope").resettable()
+        .generate(ClassGenerator.inMemory()).builtClass());
+    Object first = scope.freeze();
+    scope.close();
+    scope.reset();
+    assertFalse(scope.isFrozen());
+
+    Object second = scope.freeze();
+    assertNotSame(first, second);
+    assertNotSame(read(first, "service"), read(second, "service"));
+    assertSame(get(scope, "service"), read(second, "service"));
+  }
+
+  @Test
+  public void closedScopeCannotFreeze() throws Exception {
+    Scope scope = newScope(builder("FreezeClosedScope")
+        .generate(ClassGenerator.inMemory()).builtClass());
+    scope.close();
+    try {
+      scope.freeze();
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("Scope is closed", e.getMessage());
+    }
+  }
+
+  @Test
+  public void unsupportedWithoutFreezable() throws Exception {
+    Scope scope = (Scope) ScopeBuilder.create(ScopeFreezeTest.class.getPackage(), "NoFreezeScope")
+        .constructor(Service.class)
+        .satisfy(Db.class).withConstructor(DbImpl.class)
+        .instance(String.class)
+        .generate(ClassGenerator.inMemory()).builtClass()
+        .getConstructor(String.class).newInstance("jdbc:test");
+    try {
+      scope.freeze();
+      fail();
+    } catch (UnsupportedOperationException e) {
+      assertTrue(e.getMessage(), e.getMessage().endsWith("was not generated with freeze support"));
+    }
+  }
+
+  @Test
+  public void bytecodeBackendRejectsFreezable() throws Exception {
+    try {
+      builder("FreezeBytecodeScope")
+          .generateClass(new GeneratedClassLoader(getClass().getClassLoader()));
+      fail();
+    } catch (BytecodeUnsupportedException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith("Frozen snapshots"));
+    }
+  }
+}
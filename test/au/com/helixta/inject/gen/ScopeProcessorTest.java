@@ -0,0 +1,171 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject.gen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import au.com.helixta.common.base.Lazy;
+import au.com.helixta.inject.Scope;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * Runs javac with {@link ScopeProcessor} over annotated sources.
+ *
+ * @author dan
+ */
+public class ScopeProcessorTest {
+
+  public static class Greeter {
+    private final String name;
+
+    public Greeter(String name) {
+      this.name = name;
+    }
+
+    public String greet() {
+      return "hello " + name;
+    }
+  }
+
+  private Path out;
+  private DiagnosticCollector<JavaFileObject> diagnostics;
+
+  @Before
+  public void setUp() throws IOException {
+    out = Files.createTempDirectory("scope-processor");
+    diagnostics = new DiagnosticCollector<>();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    try (Stream<Path> files = Files.walk(out)) {
+      files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+  }
+
+  @Test
+  public void generatesSameSourceAsBuilder() throws Exception {
+    assertTrue(errors(), compile("p.Marker",
+        "package p;",
+        "@au.com.helixta.inject.GenerateScope(value = \"ProcessedScope\",",
+        "    instances = String.class,",
+        "    constructors = au.com.helixta.inject.gen.ScopeProcessorTest.Greeter.class,",
+        "    lazies = \"ATOMIC\", resettable = true)",
+        "class Marker {}"));
+
+    String expected = ScopeBuilder.create("p", "ProcessedScope")
+        .instance(String.class)
+        .constructors(Greeter.class)
+        .lazies(LazyImpl.ATOMIC)
+        .resettable()
+        .generateSource();
+    String generated = new String(
+        Files.readAllBytes(out.resolve("p/ProcessedScope.java")), StandardCharsets.UTF_8);
+    assertEquals(expected, generated);
+  }
+
+  @Test
+  public void generatedScopeWorks() throws Exception {
+    assertTrue(errors(), compile("p.Marker",
+        "package p;",
+        "@au.com.helixta.inject.GenerateScope(value = \"WorkingScope\",",
+        "    instances = String.class,",
+        "    constructors = au.com.helixta.inject.gen.ScopeProcessorTest.Greeter.class)",
+        "class Marker {}"));
+
+    try (URLClassLoader loader = new URLClassLoader(new URL[] {out.toUri().toURL()},
+        ScopeProcessorTest.class.getClassLoader())) {
+      Class<?> c = loader.loadClass("p.WorkingScope");
+      Scope scope = (Scope) c.getConstructor(String.class).newInstance("world");
+      Greeter greeter = (Greeter) ((Lazy<?>) c.getField("greeter").get(scope)).get();
+      assertEquals("hello world", greeter.greet());
+      assertSame(greeter, ((Lazy<?>) c.getField("greeter").get(scope)).get());
+      scope.close();
+    }
+  }
+
+  @Test
+  public void reportsClassesCompiledInSameRun() throws Exception {
+    assertFalse(compile("p.Marker",
+        "package p;",
+        "@au.com.helixta.inject.GenerateScope(value = \"LateScope\", constructors = Late.class)",
+        "class Marker {}",
+        "class Late {}"));
+    assertTrue(errors(), errors().contains("p.Late is not on the class path"));
+  }
+
+  @Test
+  public void reportsGenerationFailure() throws Exception {
+    assertFalse(compile("p.Marker",
+        "package p;",
+        "@au.com.helixta.inject.GenerateScope(value = \"BadScope\", lazies = \"NOPE\")",
+        "class Marker {}"));
+    assertTrue(errors(), errors().contains("Scope generation failed"));
+  }
+
+  private boolean compile(String className, String... lines) {
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    List<String> options = Arrays.asList(
+        "-d", out.toString(),
+        "-s", out.toString(),
+        "-classpath", System.getProperty("java.class.path"),
+        "-processor", ScopeProcessor.class.getName());
+    JavaFileObject source = new Source(className, String.join("\n", lines));
+    return compiler.getTask(null, null, diagnostics, options, null,
+        Collections.singletonList(source)).call();
+  }
+
+  private String errors() {
+    StringBuilder b = new StringBuilder();
+    for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+      if (d.getKind() == Diagnostic.Kind.ERROR) {
+        b.append(d.getMessage(Locale.ROOT)).append("\n");
+      }
+    }
+    return b.toString();
+  }
+
+  private static class Source extends SimpleJavaFileObject {
+    private final String source;
+
+    Source(String className, String source) {
+      super(URI.create("mem:///" + className.replace('.', '/') + Kind.SOURCE.extension),
+          Kind.SOURCE);
+      this.source = source;
+    }
+
+    @Override
+    public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+      return source;
+    }
+  }
+}
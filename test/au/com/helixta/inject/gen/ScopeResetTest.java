@@ -0,0 +1,153 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject.gen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import au.com.helixta.common.base.Lazy;
+import au.com.helixta.gen.ClassGenerator;
+import au.com.helixta.gen.GeneratedClassLoader;
+import au.com.helixta.inject.Scope;
+import au.com.helixta.inject.ScopePool;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests resetting generated scopes, and pooling them.
+ *
+ * @author dan
+ */
+public class ScopeResetTest {
+  static final AtomicInteger closed = new AtomicInteger();
+
+  public static class Connection implements AutoCloseable {
+    final String url;
+
+    public Connection(String url) {
+      this.url = url;
+    }
+
+    @Override public void close() {
+      closed.incrementAndGet();
+    }
+  }
+
+  public static class Handler {
+    final Connection connection;
+
+    public Handler(Connection connection) {
+      this.connection = connection;
+    }
+  }
+
+  private static ScopeBuilder builder(String name) {
+    return ScopeBuilder.create(ScopeResetTest.class.getPackage(), name)
+        .instance(String.class)
+        .constructor(Connection.class)
+        .constructor(Handler.class)
+        .resettable();
+  }
+
+  private static Object get(Scope scope, String binding) throws Exception {
+    return ((Lazy<?>) scope.getClass().getField(binding).get(scope)).get();
+  }
+
+  private static void checkReset(Class<?> c) throws Exception {
+    closed.set(0);
+    Scope scope = (Scope) c.getConstructor(String.class).newInstance("jdbc:test");
+    Lazy<?> handlerLazy = (Lazy<?>) c.getField("handler").get(scope);
+    Handler first = (Handler) get(scope, "handler");
+
+    try {
+      scope.reset();
+      fail();
+    } catch (IllegalStateException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("closed"));
+    }
+    assertSame(first, get(scope, "handler"));
+
+    scope.close();
+    assertEquals(1, closed.get());
+    scope.reset();
+
+    // Same binding objects, new values, same seed
+    assertSame(handlerLazy, c.getField("handler").get(scope));
+    Handler second = (Handler) get(scope, "handler");
+    assertNotSame(first, second);
+    assertNotSame(first.connection, second.connection);
+    assertEquals("jdbc:test", second.connection.url);
+    assertSame(second.connection, get(scope, "connection"));
+
+    // Only what was created since the reset is closed again
+    scope.close();
+    assertEquals(2, closed.get());
+  }
+
+  @Test
+  public void resetsSourceScopes() throws Exception {
+    checkReset(builder("ResetSourceScope").generate(ClassGenerator.inMemory()).builtClass());
+  }
+
+  @Test
+  public void resetsBytecodeScopes() throws Exception {
+    checkReset(builder("ResetBytecodeScope")
+        .generateClass(new GeneratedClassLoader(ScopeResetTest.class.getClassLoader())));
+  }
+
+  @Test
+  public void resetsEachLazyImpl() throws Exception {
+    for (LazyImpl impl : LazyImpl.values()) {
+      checkReset(builder("Reset" + impl + "Scope").lazies(impl)
+          .generate(ClassGenerator.inMemory()).builtClass());
+    }
+  }
+
+  @Test
+  public void unsupportedWithoutResettable() throws Exception {
+    Scope scope = (Scope) ScopeBuilder.create(ScopeResetTest.class.getPackage(), "NoResetScope")
+        .instance(String.class)
+        .constructor(Connection.class)
+        .generate(ClassGenerator.inMemory()).builtClass()
+        .getConstructor(String.class).newInstance("jdbc:test");
+    scope.close();
+    try {
+      scope.reset();
+      fail();
+    } catch (UnsupportedOperationException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("reset support"));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void poolReusesReleasedScopes() throws Exception {
+    closed.set(0);
+    Class<?> c = builder("PooledScope").generate(ClassGenerator.inMemory()).builtClass();
+    ScopePool<Scope> pool = (ScopePool<Scope>) c.getMethod("pool", String.class, int.class)
+        .invoke(null, "jdbc:pooled", 1);
+
+    Scope first = pool.acquire();
+    Scope second = pool.acquire();
+    assertNotSame(first, second);
+    Handler used = (Handler) get(first, "handler");
+    get(second, "handler");
+
+    pool.release(first);
+    pool.release(second);
+    assertEquals(2, closed.get());
+
+    // Only one is kept
+    Scope reused = pool.acquire();
+    assertSame(first, reused);
+    Handler fresh = (Handler) get(reused, "handler");
+    assertNotSame(used, fresh);
+    assertEquals("jdbc:pooled", fresh.connection.url);
+    assertNotSame(second, pool.acquire());
+  }
+}
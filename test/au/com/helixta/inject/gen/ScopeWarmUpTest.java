@@ -0,0 +1,125 @@
+// Copyright 2013 Helix Technologies Australia Pty. Ltd.
+
+package au.com.helixta.inject.gen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import au.com.helixta.common.base.Lazy;
+import au.com.helixta.gen.ClassGenerator;
+import au.com.helixta.gen.GeneratedClassLoader;
+import au.com.helixta.inject.BindingGraph;
+import au.com.helixta.inject.Provides;
+import au.com.helixta.inject.Scope;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tests the binding graphs of generated scopes, and warming them up.
+ *
+ * @author dan
+ */
+public class ScopeWarmUpTest {
+
+  public static class Db {
+    final String url;
+
+    public Db(String url) {
+      this.url = url;
+    }
+  }
+
+  public static class Cache {
+    final Db db;
+
+    public Cache(Db db) {
+      this.db = db;
+    }
+  }
+
+  public static class Service {
+    final Db db;
+    final Lazy<Cache> cache;
+
+    public Service(Db db, Lazy<Cache> cache) {
+      this.db = db;
+      this.cache = cache;
+    }
+  }
+
+  public static class Providers {
+    @Provides public Db db(String url) {
+      return new Db(url);
+    }
+  }
+
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private static ScopeBuilder builder(String name) {
+    return ScopeBuilder.create(ScopeWarmUpTest.class.getPackage(), name)
+        .instance(String.class)
+        .providers(Providers.class)
+        .constructors(Cache.class, Service.class);
+  }
+
+  private static Scope newScope(Class<?> c) throws Exception {
+    return (Scope) c.getConstructor(String.class, Providers.class)
+        .newInstance("jdbc:test", new Providers());
+  }
+
+  private static List<String> dependencies(BindingGraph graph, String name) {
+    List<String> names = new ArrayList<>();
+    for (int i : graph.dependencies(graph.indexOf(name))) {
+      names.add(graph.name(i));
+    }
+    return names;
+  }
+
+  private void check(Class<?> c) throws Exception {
+    Scope scope = newScope(c);
+    BindingGraph graph = scope.bindingGraph();
+
+    // Lazy dependencies aren't forced, so aren't edges
+    assertEquals(Arrays.asList("db"), dependencies(graph, "service"));
+    assertEquals(Arrays.asList("db"), dependencies(graph, "cache"));
+    assertEquals(Arrays.asList("providers", "string"), dependencies(graph, "db"));
+    assertTrue(graph.indexOf("db") < graph.indexOf("service"));
+    assertSame(c.getField("service").get(scope), graph.lazy(graph.indexOf("service")));
+
+    scope.warmUp(executor).get();
+    Service service = (Service) ((Lazy<?>) c.getField("service").get(scope)).get();
+    assertSame(service.db, service.cache.get().db);
+    assertNotNull(service.db.url);
+  }
+
+  @Test(timeout = 20000)
+  public void warmsUpSourceScope() throws Exception {
+    check(builder("WarmSourceScope").generate(ClassGenerator.inMemory()).builtClass());
+  }
+
+  @Test(timeout = 20000)
+  public void warmsUpBytecodeScope() throws Exception {
+    check(builder("WarmBytecodeScope")
+        .generateClass(new GeneratedClassLoader(ScopeWarmUpTest.class.getClassLoader())));
+  }
+}